@@ -0,0 +1,132 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reports GC activity and heap high-water marks of {@link DefaultAllocator} and
+ * {@link SlabAllocator} while simulating station switches.
+ * <p>
+ * The numbers come from the JVM's collector rather than ART's, so they are printed for comparison
+ * and not asserted.
+ */
+public class AllocatorBenchmark {
+
+  private static final int SEGMENT_SIZE = ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE;
+  private static final int BUFFER_SEGMENT_COUNT = 256;
+  private static final int PREPARE_CYCLES = 20;
+  // Segments that flow through the buffer per prepare cycle, i.e. ~64 MB of media.
+  private static final int SEGMENTS_PER_CYCLE = 4 * BUFFER_SEGMENT_COUNT;
+
+  private interface AllocatorFactory {
+    Allocator createAllocator();
+  }
+
+  @Test
+  public void compareAllocators() throws Exception {
+    // Warm up both paths so that class loading and JIT don't skew the first result.
+    run(defaultAllocatorFactory(), 2);
+    run(slabAllocatorFactory(), 2);
+
+    Result defaultResult = run(defaultAllocatorFactory(), PREPARE_CYCLES);
+    Result slabResult = run(slabAllocatorFactory(), PREPARE_CYCLES);
+    System.out.println("DefaultAllocator " + defaultResult);
+    System.out.println("SlabAllocator " + slabResult);
+  }
+
+  private static Result run(AllocatorFactory factory, int cycles) {
+    MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    long baselineHeap = memoryBean.getHeapMemoryUsage().getUsed();
+    long gcCount = getGcCount();
+    long gcTimeMs = getGcTimeMs();
+    long peakHeap = 0;
+    ArrayDeque<Allocation> buffered = new ArrayDeque<>(BUFFER_SEGMENT_COUNT);
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      // Like a prepare: a fresh allocator fills the buffer and then streams through it.
+      Allocator allocator = factory.createAllocator();
+      for (int i = 0; i < SEGMENTS_PER_CYCLE; i++) {
+        if (buffered.size() == BUFFER_SEGMENT_COUNT) {
+          allocator.release(buffered.removeFirst());
+        }
+        Allocation allocation = allocator.allocate();
+        allocation.data[allocation.translateOffset(0)] = (byte) i;
+        buffered.addLast(allocation);
+        if (i % 16 == 0) {
+          peakHeap = Math.max(peakHeap, memoryBean.getHeapMemoryUsage().getUsed());
+        }
+      }
+      while (!buffered.isEmpty()) {
+        allocator.release(buffered.removeFirst());
+      }
+      assertEquals(0, allocator.getTotalBytesAllocated());
+    }
+    return new Result(getGcCount() - gcCount, getGcTimeMs() - gcTimeMs,
+        peakHeap - baselineHeap);
+  }
+
+  private static AllocatorFactory defaultAllocatorFactory() {
+    return new AllocatorFactory() {
+      @Override
+      public Allocator createAllocator() {
+        return new DefaultAllocator(SEGMENT_SIZE);
+      }
+    };
+  }
+
+  private static AllocatorFactory slabAllocatorFactory() {
+    return new AllocatorFactory() {
+      @Override
+      public Allocator createAllocator() {
+        return new SlabAllocator(SEGMENT_SIZE, SlabAllocator.DEFAULT_SLAB_SIZE);
+      }
+    };
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gcBean.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long getGcTimeMs() {
+    long timeMs = 0;
+    for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      timeMs += Math.max(0, gcBean.getCollectionTime());
+    }
+    return timeMs;
+  }
+
+  private static final class Result {
+
+    public final long gcCount;
+    public final long gcTimeMs;
+    public final long heapHighWaterBytes;
+
+    public Result(long gcCount, long gcTimeMs, long heapHighWaterBytes) {
+      this.gcCount = gcCount;
+      this.gcTimeMs = gcTimeMs;
+      this.heapHighWaterBytes = heapHighWaterBytes;
+    }
+
+    @Override
+    public String toString() {
+      return "[gcCount=" + gcCount + ", gcTimeMs=" + gcTimeMs + ", heapHighWaterKb="
+          + heapHighWaterBytes / 1024 + "]";
+    }
+
+  }
+
+}
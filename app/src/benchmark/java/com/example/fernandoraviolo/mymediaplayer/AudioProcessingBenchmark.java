@@ -0,0 +1,178 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Measures the {@link AudioProcessor}s on the JVM, each in a chain of its own and all of them
+ * together, the way {@link TimeStretchAudioRenderer} runs them: a minute of loud stereo audio at
+ * 44.1 kHz, in buffers of 1024 frames.
+ * <p>
+ * For each chain it prints the processing time per second of audio and the bytes allocated on the
+ * benchmark thread per buffer, which should stay at zero once warmed up; AudioProcessingTest checks
+ * that on every run. Copying the test signal into the buffer is included in the time.
+ */
+public class AudioProcessingBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int ITERATIONS = 20;
+  private static final int SAMPLE_RATE = 44100;
+  private static final int CHANNEL_COUNT = 2;
+  private static final int FRAMES_PER_BUFFER = 1024;
+  private static final int BUFFER_COUNT = 60 * SAMPLE_RATE / FRAMES_PER_BUFFER;
+
+  private interface ProcessorFactory {
+    AudioProcessor[] createProcessors();
+  }
+
+  @Test
+  public void benchmarkEqualizer() {
+    benchmark("ParametricEqualizer", new ProcessorFactory() {
+      @Override
+      public AudioProcessor[] createProcessors() {
+        return new AudioProcessor[] {createEqualizer()};
+      }
+    });
+  }
+
+  @Test
+  public void benchmarkLoudnessNormalizer() {
+    benchmark("LoudnessNormalizer", new ProcessorFactory() {
+      @Override
+      public AudioProcessor[] createProcessors() {
+        return new AudioProcessor[] {new LoudnessNormalizer()};
+      }
+    });
+  }
+
+  @Test
+  public void benchmarkLimiter() {
+    benchmark("LookaheadLimiter", new ProcessorFactory() {
+      @Override
+      public AudioProcessor[] createProcessors() {
+        return new AudioProcessor[] {new LookaheadLimiter()};
+      }
+    });
+  }
+
+  @Test
+  public void benchmarkChain() {
+    benchmark("Equalizer+Normalizer+Limiter", new ProcessorFactory() {
+      @Override
+      public AudioProcessor[] createProcessors() {
+        return new AudioProcessor[] {createEqualizer(), new LoudnessNormalizer(),
+            new LookaheadLimiter()};
+      }
+    });
+  }
+
+  private static void benchmark(String name, ProcessorFactory processorFactory) {
+    short[] signal = createSignal();
+    ByteBuffer buffer = createBuffer();
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      process(signal, buffer, new AudioProcessorChain(processorFactory.createProcessors()));
+    }
+    long elapsedNs = 0;
+    long allocatedBytes = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      AudioProcessorChain chain = new AudioProcessorChain(processorFactory.createProcessors());
+      // Configuring allocates the processors' state, which isn't per buffer.
+      chain.configure(SAMPLE_RATE, CHANNEL_COUNT);
+      process(signal, buffer, chain, 0, 1);
+      long startAllocatedBytes = getAllocatedBytes();
+      long startTimeNs = System.nanoTime();
+      process(signal, buffer, chain, 1, BUFFER_COUNT);
+      elapsedNs += System.nanoTime() - startTimeNs;
+      allocatedBytes += getAllocatedBytes() - startAllocatedBytes;
+    }
+    long bufferCount = (long) ITERATIONS * (BUFFER_COUNT - 1);
+    long audioUs = bufferCount * FRAMES_PER_BUFFER * 1000000L / SAMPLE_RATE;
+    Result result = new Result(elapsedNs * 1000000 / audioUs, allocatedBytes / bufferCount);
+    System.out.println(name + " " + result);
+  }
+
+  private static void process(short[] signal, ByteBuffer buffer, AudioProcessorChain chain) {
+    chain.configure(SAMPLE_RATE, CHANNEL_COUNT);
+    process(signal, buffer, chain, 0, BUFFER_COUNT);
+  }
+
+  private static void process(short[] signal, ByteBuffer buffer, AudioProcessorChain chain,
+      int firstBuffer, int endBuffer) {
+    for (int i = firstBuffer; i < endBuffer; i++) {
+      fill(buffer, signal, i);
+      chain.process(buffer, 0, buffer.capacity());
+    }
+  }
+
+  private static void fill(ByteBuffer buffer, short[] signal, int bufferIndex) {
+    int offset = bufferIndex * FRAMES_PER_BUFFER * CHANNEL_COUNT;
+    for (int i = 0; i < FRAMES_PER_BUFFER * CHANNEL_COUNT; i++) {
+      buffer.putShort(i * 2, signal[offset + i]);
+    }
+  }
+
+  private static ByteBuffer createBuffer() {
+    return ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * CHANNEL_COUNT * 2)
+        .order(ByteOrder.nativeOrder());
+  }
+
+  private static ParametricEqualizer createEqualizer() {
+    ParametricEqualizer equalizer = new ParametricEqualizer();
+    equalizer.addBand(60, 4, 0.7f);
+    equalizer.addBand(1000, -2, 1);
+    equalizer.addBand(8000, 3, 0.7f);
+    return equalizer;
+  }
+
+  /**
+   * Returns interleaved stereo with a tone swept across the audible range, noise and occasional
+   * full scale bursts, so that the limiter has peaks to catch.
+   */
+  private static short[] createSignal() {
+    Random random = new Random(0);
+    int frameCount = BUFFER_COUNT * FRAMES_PER_BUFFER;
+    short[] signal = new short[frameCount * CHANNEL_COUNT];
+    double phase = 0;
+    for (int frame = 0; frame < frameCount; frame++) {
+      double frequency = 50 * Math.pow(300, (double) frame / frameCount);
+      phase += 2 * Math.PI * frequency / SAMPLE_RATE;
+      boolean burst = (frame / SAMPLE_RATE) % 5 == 4 && frame % SAMPLE_RATE < SAMPLE_RATE / 4;
+      double amplitude = burst ? 1 : 0.4;
+      for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+        double sample = amplitude * (0.8 * Math.sin(phase + channel) + 0.2 * random.nextGaussian());
+        signal[frame * CHANNEL_COUNT + channel] =
+            (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample * 32767));
+      }
+    }
+    return signal;
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static final class Result {
+
+    public final long nsPerAudioSecond;
+    public final long allocatedBytesPerBuffer;
+
+    public Result(long nsPerAudioSecond, long allocatedBytesPerBuffer) {
+      this.nsPerAudioSecond = nsPerAudioSecond;
+      this.allocatedBytesPerBuffer = allocatedBytesPerBuffer;
+    }
+
+    @Override
+    public String toString() {
+      return "ns/s of audio: " + nsPerAudioSecond + ", realtime x"
+          + (nsPerAudioSecond == 0 ? "inf" : 1000000000L / nsPerAudioSecond)
+          + ", allocated bytes/buffer: " + allocatedBytesPerBuffer;
+    }
+
+  }
+
+}
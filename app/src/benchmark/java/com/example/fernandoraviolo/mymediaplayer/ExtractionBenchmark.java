@@ -0,0 +1,259 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.SampleHolder;
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.extractor.DefaultExtractorInput;
+import com.google.android.exoplayer.extractor.DefaultTrackOutput;
+import com.google.android.exoplayer.extractor.Extractor;
+import com.google.android.exoplayer.extractor.ExtractorInput;
+import com.google.android.exoplayer.extractor.ExtractorOutput;
+import com.google.android.exoplayer.extractor.PositionHolder;
+import com.google.android.exoplayer.extractor.SeekMap;
+import com.google.android.exoplayer.extractor.TrackOutput;
+import com.google.android.exoplayer.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer.extractor.ts.AdtsExtractor;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the extraction and buffering half of the {@link ExtractorRendererBuilder} pipeline on
+ * the JVM: an in-memory {@link DataSource} feeds an {@link Extractor}, whose samples are written
+ * into a {@link DefaultTrackOutput} backed by the allocator under test and read back out the way
+ * the audio renderer does. There's no decoding involved.
+ * <p>
+ * The loading loop mirrors {@code ExtractorSampleSource}, which itself can't run here because it
+ * needs a looper. For each combination of stream, allocator and segment size it prints samples
+ * per second, bytes allocated per second on the benchmark thread and the median latency from
+ * opening the source to the first readable sample.
+ * <p>
+ * Only MP3 and ADTS AAC are covered, because their frames can be generated here without an
+ * encoder. Ogg Vorbis and MP4 AAC need encoded headers from real files, which aren't in the tree,
+ * so those extractors aren't measured.
+ */
+public class ExtractionBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int ITERATIONS = 20;
+  // Roughly a minute of audio for either format.
+  private static final int FRAME_COUNT = 2500;
+  private static final int[] SEGMENT_SIZES =
+      {16 * 1024, ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE};
+
+  private interface ExtractorFactory {
+    Extractor createExtractor();
+  }
+
+  @Test
+  public void benchmarkMp3() throws Exception {
+    byte[] data = createMp3Stream(FRAME_COUNT);
+    ExtractorFactory factory = new ExtractorFactory() {
+      @Override
+      public Extractor createExtractor() {
+        return new Mp3Extractor();
+      }
+    };
+    benchmark("mp3", data, factory);
+  }
+
+  @Test
+  public void benchmarkAdts() throws Exception {
+    byte[] data = createAdtsStream(FRAME_COUNT);
+    ExtractorFactory factory = new ExtractorFactory() {
+      @Override
+      public Extractor createExtractor() {
+        return new AdtsExtractor();
+      }
+    };
+    benchmark("adts", data, factory);
+  }
+
+  private static void benchmark(String name, byte[] data, ExtractorFactory extractorFactory)
+      throws Exception {
+    for (int segmentSize : SEGMENT_SIZES) {
+      System.out.println(name + " DefaultAllocator/" + segmentSize / 1024 + "k "
+          + run(data, extractorFactory, new DefaultAllocator(segmentSize)));
+      System.out.println(name + " SlabAllocator/" + segmentSize / 1024 + "k "
+          + run(data, extractorFactory,
+              new SlabAllocator(segmentSize, SlabAllocator.DEFAULT_SLAB_SIZE)));
+    }
+  }
+
+  private static Result run(byte[] data, ExtractorFactory extractorFactory, Allocator allocator)
+      throws IOException, InterruptedException {
+    SampleHolder sampleHolder = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      extract(data, extractorFactory.createExtractor(), allocator, sampleHolder, null, 0);
+    }
+    long[] firstSampleLatenciesNs = new long[ITERATIONS];
+    long sampleCount = 0;
+    long allocatedBytes = getAllocatedBytes();
+    long startTimeNs = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sampleCount += extract(data, extractorFactory.createExtractor(), allocator, sampleHolder,
+          firstSampleLatenciesNs, i);
+    }
+    long elapsedNs = System.nanoTime() - startTimeNs;
+    allocatedBytes = getAllocatedBytes() - allocatedBytes;
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    Arrays.sort(firstSampleLatenciesNs);
+    return new Result(sampleCount * 1000000000L / elapsedNs,
+        allocatedBytes * 1000000000L / elapsedNs,
+        firstSampleLatenciesNs[ITERATIONS / 2] / 1000);
+  }
+
+  /**
+   * Extracts all samples of {@code data}, reading them back out after every extractor step.
+   *
+   * @param firstSampleLatenciesNs Receives the latency to the first sample at index
+   *     {@code iteration}. May be null.
+   * @return The number of samples read.
+   */
+  private static int extract(byte[] data, Extractor extractor, Allocator allocator,
+      SampleHolder sampleHolder, long[] firstSampleLatenciesNs, int iteration)
+      throws IOException, InterruptedException {
+    long startTimeNs = System.nanoTime();
+    BenchmarkExtractorOutput output = new BenchmarkExtractorOutput(allocator);
+    extractor.init(output);
+    DataSource dataSource = new ByteArrayDataSource(data);
+    long length = dataSource.open(new DataSpec((Uri) null));
+    ExtractorInput input = new DefaultExtractorInput(dataSource, 0, length);
+    PositionHolder positionHolder = new PositionHolder();
+    int sampleCount = 0;
+    int result = Extractor.RESULT_CONTINUE;
+    try {
+      while (result != Extractor.RESULT_END_OF_INPUT) {
+        result = extractor.read(input, positionHolder);
+        if (result == Extractor.RESULT_SEEK) {
+          throw new IllegalStateException("Unexpected seek");
+        }
+        DefaultTrackOutput trackOutput = output.trackOutput;
+        while (trackOutput != null && trackOutput.getSample(sampleHolder)) {
+          if (sampleCount == 0 && firstSampleLatenciesNs != null) {
+            firstSampleLatenciesNs[iteration] = System.nanoTime() - startTimeNs;
+          }
+          sampleCount++;
+          sampleHolder.clearData();
+        }
+      }
+    } finally {
+      dataSource.close();
+      if (output.trackOutput != null) {
+        output.trackOutput.clear();
+      }
+    }
+    return sampleCount;
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Returns a constant bitrate MPEG-1 Layer III stream, 128 kbit/s at 44.1 kHz, with silent
+   * frames.
+   */
+  private static byte[] createMp3Stream(int frameCount) {
+    int frameSize = 144 * 128000 / 44100;
+    byte[] data = new byte[frameCount * frameSize];
+    for (int i = 0; i < frameCount; i++) {
+      int offset = i * frameSize;
+      data[offset] = (byte) 0xFF;
+      data[offset + 1] = (byte) 0xFB;
+      data[offset + 2] = (byte) 0x90;
+      data[offset + 3] = (byte) 0x44;
+    }
+    return data;
+  }
+
+  /**
+   * Returns an ADTS stream of stereo AAC LC frames at 44.1 kHz with empty payloads.
+   */
+  private static byte[] createAdtsStream(int frameCount) {
+    int frameSize = 372;
+    byte[] data = new byte[frameCount * frameSize];
+    for (int i = 0; i < frameCount; i++) {
+      int offset = i * frameSize;
+      data[offset] = (byte) 0xFF;
+      data[offset + 1] = (byte) 0xF1;
+      data[offset + 2] = (byte) 0x50;
+      data[offset + 3] = (byte) (0x80 | ((frameSize >> 11) & 0x03));
+      data[offset + 4] = (byte) (frameSize >> 3);
+      data[offset + 5] = (byte) (((frameSize & 0x07) << 5) | 0x1F);
+      data[offset + 6] = (byte) 0xFC;
+    }
+    return data;
+  }
+
+  /**
+   * Routes the single track of an audio stream into a {@link DefaultTrackOutput}.
+   */
+  private static final class BenchmarkExtractorOutput implements ExtractorOutput {
+
+    private final Allocator allocator;
+
+    public DefaultTrackOutput trackOutput;
+
+    public BenchmarkExtractorOutput(Allocator allocator) {
+      this.allocator = allocator;
+    }
+
+    @Override
+    public TrackOutput track(int id) {
+      trackOutput = new DefaultTrackOutput(allocator);
+      return trackOutput;
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      // Do nothing.
+    }
+
+    @Override
+    public void drmInitData(DrmInitData drmInitData) {
+      // Do nothing.
+    }
+
+  }
+
+  private static final class Result {
+
+    public final long samplesPerSecond;
+    public final long allocatedBytesPerSecond;
+    public final long firstSampleLatencyUs;
+
+    public Result(long samplesPerSecond, long allocatedBytesPerSecond,
+        long firstSampleLatencyUs) {
+      this.samplesPerSecond = samplesPerSecond;
+      this.allocatedBytesPerSecond = allocatedBytesPerSecond;
+      this.firstSampleLatencyUs = firstSampleLatencyUs;
+    }
+
+    @Override
+    public String toString() {
+      return "[samplesPerSecond=" + samplesPerSecond + ", allocatedKbPerSecond="
+          + allocatedBytesPerSecond / 1024 + ", firstSampleLatencyUs=" + firstSampleLatencyUs
+          + "]";
+    }
+
+  }
+
+}
@@ -0,0 +1,30 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+/**
+ * A stage of an {@link AudioProcessorChain}, processing interleaved samples in place.
+ * <p>
+ * Implementations must not allocate in {@link #process(float[], int)}, which is called for every
+ * decoded buffer on the playback thread.
+ */
+public interface AudioProcessor {
+
+  /**
+   * Prepares for audio of the given format, discarding any state. Called before the first
+   * {@link #process(float[], int)} and whenever the format changes.
+   */
+  void configure(int sampleRate, int channelCount);
+
+  /**
+   * Processes audio in place.
+   *
+   * @param samples Interleaved samples, nominally in [-1, 1].
+   * @param frameCount The number of frames at the start of {@code samples} to process.
+   */
+  void process(float[] samples, int frameCount);
+
+  /**
+   * Discards any state that depends on previous audio, for example after a seek.
+   */
+  void reset();
+
+}
@@ -0,0 +1,93 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Runs 16-bit PCM through a series of {@link AudioProcessor}s.
+ * <p>
+ * Samples are converted to floats in a reused array, processed in place, and converted back with
+ * clipping. The array grows to fit the largest buffer seen, so nothing is allocated per buffer.
+ * A chain belongs to one renderer and is only used on its playback thread.
+ */
+public final class AudioProcessorChain {
+
+  /**
+   * Creates chains, one per renderer.
+   */
+  public interface Factory {
+
+    AudioProcessorChain createAudioProcessorChain();
+
+  }
+
+  private final AudioProcessor[] processors;
+
+  private int sampleRate;
+  private int channelCount;
+  private float[] samples;
+
+  /**
+   * @param processors The processors, in the order audio passes through them.
+   */
+  public AudioProcessorChain(AudioProcessor... processors) {
+    this.processors = processors;
+    samples = new float[0];
+  }
+
+  /**
+   * Prepares the processors for audio in the given format. If the format didn't change they are
+   * only {@link #reset()}.
+   */
+  public void configure(int sampleRate, int channelCount) {
+    if (sampleRate == this.sampleRate && channelCount == this.channelCount) {
+      reset();
+      return;
+    }
+    this.sampleRate = sampleRate;
+    this.channelCount = channelCount;
+    for (AudioProcessor processor : processors) {
+      processor.configure(sampleRate, channelCount);
+    }
+  }
+
+  /**
+   * Processes audio in place.
+   *
+   * @param buffer Interleaved 16-bit PCM in native byte order.
+   * @param offset The position of the first byte to process.
+   * @param size The number of bytes to process.
+   */
+  public void process(ByteBuffer buffer, int offset, int size) {
+    if (channelCount == 0) {
+      return;
+    }
+    buffer.order(ByteOrder.nativeOrder());
+    int frameCount = size / 2 / channelCount;
+    int sampleCount = frameCount * channelCount;
+    if (samples.length < sampleCount) {
+      samples = new float[sampleCount];
+    }
+    for (int i = 0; i < sampleCount; i++) {
+      samples[i] = buffer.getShort(offset + i * 2) / 32768f;
+    }
+    for (AudioProcessor processor : processors) {
+      processor.process(samples, frameCount);
+    }
+    for (int i = 0; i < sampleCount; i++) {
+      float sample = samples[i] * 32768f;
+      buffer.putShort(offset + i * 2,
+          (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+    }
+  }
+
+  /**
+   * Discards state that depends on previous audio, as after a seek.
+   */
+  public void reset() {
+    for (AudioProcessor processor : processors) {
+      processor.reset();
+    }
+  }
+
+}
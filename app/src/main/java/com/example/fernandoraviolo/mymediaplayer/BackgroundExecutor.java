@@ -0,0 +1,62 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads that all blocking background work of the app runs on, shared by the whole process:
+ * loads of data sources and renderer builders, playlist probes, and the writers of recordings and
+ * traces.
+ * <p>
+ * A thread is started whenever all of them are busy, since a task may wait on the network for as
+ * long as a read timeout or, like a writer, run for a whole session. A thread dies after being
+ * idle for a minute. While running a task a thread is
+ * named after it, so that it can be told apart in traces and thread dumps.
+ */
+public final class BackgroundExecutor {
+
+  private static final String THREAD_NAME_PREFIX = "Background #";
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+      KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+      new ThreadFactory() {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+        }
+
+      });
+
+  private BackgroundExecutor() {}
+
+  /**
+   * Runs {@code task} on a background thread.
+   *
+   * @param name The name of the thread while it runs the task.
+   * @param task The task.
+   */
+  public static void execute(final String name, final Runnable task) {
+    EXECUTOR.execute(new Runnable() {
+      @Override
+      public void run() {
+        Thread thread = Thread.currentThread();
+        String idleName = thread.getName();
+        thread.setName(name);
+        try {
+          task.run();
+        } finally {
+          thread.setName(idleName);
+        }
+      }
+    });
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+/**
+ * A second order IIR filter applied to each channel of interleaved audio, with coefficients from
+ * the Audio EQ Cookbook or, for loudness measurement, ITU-R BS.1770.
+ */
+/* package */ final class Biquad {
+
+  private final int channelCount;
+  private final float[] x1;
+  private final float[] x2;
+  private final float[] y1;
+  private final float[] y2;
+
+  private float b0;
+  private float b1;
+  private float b2;
+  private float a1;
+  private float a2;
+
+  public Biquad(int channelCount) {
+    this.channelCount = channelCount;
+    x1 = new float[channelCount];
+    x2 = new float[channelCount];
+    y1 = new float[channelCount];
+    y2 = new float[channelCount];
+    b0 = 1;
+  }
+
+  public void setPeaking(int sampleRate, double frequencyHz, double gainDb, double q) {
+    double a = Math.pow(10, gainDb / 40);
+    double w0 = 2 * Math.PI * frequencyHz / sampleRate;
+    double alpha = Math.sin(w0) / (2 * q);
+    double cos = Math.cos(w0);
+    setCoefficients(1 + alpha * a, -2 * cos, 1 - alpha * a, 1 + alpha / a, -2 * cos,
+        1 - alpha / a);
+  }
+
+  /**
+   * Sets the K-weighting pre-filter of ITU-R BS.1770, redesigned for {@code sampleRate} the way
+   * libebur128 does. The cookbook shelf with the same parameters is off by a quarter of a dB at
+   * 1 kHz.
+   */
+  public void setKWeightingShelf(int sampleRate) {
+    double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+    double q = 0.7071752369554196;
+    double vh = Math.pow(10, 3.999843853973347 / 20);
+    double vb = Math.pow(vh, 0.4996667741545416);
+    setCoefficients(vh + vb * k / q + k * k, 2 * (k * k - vh), vh - vb * k / q + k * k,
+        1 + k / q + k * k, 2 * (k * k - 1), 1 - k / q + k * k);
+  }
+
+  /**
+   * Sets the RLB high pass filter of ITU-R BS.1770, redesigned for {@code sampleRate}.
+   */
+  public void setKWeightingHighPass(int sampleRate) {
+    double k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+    double q = 0.5003270373238773;
+    double a0 = 1 + k / q + k * k;
+    // Unlike the cookbook high pass, the numerator isn't scaled by a0.
+    setCoefficients(a0, -2 * a0, a0, a0, 2 * (k * k - 1), 1 - k / q + k * k);
+  }
+
+  /**
+   * Filters interleaved samples in place.
+   */
+  public void process(float[] samples, int frameCount) {
+    for (int channel = 0; channel < channelCount; channel++) {
+      float x1 = this.x1[channel];
+      float x2 = this.x2[channel];
+      float y1 = this.y1[channel];
+      float y2 = this.y2[channel];
+      for (int i = channel; i < frameCount * channelCount; i += channelCount) {
+        float x = samples[i];
+        float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        samples[i] = y;
+      }
+      this.x1[channel] = x1;
+      this.x2[channel] = x2;
+      this.y1[channel] = y1;
+      this.y2[channel] = y2;
+    }
+  }
+
+  public void reset() {
+    for (int channel = 0; channel < channelCount; channel++) {
+      x1[channel] = 0;
+      x2[channel] = 0;
+      y1[channel] = 0;
+      y2[channel] = 0;
+    }
+  }
+
+  private void setCoefficients(double b0, double b1, double b2, double a0, double a1, double a2) {
+    this.b0 = (float) (b0 / a0);
+    this.b1 = (float) (b1 / a0);
+    this.b2 = (float) (b2 / a0);
+    this.a1 = (float) (a1 / a0);
+    this.a2 = (float) (a2 / a0);
+  }
+
+}
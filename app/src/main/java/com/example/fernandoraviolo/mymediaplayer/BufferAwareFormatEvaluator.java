@@ -0,0 +1,172 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.List;
+
+/**
+ * A {@link FormatEvaluator} for audio that picks the highest bitrate the bandwidth estimate of a
+ * {@link BandwidthMeter} allows, while looking at how much is buffered.
+ * <p>
+ * The evaluator steps up one format at a time, and only once enough is buffered to ride out a
+ * wrong guess. It steps down as soon as the estimate drops, unless the buffer is large enough to
+ * wait the dip out, and it also steps down when the next chunk of the current format would take
+ * longer to load than what's buffered, so the switch happens before the buffer drains rather than
+ * after. Chunks already buffered are never discarded: audio chunks are small and refetching them
+ * costs more than it gains.
+ */
+public final class BufferAwareFormatEvaluator implements FormatEvaluator {
+
+  public static final int DEFAULT_MAX_INITIAL_BITRATE = 128000;
+  public static final int DEFAULT_MIN_BUFFER_FOR_INCREASE_MS = 10000;
+  public static final int DEFAULT_MAX_BUFFER_FOR_DECREASE_MS = 20000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final int maxInitialBitrate;
+  private final long minBufferForIncreaseUs;
+  private final long maxBufferForDecreaseUs;
+  private final float bandwidthFraction;
+
+  public BufferAwareFormatEvaluator(BandwidthMeter bandwidthMeter) {
+    this(bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_BUFFER_FOR_INCREASE_MS,
+        DEFAULT_MAX_BUFFER_FOR_DECREASE_MS, DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate The maximum bitrate to use before there's an estimate.
+   * @param minBufferForIncreaseMs The minimum buffered duration to step up.
+   * @param maxBufferForDecreaseMs The buffered duration from which a drop in the estimate is
+   *     waited out instead of stepping down.
+   * @param bandwidthFraction The fraction of the estimate that formats may use, to leave headroom.
+   */
+  public BufferAwareFormatEvaluator(BandwidthMeter bandwidthMeter, int maxInitialBitrate,
+      int minBufferForIncreaseMs, int maxBufferForDecreaseMs, float bandwidthFraction) {
+    this.bandwidthMeter = bandwidthMeter;
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.minBufferForIncreaseUs = minBufferForIncreaseMs * 1000L;
+    this.maxBufferForDecreaseUs = maxBufferForDecreaseMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+  }
+
+  @Override
+  public void enable() {
+    // Do nothing.
+  }
+
+  @Override
+  public void disable() {
+    // Do nothing.
+  }
+
+  @Override
+  public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+      Format[] formats, Evaluation evaluation) {
+    long bufferedDurationUs = 0;
+    long chunkDurationUs = 0;
+    if (!queue.isEmpty()) {
+      MediaChunk lastChunk = queue.get(queue.size() - 1);
+      bufferedDurationUs = Math.max(0, lastChunk.endTimeUs - playbackPositionUs);
+      chunkDurationUs = lastChunk.endTimeUs - lastChunk.startTimeUs;
+    }
+    evaluation.queueSize = queue.size();
+    evaluate(bufferedDurationUs, chunkDurationUs, formats, evaluation);
+  }
+
+  /**
+   * Sets {@code evaluation.format} given the buffered duration and the duration of a chunk, which
+   * is 0 if it isn't known yet.
+   */
+  /* package */ void evaluate(long bufferedDurationUs, long chunkDurationUs, Format[] formats,
+      Evaluation evaluation) {
+    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+    long availableBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE ? maxInitialBitrate
+        : (long) (bitrateEstimate * bandwidthFraction);
+    Format current = evaluation.format;
+    Format ideal = getHighestFormatBelow(formats, availableBitrate);
+    if (current == null) {
+      evaluation.format = ideal;
+      return;
+    }
+
+    Format selected = current;
+    if (ideal.bitrate > current.bitrate) {
+      if (bufferedDurationUs >= minBufferForIncreaseUs) {
+        selected = getNextFormatAbove(formats, current);
+      }
+    } else if (ideal.bitrate < current.bitrate) {
+      if (bufferedDurationUs < maxBufferForDecreaseUs) {
+        selected = ideal;
+      }
+    } else if (bitrateEstimate != BandwidthMeter.NO_ESTIMATE && chunkDurationUs > 0
+        && getLoadDurationUs(chunkDurationUs, current, bitrateEstimate) >= bufferedDurationUs) {
+      // The estimate still covers the format, but loading its next chunk would drain the buffer.
+      selected = getHighestLoadableFormat(formats, chunkDurationUs, bufferedDurationUs,
+          bitrateEstimate);
+    }
+    if (selected != current) {
+      evaluation.format = selected;
+      evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+    }
+  }
+
+  private static long getLoadDurationUs(long chunkDurationUs, Format format, long bitrateEstimate) {
+    return chunkDurationUs * format.bitrate / Math.max(1, bitrateEstimate);
+  }
+
+  /**
+   * Returns the highest format whose next chunk loads before the buffer drains, or the lowest.
+   */
+  private static Format getHighestLoadableFormat(Format[] formats, long chunkDurationUs,
+      long bufferedDurationUs, long bitrateEstimate) {
+    Format highest = null;
+    Format lowest = null;
+    for (Format format : formats) {
+      if (lowest == null || format.bitrate < lowest.bitrate) {
+        lowest = format;
+      }
+      if (getLoadDurationUs(chunkDurationUs, format, bitrateEstimate) < bufferedDurationUs
+          && (highest == null || format.bitrate > highest.bitrate)) {
+        highest = format;
+      }
+    }
+    return highest != null ? highest : lowest;
+  }
+
+  /**
+   * Returns the highest format with a bitrate of at most {@code bitrate}, or the lowest.
+   */
+  private static Format getHighestFormatBelow(Format[] formats, long bitrate) {
+    Format highest = null;
+    Format lowest = null;
+    for (Format format : formats) {
+      if (lowest == null || format.bitrate < lowest.bitrate) {
+        lowest = format;
+      }
+      if (format.bitrate <= bitrate && (highest == null || format.bitrate > highest.bitrate)) {
+        highest = format;
+      }
+    }
+    return highest != null ? highest : lowest;
+  }
+
+  /**
+   * Returns the format with the next higher bitrate than {@code current}, or {@code current}.
+   */
+  private static Format getNextFormatAbove(Format[] formats, Format current) {
+    Format next = current;
+    for (Format format : formats) {
+      if (format.bitrate > current.bitrate
+          && (next == current || format.bitrate < next.bitrate)) {
+        next = format;
+      }
+    }
+    return next;
+  }
+
+}
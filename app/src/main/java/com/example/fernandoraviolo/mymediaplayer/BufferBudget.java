@@ -0,0 +1,236 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.util.SlidingPercentile;
+import com.google.android.exoplayer.util.Util;
+
+/**
+ * Decides how many bytes of media may be buffered ahead of the playback position.
+ * <p>
+ * The budget is sized to hold {@link #TARGET_BUFFER_MS} of media at the stream bitrate, capped by a
+ * fraction of the process memory class. It shrinks when the system reports memory pressure and
+ * grows back once the pressure is gone.
+ * <p>
+ * Without a declared bitrate, the stream bitrate is estimated from a low percentile of the recent
+ * bandwidth samples. Once the buffer is full the source is read at the stream rate, so those are
+ * the samples that count, while a single slow one, such as the first transfer that includes the
+ * connection setup, ages out. {@link #reset()} forgets both bitrates when the stream changes.
+ */
+public final class BufferBudget implements BandwidthMeter.EventListener, ComponentCallbacks2 {
+
+  public static final int TARGET_BUFFER_MS = 60000;
+
+  private static final int MIN_SEGMENT_COUNT = 8;
+  private static final int MAX_SEGMENT_COUNT = 256;
+  // Fraction of the memory class we allow the media buffer to take.
+  private static final int MEMORY_CLASS_DIVISOR = 16;
+  private static final int LOW_RAM_MEMORY_CLASS_DIVISOR = 32;
+  private static final long MEMORY_PRESSURE_TIMEOUT_MS = 30000;
+  // Samples are weighted by the square root of their size, as in DefaultBandwidthMeter.
+  private static final int MAX_SAMPLE_WEIGHT = 2000;
+  private static final float OBSERVED_BITRATE_PERCENTILE = 0.2f;
+
+  private final Context context;
+  private final int segmentSize;
+  private final int memoryCap;
+
+  private volatile int streamBitrate;
+  private volatile int observedBitrate;
+  // Guarded by this.
+  private SlidingPercentile bitrateSamples;
+  private volatile int pressureShift;
+  private volatile long pressureTimeMs;
+  private volatile int bufferSize;
+
+  /**
+   * @param context A context.
+   * @param segmentSize The size of each allocator segment. The budget is always a multiple of it.
+   */
+  public BufferBudget(Context context, int segmentSize) {
+    this.context = context.getApplicationContext();
+    this.segmentSize = segmentSize;
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    int divisor = isLowRamDevice(activityManager) ? LOW_RAM_MEMORY_CLASS_DIVISOR
+        : MEMORY_CLASS_DIVISOR;
+    long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+    memoryCap = clamp(memoryClassBytes / divisor);
+    streamBitrate = MediaFormat.NO_VALUE;
+    observedBitrate = MediaFormat.NO_VALUE;
+    bitrateSamples = new SlidingPercentile(MAX_SAMPLE_WEIGHT);
+    updateBufferSize();
+  }
+
+  /**
+   * Starts listening for memory pressure callbacks.
+   */
+  public void register() {
+    context.registerComponentCallbacks(this);
+  }
+
+  public void unregister() {
+    context.unregisterComponentCallbacks(this);
+  }
+
+  /**
+   * Returns the number of bytes that may currently be buffered.
+   */
+  public int getBufferSize() {
+    if (pressureShift != 0
+        && SystemClock.elapsedRealtime() - pressureTimeMs > MEMORY_PRESSURE_TIMEOUT_MS) {
+      // The system stops sending trim callbacks once memory is available again.
+      pressureShift = 0;
+      updateBufferSize();
+    }
+    return bufferSize;
+  }
+
+  /**
+   * Returns the largest budget this instance will ever report.
+   */
+  public int getMaxBufferSize() {
+    return memoryCap;
+  }
+
+  /**
+   * Sets the bitrate declared by the stream format, in bits per second. Takes precedence over the
+   * bitrate observed from bandwidth samples.
+   *
+   * @param bitrate The bitrate, or {@link MediaFormat#NO_VALUE} if unknown.
+   */
+  public synchronized void setStreamBitrate(int bitrate) {
+    streamBitrate = bitrate;
+    updateBufferSize();
+  }
+
+  /**
+   * Forgets the declared and observed bitrates, for when a different stream is about to load.
+   */
+  public synchronized void reset() {
+    streamBitrate = MediaFormat.NO_VALUE;
+    observedBitrate = MediaFormat.NO_VALUE;
+    bitrateSamples = new SlidingPercentile(MAX_SAMPLE_WEIGHT);
+    updateBufferSize();
+  }
+
+  /**
+   * Wraps {@code allocator} so that loading blocks once the current budget is used up, even if it
+   * has shrunk since the sample source was created.
+   */
+  public Allocator wrap(Allocator allocator) {
+    return new BudgetedAllocator(allocator);
+  }
+
+  // BandwidthMeter.EventListener
+
+  @Override
+  public synchronized void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+    if (elapsedMs > 0 && bytes > 0) {
+      float sampleBitrate = bytes * 8000f / elapsedMs;
+      bitrateSamples.addSample((int) Math.sqrt(bytes), sampleBitrate);
+      observedBitrate = (int) Math.min(Integer.MAX_VALUE,
+          bitrateSamples.getPercentile(OBSERVED_BITRATE_PERCENTILE));
+      updateBufferSize();
+    }
+  }
+
+  // ComponentCallbacks2
+
+  @Override
+  public void onTrimMemory(int level) {
+    if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_COMPLETE) {
+      onMemoryPressure(3);
+    } else if (level == TRIM_MEMORY_RUNNING_LOW || level >= TRIM_MEMORY_MODERATE) {
+      onMemoryPressure(2);
+    } else if (level == TRIM_MEMORY_RUNNING_MODERATE || level >= TRIM_MEMORY_BACKGROUND) {
+      onMemoryPressure(1);
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    onMemoryPressure(3);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
+    // Do nothing.
+  }
+
+  private void onMemoryPressure(int shift) {
+    pressureTimeMs = SystemClock.elapsedRealtime();
+    pressureShift = shift;
+    updateBufferSize();
+  }
+
+  private void updateBufferSize() {
+    int bitrate = streamBitrate != MediaFormat.NO_VALUE ? streamBitrate : observedBitrate;
+    long size = memoryCap;
+    if (bitrate != MediaFormat.NO_VALUE) {
+      size = Math.min(size, (long) bitrate * TARGET_BUFFER_MS / 8000);
+    }
+    bufferSize = clamp(size >> pressureShift);
+  }
+
+  private int clamp(long size) {
+    long segments = (size + segmentSize - 1) / segmentSize;
+    segments = Math.max(MIN_SEGMENT_COUNT, Math.min(MAX_SEGMENT_COUNT, segments));
+    return (int) segments * segmentSize;
+  }
+
+  @TargetApi(19)
+  private static boolean isLowRamDevice(ActivityManager activityManager) {
+    return Util.SDK_INT >= 19 && activityManager.isLowRamDevice();
+  }
+
+  private final class BudgetedAllocator implements Allocator {
+
+    private final Allocator allocator;
+
+    public BudgetedAllocator(Allocator allocator) {
+      this.allocator = allocator;
+    }
+
+    @Override
+    public Allocation allocate() {
+      return allocator.allocate();
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      allocator.release(allocation);
+    }
+
+    @Override
+    public void trim(int targetSize) {
+      allocator.trim(Math.min(targetSize, getBufferSize()));
+    }
+
+    @Override
+    public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+      allocator.blockWhileTotalBytesAllocatedExceeds(Math.min(limit, getBufferSize()));
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      return allocator.getTotalBytesAllocated();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return allocator.getIndividualAllocationLength();
+    }
+
+  }
+
+}
@@ -0,0 +1,204 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+
+/**
+ * Makes a sample source load in bursts, so that the cellular radio can drop to idle in between
+ * instead of staying awake to trickle data at the stream rate.
+ * <p>
+ * Loading runs until the buffer reaches the high watermark and then stops until playback drains
+ * it to the low watermark, both given as a percentage of the buffer size the sample source asks
+ * for. The connection stays open while idle; if the server drops it meanwhile the sample source
+ * reconnects where it left off, so this should only be used for on-demand content.
+ * <p>
+ * Bytes per burst are counted in whole allocations. Radio-active time is the time spent loading,
+ * not counting the time the radio itself takes to go idle after a burst.
+ */
+public final class BurstLoadPolicy {
+
+  /**
+   * Interface definition for a callback to be notified of {@link BurstLoadPolicy} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when a burst ends because the buffer reached the high watermark.
+     *
+     * @param burstDurationMs How long the burst took.
+     * @param burstBytes The number of bytes loaded during the burst.
+     * @param idleDurationMs How long loading was idle before the burst.
+     */
+    void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs);
+
+  }
+
+  public static final int DEFAULT_HIGH_WATERMARK_PERCENT = 100;
+  public static final int DEFAULT_LOW_WATERMARK_PERCENT = 25;
+
+  private final int highWatermarkPercent;
+  private final int lowWatermarkPercent;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+
+  // Guarded by this.
+  private boolean bursting;
+  private long burstStartTimeMs;
+  private long burstBytes;
+  private long idleStartTimeMs;
+  private long lastIdleDurationMs;
+  private long burstCount;
+  private long activeTimeMs;
+  private long idleTimeMs;
+  private long totalBytes;
+
+  /**
+   * @param highWatermarkPercent The buffer level at which loading stops.
+   * @param lowWatermarkPercent The buffer level at which loading starts again.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public BurstLoadPolicy(int highWatermarkPercent, int lowWatermarkPercent, Handler eventHandler,
+      EventListener eventListener) {
+    this.highWatermarkPercent = highWatermarkPercent;
+    this.lowWatermarkPercent = lowWatermarkPercent;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    idleStartTimeMs = -1;
+  }
+
+  /**
+   * Wraps {@code allocator} so that loading through it follows this policy. An instance should
+   * only wrap the allocator of one sample source at a time.
+   */
+  public Allocator wrap(Allocator allocator) {
+    return new BurstAllocator(allocator);
+  }
+
+  /**
+   * Returns the number of bursts that reached the high watermark.
+   */
+  public synchronized long getBurstCount() {
+    return burstCount;
+  }
+
+  /**
+   * Returns the total time spent loading, in milliseconds.
+   */
+  public synchronized long getActiveTimeMs() {
+    return activeTimeMs + (bursting ? SystemClock.elapsedRealtime() - burstStartTimeMs : 0);
+  }
+
+  /**
+   * Returns the total time spent idle between bursts, in milliseconds.
+   */
+  public synchronized long getIdleTimeMs() {
+    return idleTimeMs + (idleStartTimeMs != -1 ? SystemClock.elapsedRealtime() - idleStartTimeMs
+        : 0);
+  }
+
+  /**
+   * Returns the total number of bytes loaded.
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private synchronized void maybeStartBurst() {
+    if (bursting) {
+      return;
+    }
+    bursting = true;
+    burstStartTimeMs = SystemClock.elapsedRealtime();
+    burstBytes = 0;
+    // The first burst starts without having been idle.
+    lastIdleDurationMs = idleStartTimeMs == -1 ? 0 : burstStartTimeMs - idleStartTimeMs;
+    idleTimeMs += lastIdleDurationMs;
+    idleStartTimeMs = -1;
+  }
+
+  private synchronized void onAllocated(int length) {
+    burstBytes += length;
+    totalBytes += length;
+  }
+
+  private void endBurst() {
+    final long burstDurationMs;
+    final long bytes;
+    final long idleDurationMs;
+    synchronized (this) {
+      if (!bursting) {
+        return;
+      }
+      long nowMs = SystemClock.elapsedRealtime();
+      bursting = false;
+      burstDurationMs = nowMs - burstStartTimeMs;
+      bytes = burstBytes;
+      idleDurationMs = lastIdleDurationMs;
+      burstCount++;
+      activeTimeMs += burstDurationMs;
+      idleStartTimeMs = nowMs;
+    }
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onLoadBurst(burstDurationMs, bytes, idleDurationMs);
+        }
+      });
+    }
+  }
+
+  private final class BurstAllocator implements Allocator {
+
+    private final Allocator allocator;
+
+    public BurstAllocator(Allocator allocator) {
+      this.allocator = allocator;
+    }
+
+    @Override
+    public Allocation allocate() {
+      Allocation allocation = allocator.allocate();
+      onAllocated(allocator.getIndividualAllocationLength());
+      return allocation;
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      allocator.release(allocation);
+    }
+
+    @Override
+    public void trim(int targetSize) {
+      allocator.trim(targetSize);
+    }
+
+    @Override
+    public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+      int highWatermark = (int) ((long) limit * highWatermarkPercent / 100);
+      if (allocator.getTotalBytesAllocated() > highWatermark) {
+        endBurst();
+        allocator.blockWhileTotalBytesAllocatedExceeds(
+            (int) ((long) limit * lowWatermarkPercent / 100));
+      }
+      maybeStartBurst();
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      return allocator.getTotalBytesAllocated();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return allocator.getIndividualAllocationLength();
+    }
+
+  }
+
+}
@@ -0,0 +1,59 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * A {@link Handler} that measures how long the messages and runnables it dispatches take, so that
+ * the time player callbacks spend on a thread can be compared between configurations.
+ * <p>
+ * Counters are written on the handler's thread only and may be read from any thread.
+ */
+public final class CallbackTimingHandler extends Handler {
+
+  private volatile long callbackCount;
+  private volatile long totalTimeNs;
+  private volatile long maxTimeNs;
+
+  public CallbackTimingHandler(Looper looper) {
+    super(looper);
+  }
+
+  @Override
+  public void dispatchMessage(Message msg) {
+    long startTimeNs = System.nanoTime();
+    try {
+      super.dispatchMessage(msg);
+    } finally {
+      addCallbackTime(System.nanoTime() - startTimeNs);
+    }
+  }
+
+  /**
+   * Counts a callback that reached the handler's thread some other way. Must be called on the
+   * handler's thread.
+   *
+   * @param durationNs How long the callback took.
+   */
+  public void addCallbackTime(long durationNs) {
+    callbackCount++;
+    totalTimeNs += durationNs;
+    if (durationNs > maxTimeNs) {
+      maxTimeNs = durationNs;
+    }
+  }
+
+  public long getCallbackCount() {
+    return callbackCount;
+  }
+
+  public long getTotalTimeUs() {
+    return totalTimeNs / 1000;
+  }
+
+  public long getMaxTimeUs() {
+    return maxTimeNs / 1000;
+  }
+
+}
@@ -0,0 +1,177 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+
+import com.google.android.exoplayer.util.Util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Blends the decoded 16-bit PCM of an outgoing stream into that of an incoming one.
+ * <p>
+ * The outgoing renderer {@link #write writes} its output into a ring buffer instead of its audio
+ * track. The incoming renderer {@link #mix mixes} the ring buffer into its own output in place,
+ * fading itself in and the outgoing stream out along equal power curves, until the fade is
+ * {@link #isDone() done}. Until the outgoing stream's first write the incoming output is silenced,
+ * since the outgoing stream is still playing on its own track.
+ * <p>
+ * Both streams must have the same sample rate and channel count. If they don't, the crossfade is
+ * abandoned and the incoming stream plays on its own, as after a hard cut. The ring buffer is
+ * allocated on the first write and nothing is allocated per buffer.
+ */
+public final class Crossfader {
+
+  public static final long DEFAULT_DURATION_MS = 3000;
+
+  private static final int RING_BUFFER_MS = 500;
+  private static final int GAIN_TABLE_SIZE = 1024;
+  private static final float[] FADE_IN_GAINS;
+  static {
+    FADE_IN_GAINS = new float[GAIN_TABLE_SIZE + 1];
+    for (int i = 0; i <= GAIN_TABLE_SIZE; i++) {
+      FADE_IN_GAINS[i] = (float) Math.sin(Math.PI / 2 * i / GAIN_TABLE_SIZE);
+    }
+  }
+
+  private final long durationMs;
+
+  // Guarded by this.
+  private int sampleRate;
+  private int channelCount;
+  private short[] ring;
+  private int ringReadIndex;
+  private int ringSize;
+  private long fadeFrameCount;
+  private long fadedFrameCount;
+  private boolean started;
+  private boolean done;
+
+  /**
+   * @param durationMs The duration of the fade.
+   */
+  public Crossfader(long durationMs) {
+    this.durationMs = durationMs;
+  }
+
+  /**
+   * Returns whether the device can afford to decode two streams at once. If it can't, switching
+   * streams should cut instead of crossfading.
+   */
+  @TargetApi(19)
+  public static boolean isSupported(Context context) {
+    if (Runtime.getRuntime().availableProcessors() < 2) {
+      return false;
+    }
+    if (Util.SDK_INT >= 19) {
+      ActivityManager activityManager =
+          (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+      return !activityManager.isLowRamDevice();
+    }
+    return true;
+  }
+
+  /**
+   * Sets the format of one of the streams. Abandons the crossfade if it differs from the format of
+   * the other one.
+   */
+  public synchronized void setFormat(int sampleRate, int channelCount) {
+    if (this.sampleRate == 0) {
+      this.sampleRate = sampleRate;
+      this.channelCount = channelCount;
+      fadeFrameCount = Math.max(1, durationMs * sampleRate / 1000);
+    } else if (this.sampleRate != sampleRate || this.channelCount != channelCount) {
+      done = true;
+    }
+  }
+
+  /**
+   * Abandons the crossfade.
+   */
+  public synchronized void abort() {
+    done = true;
+  }
+
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Queues outgoing audio for mixing. Once the fade is done, all audio is discarded.
+   *
+   * @param buffer Interleaved 16-bit PCM in native byte order.
+   * @param offset The position of the first byte to queue.
+   * @param size The number of bytes to queue.
+   * @return The number of bytes queued, fewer than {@code size} if the ring buffer is full.
+   */
+  public synchronized int write(ByteBuffer buffer, int offset, int size) {
+    if (done || sampleRate == 0) {
+      return done ? size : 0;
+    }
+    if (ring == null) {
+      ring = new short[sampleRate * channelCount * RING_BUFFER_MS / 1000];
+    }
+    started = true;
+    buffer.order(ByteOrder.nativeOrder());
+    int sampleCount = Math.min(size / 2, ring.length - ringSize);
+    // Whole frames only, so that channels stay aligned.
+    sampleCount -= sampleCount % channelCount;
+    int writeIndex = (ringReadIndex + ringSize) % ring.length;
+    for (int i = 0; i < sampleCount; i++) {
+      ring[writeIndex] = buffer.getShort(offset + i * 2);
+      writeIndex = writeIndex + 1 == ring.length ? 0 : writeIndex + 1;
+    }
+    ringSize += sampleCount;
+    return sampleCount * 2;
+  }
+
+  /**
+   * Mixes queued outgoing audio into incoming audio, in place.
+   *
+   * @param buffer Interleaved 16-bit PCM in native byte order.
+   * @param offset The position of the first byte to mix into.
+   * @param size The number of bytes to mix into.
+   */
+  public synchronized void mix(ByteBuffer buffer, int offset, int size) {
+    if (done || sampleRate == 0) {
+      return;
+    }
+    buffer.order(ByteOrder.nativeOrder());
+    int frameCount = size / 2 / channelCount;
+    if (!started) {
+      for (int i = 0; i < frameCount * channelCount; i++) {
+        buffer.putShort(offset + i * 2, (short) 0);
+      }
+      return;
+    }
+    int position = offset;
+    for (int frame = 0; frame < frameCount; frame++) {
+      if (fadedFrameCount >= fadeFrameCount) {
+        done = true;
+        break;
+      }
+      int gainIndex = (int) (fadedFrameCount * GAIN_TABLE_SIZE / fadeFrameCount);
+      float inGain = FADE_IN_GAINS[gainIndex];
+      float outGain = FADE_IN_GAINS[GAIN_TABLE_SIZE - gainIndex];
+      boolean hasOutgoing = ringSize >= channelCount;
+      for (int channel = 0; channel < channelCount; channel++) {
+        float sample = buffer.getShort(position) * inGain;
+        if (hasOutgoing) {
+          // An outgoing stream that can't keep up is faded over silence.
+          sample += ring[ringReadIndex] * outGain;
+          ringReadIndex = ringReadIndex + 1 == ring.length ? 0 : ringReadIndex + 1;
+        }
+        buffer.putShort(position, (short) Math.max(Short.MIN_VALUE,
+            Math.min(Short.MAX_VALUE, sample)));
+        position += 2;
+      }
+      if (hasOutgoing) {
+        ringSize -= channelCount;
+      }
+      fadedFrameCount++;
+    }
+  }
+
+}
@@ -0,0 +1,215 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.chunk.ChunkSampleSource;
+import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
+import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+import java.io.IOException;
+
+/**
+ * A {@link RadioPlayer.RendererBuilder} for DASH manifests with one or more audio representations.
+ * <p>
+ * All representations of the first audio adaptation set are played as a single adaptive track,
+ * switched between by a {@link BufferAwareFormatEvaluator} that follows the estimate of a
+ * {@link DefaultBandwidthMeter}.
+ */
+public class DashRendererBuilder implements RadioPlayer.RendererBuilder {
+
+  private static final String TAG = "DashRendererBuilder";
+
+  private static final int BUFFER_SEGMENT_COUNT = 54;
+  private static final int LIVE_EDGE_LATENCY_MS = 30000;
+
+  private final Context context;
+  private final String userAgent;
+  private final String url;
+
+  private AsyncRendererBuilder currentAsyncBuilder;
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for all requests.
+   * @param url The manifest url.
+   */
+  public DashRendererBuilder(Context context, String userAgent, String url) {
+    this.context = context;
+    this.userAgent = userAgent;
+    this.url = url;
+  }
+
+  @Override
+  public void buildRenderers(RadioPlayer player) {
+    cancel();
+    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+    currentAsyncBuilder.init();
+  }
+
+  @Override
+  public void cancel() {
+    if (currentAsyncBuilder != null) {
+      currentAsyncBuilder.cancel();
+      currentAsyncBuilder = null;
+    }
+  }
+
+  /**
+   * Loads the manifest, resolves the server time of live manifests, and builds the renderers.
+   */
+  private static final class AsyncRendererBuilder implements
+      ManifestFetcher.ManifestCallback<MediaPresentationDescription>,
+      UtcTimingElementResolver.UtcTimingCallback {
+
+    private final Context context;
+    private final String userAgent;
+    private final RadioPlayer player;
+    private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+    private final UriDataSource manifestDataSource;
+
+    private boolean canceled;
+    private MediaPresentationDescription manifest;
+    private long elapsedRealtimeOffset;
+
+    public AsyncRendererBuilder(Context context, String userAgent, String url,
+        RadioPlayer player) {
+      this.context = context;
+      this.userAgent = userAgent;
+      this.player = player;
+      MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
+      manifestDataSource = new DefaultUriDataSource(context, userAgent);
+      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
+    }
+
+    public void init() {
+      manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+    }
+
+    public void cancel() {
+      canceled = true;
+    }
+
+    @Override
+    public void onSingleManifest(MediaPresentationDescription manifest) {
+      if (canceled) {
+        return;
+      }
+      this.manifest = manifest;
+      if (manifest.dynamic && manifest.utcTiming != null) {
+        UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
+            manifestFetcher.getManifestLoadCompleteTimestamp(), this);
+      } else {
+        buildRenderers();
+      }
+    }
+
+    @Override
+    public void onSingleManifestError(IOException e) {
+      if (canceled) {
+        return;
+      }
+      player.onRenderersError(e);
+    }
+
+    @Override
+    public void onTimestampResolved(UtcTimingElement utcTiming, long elapsedRealtimeOffset) {
+      if (canceled) {
+        return;
+      }
+      this.elapsedRealtimeOffset = elapsedRealtimeOffset;
+      buildRenderers();
+    }
+
+    @Override
+    public void onTimestampError(UtcTimingElement utcTiming, IOException e) {
+      if (canceled) {
+        return;
+      }
+      Log.e(TAG, "Failed to resolve UtcTiming element [" + utcTiming + "]", e);
+      // Be optimistic and continue in the hope that the device clock is correct.
+      buildRenderers();
+    }
+
+    private void buildRenderers() {
+      Period period = manifest.getPeriod(0);
+      if (period.getAdaptationSetIndex(AdaptationSet.TYPE_AUDIO) == -1) {
+        player.onRenderersError(new IOException("No audio adaptation set in manifest"));
+        return;
+      }
+
+      Handler eventHandler = player.getEventHandler();
+      LoadControl loadControl = new DefaultLoadControl(
+          SharedAllocator.getInstance(ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE)
+              .createAllocator());
+      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(eventHandler, player);
+
+      // Build the audio renderer.
+      DataSource dataSource = new StartupTimingDataSource(
+          new DefaultUriDataSource(context, bandwidthMeter, userAgent),
+          player.getStartupTimeline());
+      ChunkSource chunkSource = new DashChunkSource(manifestFetcher,
+          new AdaptiveAudioTrackSelector(), dataSource,
+          new BufferAwareFormatEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
+          elapsedRealtimeOffset, eventHandler, player);
+      ChunkSampleSource sampleSource = new ChunkSampleSource(chunkSource, loadControl,
+          BUFFER_SEGMENT_COUNT * ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE, eventHandler,
+          player, RadioPlayer.TYPE_AUDIO);
+      MediaCodecAudioTrackRenderer audioRenderer = new TimeStretchAudioRenderer(sampleSource,
+          eventHandler, player, AudioCapabilities.getCapabilities(context));
+
+      // Invoke the callback.
+      TrackRenderer[] renderers = new TrackRenderer[RadioPlayer.RENDERER_COUNT];
+      renderers[RadioPlayer.TYPE_AUDIO] = audioRenderer;
+      player.onRenderers(renderers, bandwidthMeter);
+    }
+
+  }
+
+  /**
+   * Selects all representations of the first audio adaptation set as one adaptive track.
+   */
+  private static final class AdaptiveAudioTrackSelector implements DashTrackSelector {
+
+    @Override
+    public void selectTracks(MediaPresentationDescription manifest, int periodIndex,
+        Output output) throws IOException {
+      Period period = manifest.getPeriod(periodIndex);
+      int adaptationSetIndex = period.getAdaptationSetIndex(AdaptationSet.TYPE_AUDIO);
+      if (adaptationSetIndex == -1) {
+        return;
+      }
+      int representationCount =
+          period.adaptationSets.get(adaptationSetIndex).representations.size();
+      if (representationCount == 1) {
+        output.fixedTrack(manifest, periodIndex, adaptationSetIndex, 0);
+        return;
+      }
+      int[] representationIndices = new int[representationCount];
+      for (int i = 0; i < representationCount; i++) {
+        representationIndices[i] = i;
+      }
+      output.adaptiveTrack(manifest, periodIndex, adaptationSetIndex, representationIndices);
+    }
+
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+
+/**
+ * Caches host name lookups for a fixed time to live.
+ * <p>
+ * The platform resolver only keeps answers for a couple of seconds, so switching stations or
+ * reconnecting usually pays for a lookup again. When a lookup fails because the resolver can't be
+ * reached, an expired answer is returned rather than none.
+ */
+public final class DnsCache {
+
+  public static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+
+  private final long ttlMs;
+  private final Clock clock;
+  private final HashMap<String, Entry> entries;
+
+  private long hitCount;
+  private long missCount;
+
+  /**
+   * @param ttlMs How long an answer is used for before the host is looked up again.
+   */
+  public DnsCache(long ttlMs) {
+    this(ttlMs, new SystemClock());
+  }
+
+  /**
+   * @param ttlMs How long an answer is used for before the host is looked up again.
+   * @param clock The clock that answers expire by.
+   */
+  /* package */ DnsCache(long ttlMs, Clock clock) {
+    this.ttlMs = ttlMs;
+    this.clock = clock;
+    entries = new HashMap<>();
+  }
+
+  /**
+   * Returns the addresses of {@code host}, looking it up if there's no fresh answer.
+   */
+  public InetAddress[] lookup(String host) throws UnknownHostException {
+    long nowMs = clock.elapsedRealtime();
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(host);
+      if (entry != null && nowMs < entry.expiryTimeMs) {
+        hitCount++;
+        return entry.addresses;
+      }
+      missCount++;
+    }
+    // Looked up outside the lock, so that a slow host doesn't hold up the others.
+    InetAddress[] addresses;
+    try {
+      addresses = InetAddress.getAllByName(host);
+    } catch (UnknownHostException e) {
+      if (entry != null) {
+        return entry.addresses;
+      }
+      throw e;
+    }
+    synchronized (this) {
+      entries.put(host, new Entry(addresses, nowMs + ttlMs));
+    }
+    return addresses;
+  }
+
+  /**
+   * Drops the answer for {@code host}, for example because none of its addresses could be reached.
+   */
+  public synchronized void invalidate(String host) {
+    entries.remove(host);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  private static final class Entry {
+
+    public final InetAddress[] addresses;
+    public final long expiryTimeMs;
+
+    public Entry(InetAddress[] addresses, long expiryTimeMs) {
+      this.addresses = addresses;
+      this.expiryTimeMs = expiryTimeMs;
+    }
+
+  }
+
+}
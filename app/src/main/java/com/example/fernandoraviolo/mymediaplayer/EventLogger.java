@@ -169,6 +169,35 @@ public class EventLogger implements RadioPlayer.Listener, RadioPlayer.InfoListen
         + ", " + availableRangeValuesUs[1] + "]");
   }
 
+  @Override
+  public void onReconnected(int attemptCount, long gapMs) {
+    Log.d(TAG, "reconnected [" + getSessionTimeString() + ", " + attemptCount + ", "
+        + getTimeString(gapMs) + "]");
+  }
+
+  @Override
+  public void onStartupCompleted(StartupTimeline timeline) {
+    Log.d(TAG, timeline.toString());
+  }
+
+  @Override
+  public void onSegmentFetched(long fetchDurationMs, long segmentDurationMs) {
+    Log.d(TAG, "segmentFetched [" + getSessionTimeString() + ", " + fetchDurationMs + "ms, "
+        + segmentDurationMs + "ms]");
+  }
+
+  @Override
+  public void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs) {
+    Log.d(TAG, "loadBurst [" + getSessionTimeString() + ", " + burstDurationMs + "ms, "
+        + burstBytes + ", " + idleDurationMs + "ms]");
+  }
+
+  @Override
+  public void onConnectionOpened(String host, boolean reused, long setupTimeMs) {
+    Log.d(TAG, "connectionOpened [" + getSessionTimeString() + ", " + host + ", "
+        + (reused ? "reused" : setupTimeMs + "ms") + "]");
+  }
+
   private void printInternalError(String type, Exception e) {
     Log.e(TAG, "internalError [" + getSessionTimeString() + ", " + type + "]", e);
   }
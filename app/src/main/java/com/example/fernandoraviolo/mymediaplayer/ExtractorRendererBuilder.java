@@ -24,52 +24,280 @@ import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.extractor.Extractor;
 import com.google.android.exoplayer.extractor.ExtractorSampleSource;
 import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DataSource;
-import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.exoplayer.upstream.DataSpec;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
 
 /**
  * A renderbuilderBuilder for streams that can be read using an {@link Extractor}.
  */
 public class ExtractorRendererBuilder implements RadioPlayer.RendererBuilder {
 
-  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+  public static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
   private static final int BUFFER_SEGMENT_COUNT = 256;
 
+  private static final String TAG = "ExtractorRendererBuilder";
+
   private final Context context;
   private final String userAgent;
   private final Uri uri;
 
+  private StreamCache streamCache;
+  private BufferBudget bufferBudget;
+  private Allocator allocator;
+  private StationPool stationPool;
+  private TimeShiftBuffer timeShiftBuffer;
+  private int rangeConnectionCount;
+  private StreamRecorder streamRecorder;
+  private boolean burstLoading;
+  private boolean liveStream;
+
+  private AsyncRendererBuilder currentAsyncBuilder;
+
   public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
     this.context = context;
     this.userAgent = userAgent;
     this.uri = uri;
   }
 
+  /**
+   * @param streamCache A cache to read the uri through, or null to always read from the network.
+   *     Should only be set for on-demand content.
+   */
+  public void setStreamCache(StreamCache streamCache) {
+    this.streamCache = streamCache;
+  }
+
+  /**
+   * @param bufferBudget Limits how much media is buffered, or null to always buffer
+   *     {@code BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE} bytes. Its segment size must be
+   *     {@link #BUFFER_SEGMENT_SIZE}.
+   */
+  public void setBufferBudget(BufferBudget bufferBudget) {
+    this.bufferBudget = bufferBudget;
+  }
+
+  /**
+   * @param allocator The allocator for sample data, or null to use the {@link SharedAllocator}.
+   *     Its individual allocation length must be {@link #BUFFER_SEGMENT_SIZE}.
+   */
+  public void setAllocator(Allocator allocator) {
+    this.allocator = allocator;
+  }
+
+  /**
+   * @param stationPool A pool that may hold a warm connection to the uri, or null. Not used when
+   *     a time shift buffer is set, since the buffer records over a connection of its own.
+   */
+  public void setStationPool(StationPool stationPool) {
+    this.stationPool = stationPool;
+  }
+
+  /**
+   * @param timeShiftBuffer A started buffer to record the uri into and play it from, or null.
+   */
+  public void setTimeShiftBuffer(TimeShiftBuffer timeShiftBuffer) {
+    this.timeShiftBuffer = timeShiftBuffer;
+  }
+
+  /**
+   * @param rangeConnectionCount The number of connections to download ranges of the uri over in
+   *     parallel, or 0 to use a single connection. Should only be set for on-demand content.
+   */
+  public void setRangeConnectionCount(int rangeConnectionCount) {
+    this.rangeConnectionCount = rangeConnectionCount;
+  }
+
+  /**
+   * @param streamRecorder A recorder to copy the bytes the extractor reads into, or null.
+   */
+  public void setStreamRecorder(StreamRecorder streamRecorder) {
+    this.streamRecorder = streamRecorder;
+  }
+
+  /**
+   * @param burstLoading Whether to load in bursts between watermarks rather than continuously, so
+   *     that the radio can idle in between. Should only be set for on-demand content.
+   */
+  public void setBurstLoading(boolean burstLoading) {
+    this.burstLoading = burstLoading;
+  }
+
+  /**
+   * @param liveStream Whether the uri is a live stream, which is reconnected to when the server
+   *     ends it. Streams with ICY metadata are taken to be live either way.
+   */
+  public void setLiveStream(boolean liveStream) {
+    this.liveStream = liveStream;
+  }
+
   @Override
   public void buildRenderers(RadioPlayer player) {
-    Allocator allocator = new DefaultAllocator(BUFFER_SEGMENT_SIZE);
-
-    // Build the video and audio renderers.
-    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(),
-        null);
-    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-    ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-        BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE);
-
-    MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
-        null, true, player.getMainHandler(), player, AudioCapabilities.getCapabilities(context));
-
-    // Invoke the callback.
-    TrackRenderer[] renderers = new TrackRenderer[RadioPlayer.RENDERER_COUNT];
-    renderers[RadioPlayer.TYPE_AUDIO] = audioRenderer;
-    player.onRenderers(renderers, bandwidthMeter);
+    cancel();
+    currentAsyncBuilder = new AsyncRendererBuilder(player);
+    currentAsyncBuilder.init();
   }
 
   @Override
   public void cancel() {
-    // Do nothing.
+    if (currentAsyncBuilder != null) {
+      currentAsyncBuilder.cancel();
+      currentAsyncBuilder = null;
+    }
+  }
+
+  /**
+   * Opens the connection and queries the audio capabilities in the background, then builds the
+   * renderers.
+   */
+  private final class AsyncRendererBuilder implements Runnable {
+
+    private final RadioPlayer player;
+
+    private Allocator allocator;
+    private int bufferSize;
+    private DefaultBandwidthMeter bandwidthMeter;
+    private DataSource dataSource;
+    private PrewarmingDataSource prewarmingDataSource;
+    private AudioCapabilities audioCapabilities;
+
+    private volatile boolean canceled;
+
+    public AsyncRendererBuilder(RadioPlayer player) {
+      this.player = player;
+    }
+
+    public void init() {
+      buildDataSource();
+      // Resolving the host and connecting overlap with querying the audio capabilities.
+      BackgroundExecutor.execute(TAG + ":prewarm", new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled) {
+            prewarmingDataSource.prewarm(new DataSpec(uri));
+          }
+        }
+      });
+      BackgroundExecutor.execute(TAG, this);
+    }
+
+    public void cancel() {
+      canceled = true;
+      prewarmingDataSource.release();
+    }
+
+    @Override
+    public void run() {
+      if (canceled) {
+        return;
+      }
+      audioCapabilities = AudioCapabilities.getCapabilities(context);
+      player.getMainHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          onBackgroundWorkDone();
+        }
+      });
+    }
+
+    private void buildDataSource() {
+      allocator = ExtractorRendererBuilder.this.allocator != null
+          ? ExtractorRendererBuilder.this.allocator
+          : SharedAllocator.getInstance(BUFFER_SEGMENT_SIZE).createAllocator();
+      bufferSize = BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE;
+      if (burstLoading) {
+        // Wrapped first so that the watermarks follow a budget that shrinks.
+        allocator = new BurstLoadPolicy(BurstLoadPolicy.DEFAULT_HIGH_WATERMARK_PERCENT,
+            BurstLoadPolicy.DEFAULT_LOW_WATERMARK_PERCENT, player.getEventHandler(), player)
+            .wrap(allocator);
+      }
+      if (bufferBudget != null) {
+        // The bitrates the budget knows of are those of the previous stream.
+        bufferBudget.reset();
+        allocator = bufferBudget.wrap(allocator);
+        bufferSize = bufferBudget.getMaxBufferSize();
+      }
+
+      BandwidthMeter.EventListener bandwidthListener = player;
+      if (bufferBudget != null) {
+        final BufferBudget bufferBudget = ExtractorRendererBuilder.this.bufferBudget;
+        bandwidthListener = new BandwidthMeter.EventListener() {
+          @Override
+          public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+            player.onBandwidthSample(elapsedMs, bytes, bitrate);
+            bufferBudget.onBandwidthSample(elapsedMs, bytes, bitrate);
+          }
+        };
+      }
+      final DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(
+          player.getEventHandler(), bandwidthListener);
+      this.bandwidthMeter = bandwidthMeter;
+      UriDataSource httpDataSource;
+      IcyDataSource icyDataSource = null;
+      if (rangeConnectionCount > 1) {
+        httpDataSource = new ParallelRangeDataSource(new ParallelRangeDataSource.Factory() {
+          @Override
+          public HttpDataSource createDataSource() {
+            return new PooledHttpDataSource(userAgent, bandwidthMeter, player.getEventHandler(),
+                player);
+          }
+        }, rangeConnectionCount, allocator);
+      } else {
+        // Ask servers for ICY metadata; the ICY source strips it before the extractor sees it.
+        // Titles of a time shifted stream are announced by the buffer when they play.
+        IcyDataSource.EventListener titleListener = timeShiftBuffer != null ? timeShiftBuffer
+            : player;
+        icyDataSource = new IcyDataSource(new PooledHttpDataSource(userAgent, bandwidthMeter,
+            player.getEventHandler(), player), player.getEventHandler(), titleListener);
+        httpDataSource = icyDataSource;
+      }
+      DataSource networkDataSource = new StartupTimingDataSource(
+          new DefaultUriDataSource(context, bandwidthMeter, httpDataSource),
+          player.getStartupTimeline());
+      dataSource = new ReconnectingDataSource(networkDataSource, liveStream, icyDataSource,
+          player.getEventHandler(), player);
+      if (timeShiftBuffer != null) {
+        // The buffer records through the chain above, opening it at once when it starts recording
+        // this uri.
+        dataSource = timeShiftBuffer.createDataSource(uri, dataSource, player.getEventHandler(),
+            player);
+      } else if (stationPool != null) {
+        dataSource = stationPool.createDataSource(uri, dataSource);
+      }
+      if (streamCache != null) {
+        dataSource = streamCache.createDataSource(dataSource);
+      }
+      if (streamRecorder != null) {
+        // Outermost, so that it records exactly what plays.
+        dataSource = streamRecorder.createDataSource(dataSource);
+      }
+      // Around the whole chain, so that whatever the extractor's first open reaches, the network
+      // or a cache, a warm station or the time shift buffer, is opened ahead of time.
+      prewarmingDataSource = new PrewarmingDataSource(dataSource);
+      dataSource = prewarmingDataSource;
+    }
+
+    private void onBackgroundWorkDone() {
+      if (canceled) {
+        return;
+      }
+
+      // Build the audio renderer.
+      ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
+          bufferSize);
+      MediaCodecAudioTrackRenderer audioRenderer = new TimeStretchAudioRenderer(sampleSource,
+          player.getEventHandler(), player, audioCapabilities);
+
+      // Invoke the callback.
+      TrackRenderer[] renderers = new TrackRenderer[RadioPlayer.RENDERER_COUNT];
+      renderers[RadioPlayer.TYPE_AUDIO] = audioRenderer;
+      player.onRenderers(renderers, bandwidthMeter);
+    }
+
   }
 
 }
@@ -0,0 +1,129 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import java.util.Arrays;
+
+/**
+ * A histogram with fixed bucket boundaries. Recording a value doesn't allocate.
+ */
+public final class Histogram {
+
+  /**
+   * An immutable copy of a histogram's state.
+   */
+  public static final class Snapshot {
+
+    public final String name;
+    public final long count;
+    public final long sum;
+    public final long min;
+    public final long max;
+
+    private final long[] upperBounds;
+    private final long[] bucketCounts;
+
+    private Snapshot(String name, long[] upperBounds, long[] bucketCounts, long count, long sum,
+        long min, long max) {
+      this.name = name;
+      this.upperBounds = upperBounds;
+      this.bucketCounts = bucketCounts;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+
+    public long getMean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns an estimate of the given percentile: the upper bound of the bucket it falls in, or
+     * the maximum recorded value for the overflow bucket.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     */
+    public long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile / 100 * count);
+      long seen = 0;
+      for (int i = 0; i < bucketCounts.length; i++) {
+        seen += bucketCounts[i];
+        if (seen >= rank) {
+          return i < upperBounds.length ? Math.min(upperBounds[i], max) : max;
+        }
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return name + " [count=" + count + ", mean=" + getMean() + ", p50=" + getPercentile(50)
+          + ", p90=" + getPercentile(90) + ", p99=" + getPercentile(99) + ", max=" + max + "]";
+    }
+
+  }
+
+  private final String name;
+  private final long[] upperBounds;
+  private final long[] bucketCounts;
+
+  private long count;
+  private long sum;
+  private long min;
+  private long max;
+
+  /**
+   * @param name The name of the histogram.
+   * @param upperBounds The inclusive upper bounds of the buckets, in ascending order. Values above
+   *     the last bound are counted in an extra overflow bucket.
+   */
+  public Histogram(String name, long... upperBounds) {
+    this.name = name;
+    this.upperBounds = upperBounds;
+    bucketCounts = new long[upperBounds.length + 1];
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+  }
+
+  /**
+   * Creates a histogram whose bucket bounds grow geometrically from {@code firstBound}.
+   */
+  public static Histogram exponential(String name, long firstBound, int factor, int bucketCount) {
+    long[] upperBounds = new long[bucketCount];
+    long bound = firstBound;
+    for (int i = 0; i < bucketCount; i++) {
+      upperBounds[i] = bound;
+      bound *= factor;
+    }
+    return new Histogram(name, upperBounds);
+  }
+
+  public synchronized void record(long value) {
+    int bucket = Arrays.binarySearch(upperBounds, value);
+    if (bucket < 0) {
+      // Not a bound itself, so it belongs to the bucket of the next larger bound.
+      bucket = -bucket - 1;
+    }
+    bucketCounts[bucket]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(bucketCounts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+  }
+
+  public synchronized Snapshot snapshot() {
+    return new Snapshot(name, upperBounds, bucketCounts.clone(), count, sum,
+        count == 0 ? 0 : min, count == 0 ? 0 : max);
+  }
+
+}
@@ -0,0 +1,530 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link UriDataSource} for an HLS chunk source that loads the media segments following the one
+ * being played ahead of time, and keeps a live media playlist fresh on its own schedule.
+ * <p>
+ * Playlists read through the source are parsed on the side. Whenever a segment is opened, the next
+ * {@code prefetchSegmentCount} segments of the latest playlist start loading in the background,
+ * each over its own connection, so that the following open is served from memory as soon as its
+ * first bytes are in, rather than waiting for a connection at every segment boundary. Segments
+ * that fall out of that window are dropped.
+ * <p>
+ * A live playlist is reloaded every half target duration while the player keeps opening things,
+ * and the player's own playlist requests are answered with the latest copy when it's recent
+ * enough. Newly listed segments are prefetched as soon as they appear.
+ */
+public final class HlsPrefetchDataSource implements UriDataSource {
+
+  /**
+   * Creates the connections for playlists and prefetched segments.
+   */
+  public interface Factory {
+
+    UriDataSource createDataSource();
+
+  }
+
+  /**
+   * Interface definition for a callback to be notified of {@link HlsPrefetchDataSource} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when a media segment has been loaded completely, ahead of time or on request.
+     *
+     * @param fetchDurationMs The time it took to load the segment.
+     * @param segmentDurationMs The duration of the media in the segment.
+     */
+    void onSegmentFetched(long fetchDurationMs, long segmentDurationMs);
+
+  }
+
+  public static final int DEFAULT_PREFETCH_SEGMENT_COUNT = 2;
+
+  private static final String TAG = "HlsPrefetchDataSource";
+
+  private static final int INITIAL_SEGMENT_CAPACITY = 64 * 1024;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_PLAYLIST_SIZE = 1024 * 1024;
+  /**
+   * Refreshing stops once nothing was opened for this many target durations.
+   */
+  private static final int IDLE_TARGET_DURATION_COUNT = 3;
+
+  private final UriDataSource upstream;
+  private final Factory factory;
+  private final int prefetchSegmentCount;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+  private final HlsPlaylistParser parser;
+
+  // Guarded by this.
+  private final Map<String, Segment> segments;
+  private String playlistUrl;
+  private HlsMediaPlaylist playlist;
+  private byte[] playlistData;
+  private long playlistLoadTimeMs;
+  private String currentSegmentUrl;
+  private long lastOpenTimeMs;
+  private boolean refreshing;
+
+  // Accessed on the loading thread only.
+  private DataSpec dataSpec;
+  private Segment openedSegment;
+  private long readPosition;
+  private ByteArrayOutputStream playlistOutput;
+  private long segmentDurationMs;
+  private long openTimeMs;
+
+  /**
+   * @param upstream The source for everything that isn't served from memory.
+   * @param factory Creates a connection for each playlist refresh and prefetched segment.
+   * @param prefetchSegmentCount The number of segments to load ahead of the one being played.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public HlsPrefetchDataSource(UriDataSource upstream, Factory factory, int prefetchSegmentCount,
+      Handler eventHandler, EventListener eventListener) {
+    this.upstream = upstream;
+    this.factory = factory;
+    this.prefetchSegmentCount = prefetchSegmentCount;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    parser = new HlsPlaylistParser();
+    segments = new LinkedHashMap<>();
+  }
+
+  /**
+   * Sets a media playlist that was loaded elsewhere, such as the one a chunk source starts with.
+   *
+   * @param url The url the playlist was loaded from.
+   * @param playlist The playlist.
+   */
+  public synchronized void setMediaPlaylist(String url, HlsMediaPlaylist playlist) {
+    updatePlaylist(url, playlist, null);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    this.dataSpec = dataSpec;
+    String url = dataSpec.uri.toString();
+    openTimeMs = SystemClock.elapsedRealtime();
+    playlistOutput = null;
+    segmentDurationMs = -1;
+    synchronized (this) {
+      lastOpenTimeMs = openTimeMs;
+      openedSegment = null;
+      if (dataSpec.length == C.LENGTH_UNBOUNDED) {
+        if (url.equals(playlistUrl) && playlistData != null && dataSpec.position == 0
+            && openTimeMs - playlistLoadTimeMs < getRefreshIntervalMs(playlist)) {
+          openedSegment = new Segment(url, -1, playlistData);
+        } else {
+          Segment segment = segments.get(url);
+          if (segment != null && segment.error != null) {
+            // Let the player retry over a connection of its own.
+            segments.remove(url);
+          } else if (segment != null) {
+            openedSegment = segment;
+            currentSegmentUrl = url;
+            maybePrefetch();
+          }
+        }
+      }
+      if (openedSegment != null) {
+        readPosition = dataSpec.position;
+        return openedSegment.done ? openedSegment.length - readPosition : C.LENGTH_UNBOUNDED;
+      }
+      if (isPlaylistUrl(url)) {
+        playlistOutput = new ByteArrayOutputStream();
+      } else {
+        segmentDurationMs = getSegmentDurationMs(url);
+        if (segmentDurationMs != -1) {
+          currentSegmentUrl = url;
+          maybePrefetch();
+        }
+      }
+    }
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (openedSegment != null) {
+      return readSegment(openedSegment, buffer, offset, readLength);
+    }
+    int read = upstream.read(buffer, offset, readLength);
+    if (read == C.RESULT_END_OF_INPUT) {
+      if (playlistOutput != null && dataSpec.position == 0) {
+        onPlaylistLoaded(dataSpec.uri.toString(), playlistOutput.toByteArray());
+      } else if (segmentDurationMs != -1 && dataSpec.position == 0) {
+        notifySegmentFetched(SystemClock.elapsedRealtime() - openTimeMs, segmentDurationMs);
+      }
+      playlistOutput = null;
+      segmentDurationMs = -1;
+    } else if (playlistOutput != null) {
+      if (playlistOutput.size() + read > MAX_PLAYLIST_SIZE) {
+        playlistOutput = null;
+      } else {
+        playlistOutput.write(buffer, offset, read);
+      }
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (openedSegment != null) {
+      openedSegment = null;
+    } else {
+      upstream.close();
+    }
+  }
+
+  @Override
+  public String getUri() {
+    return dataSpec == null ? null : dataSpec.uri.toString();
+  }
+
+  private int readSegment(Segment segment, byte[] buffer, int offset, int readLength)
+      throws IOException {
+    synchronized (this) {
+      while (!segment.done && segment.error == null && !segment.canceled
+          && segment.length <= readPosition) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (segment.length > readPosition) {
+        int read = (int) Math.min(readLength, segment.length - readPosition);
+        System.arraycopy(segment.data, (int) readPosition, buffer, offset, read);
+        readPosition += read;
+        return read;
+      }
+      if (segment.error != null) {
+        throw segment.error;
+      }
+      if (!segment.done) {
+        throw new IOException("Prefetched segment dropped: " + segment.url);
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+  }
+
+  private void onPlaylistLoaded(String url, byte[] data) {
+    HlsPlaylist playlist;
+    try {
+      playlist = parser.parse(url, new ByteArrayInputStream(data));
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to parse playlist " + url, e);
+      return;
+    }
+    if (playlist instanceof HlsMediaPlaylist) {
+      synchronized (this) {
+        updatePlaylist(url, (HlsMediaPlaylist) playlist, data);
+      }
+    }
+  }
+
+  /**
+   * Replaces the playlist, prefetches what it adds and starts refreshing it if it's live. Must be
+   * called holding the lock.
+   */
+  private void updatePlaylist(String url, HlsMediaPlaylist playlist, byte[] data) {
+    if (!url.equals(playlistUrl)) {
+      // The player switched to another variant, whose segments are all different.
+      cancelSegments(null);
+    }
+    playlistUrl = url;
+    this.playlist = playlist;
+    playlistData = data;
+    playlistLoadTimeMs = SystemClock.elapsedRealtime();
+    maybePrefetch();
+    if (playlist.live && !refreshing) {
+      refreshing = true;
+      BackgroundExecutor.execute(TAG + ":refresh", new Refresh());
+    }
+  }
+
+  /**
+   * Starts loading the segments following the current one and drops any others. Must be called
+   * holding the lock.
+   */
+  private void maybePrefetch() {
+    if (playlist == null || currentSegmentUrl == null) {
+      return;
+    }
+    List<HlsMediaPlaylist.Segment> playlistSegments = playlist.segments;
+    int currentIndex = -1;
+    for (int i = 0; i < playlistSegments.size(); i++) {
+      if (getSegmentUrl(playlistSegments.get(i)).equals(currentSegmentUrl)) {
+        currentIndex = i;
+        break;
+      }
+    }
+    if (currentIndex == -1) {
+      return;
+    }
+    List<String> prefetchUrls = new ArrayList<>(prefetchSegmentCount);
+    for (int i = currentIndex + 1;
+        i < playlistSegments.size() && prefetchUrls.size() < prefetchSegmentCount; i++) {
+      HlsMediaPlaylist.Segment playlistSegment = playlistSegments.get(i);
+      if (playlistSegment.byterangeLength != C.LENGTH_UNBOUNDED) {
+        // Ranges of a single file, which the player reads over a single connection anyway.
+        break;
+      }
+      String url = getSegmentUrl(playlistSegment);
+      prefetchUrls.add(url);
+      if (!segments.containsKey(url)) {
+        Segment segment = new Segment(url, (long) (playlistSegment.durationSecs * 1000), null);
+        segments.put(url, segment);
+        BackgroundExecutor.execute(TAG + ":fetch", new Fetch(segment));
+      }
+    }
+    cancelSegments(prefetchUrls);
+  }
+
+  /**
+   * Drops all segments except the current one and {@code keepUrls}, which may be null. Must be
+   * called holding the lock.
+   */
+  private void cancelSegments(List<String> keepUrls) {
+    Iterator<Segment> iterator = segments.values().iterator();
+    while (iterator.hasNext()) {
+      Segment segment = iterator.next();
+      if (!segment.url.equals(currentSegmentUrl)
+          && (keepUrls == null || !keepUrls.contains(segment.url))) {
+        segment.canceled = true;
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the duration of a segment of the playlist in milliseconds, or -1 if it's not listed.
+   * Must be called holding the lock.
+   */
+  private long getSegmentDurationMs(String url) {
+    if (playlist == null) {
+      return -1;
+    }
+    for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+      if (getSegmentUrl(segment).equals(url)) {
+        return (long) (segment.durationSecs * 1000);
+      }
+    }
+    return -1;
+  }
+
+  private String getSegmentUrl(HlsMediaPlaylist.Segment segment) {
+    return UriUtil.resolve(playlist.baseUri, segment.url);
+  }
+
+  private static long getRefreshIntervalMs(HlsMediaPlaylist playlist) {
+    return Math.max(1, playlist.targetDurationSecs) * 1000L / 2;
+  }
+
+  private static boolean isPlaylistUrl(String url) {
+    String path = Uri.parse(url).getPath();
+    if (path == null) {
+      return false;
+    }
+    path = path.toLowerCase(Locale.US);
+    return path.endsWith(".m3u8") || path.endsWith(".m3u");
+  }
+
+  private void notifySegmentFetched(final long fetchDurationMs, final long segmentDurationMs) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onSegmentFetched(fetchDurationMs, segmentDurationMs);
+        }
+      });
+    }
+  }
+
+  /**
+   * A segment being loaded into or read from memory.
+   */
+  private static final class Segment {
+
+    public final String url;
+    public final long durationMs;
+
+    public byte[] data;
+    public int length;
+    public boolean done;
+    public boolean canceled;
+    public IOException error;
+
+    /**
+     * @param url The url of the segment.
+     * @param durationMs The duration of the segment, or -1 if it's not a media segment.
+     * @param data The complete data, or null if it's yet to be loaded.
+     */
+    public Segment(String url, long durationMs, byte[] data) {
+      this.url = url;
+      this.durationMs = durationMs;
+      if (data != null) {
+        this.data = data;
+        length = data.length;
+        done = true;
+      } else {
+        this.data = new byte[INITIAL_SEGMENT_CAPACITY];
+      }
+    }
+
+    public void append(byte[] buffer, int length) {
+      if (this.length + length > data.length) {
+        byte[] newData = new byte[Math.max(data.length * 2, this.length + length)];
+        System.arraycopy(data, 0, newData, 0, this.length);
+        data = newData;
+      }
+      System.arraycopy(buffer, 0, data, this.length, length);
+      this.length += length;
+    }
+
+  }
+
+  /**
+   * Loads a segment ahead of time.
+   */
+  private final class Fetch implements Runnable {
+
+    private final Segment segment;
+
+    public Fetch(Segment segment) {
+      this.segment = segment;
+    }
+
+    @Override
+    public void run() {
+      long startTimeMs = SystemClock.elapsedRealtime();
+      UriDataSource source = factory.createDataSource();
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      try {
+        source.open(new DataSpec(Uri.parse(segment.url)));
+        int read;
+        while ((read = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+          synchronized (HlsPrefetchDataSource.this) {
+            if (segment.canceled) {
+              return;
+            }
+            segment.append(buffer, read);
+            HlsPrefetchDataSource.this.notifyAll();
+          }
+        }
+        synchronized (HlsPrefetchDataSource.this) {
+          segment.done = true;
+          HlsPrefetchDataSource.this.notifyAll();
+        }
+        notifySegmentFetched(SystemClock.elapsedRealtime() - startTimeMs, segment.durationMs);
+      } catch (IOException e) {
+        synchronized (HlsPrefetchDataSource.this) {
+          segment.error = e;
+          HlsPrefetchDataSource.this.notifyAll();
+        }
+      } finally {
+        try {
+          source.close();
+        } catch (IOException e) {
+          // Ignore, the connection is done with either way.
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Reloads a live media playlist every half target duration until the player goes idle.
+   */
+  private final class Refresh implements Runnable {
+
+    @Override
+    public void run() {
+      long lastAttemptTimeMs = 0;
+      while (true) {
+        String url;
+        long delayMs;
+        synchronized (HlsPrefetchDataSource.this) {
+          long nowMs = SystemClock.elapsedRealtime();
+          long idleTimeoutMs = IDLE_TARGET_DURATION_COUNT * playlist.targetDurationSecs * 1000L;
+          if (!playlist.live || nowMs - lastOpenTimeMs > idleTimeoutMs) {
+            refreshing = false;
+            return;
+          }
+          url = playlistUrl;
+          delayMs = Math.max(playlistLoadTimeMs, lastAttemptTimeMs)
+              + getRefreshIntervalMs(playlist) - nowMs;
+        }
+        if (delayMs > 0) {
+          try {
+            Thread.sleep(delayMs);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (HlsPrefetchDataSource.this) {
+              refreshing = false;
+            }
+            return;
+          }
+          continue;
+        }
+        lastAttemptTimeMs = SystemClock.elapsedRealtime();
+        try {
+          onPlaylistLoaded(url, load(url));
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to refresh playlist " + url, e);
+        }
+      }
+    }
+
+    private byte[] load(String url) throws IOException {
+      UriDataSource source = factory.createDataSource();
+      try {
+        source.open(new DataSpec(Uri.parse(url)));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+          output.write(buffer, 0, read);
+          if (output.size() > MAX_PLAYLIST_SIZE) {
+            throw new IOException("Playlist too large: " + url);
+          }
+        }
+        return output.toByteArray();
+      } finally {
+        source.close();
+      }
+    }
+
+  }
+
+}
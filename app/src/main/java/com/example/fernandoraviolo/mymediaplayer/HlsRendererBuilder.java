@@ -0,0 +1,151 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.content.Context;
+import android.os.Handler;
+
+import com.google.android.exoplayer.DefaultLoadControl;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.hls.HlsChunkSource;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+import java.io.IOException;
+
+/**
+ * A {@link RadioPlayer.RendererBuilder} for audio-only HLS playlists, live or on-demand.
+ * <p>
+ * Playlists and segments are read through an {@link HlsPrefetchDataSource}, which loads the next
+ * segments while the current one plays and refreshes live playlists ahead of the player.
+ */
+public class HlsRendererBuilder implements RadioPlayer.RendererBuilder {
+
+  private static final int BUFFER_SEGMENT_COUNT = 54;
+
+  private final Context context;
+  private final String userAgent;
+  private final String url;
+
+  private AsyncRendererBuilder currentAsyncBuilder;
+
+  /**
+   * @param context A context.
+   * @param userAgent The user agent for all requests.
+   * @param url The url of a master or media playlist.
+   */
+  public HlsRendererBuilder(Context context, String userAgent, String url) {
+    this.context = context;
+    this.userAgent = userAgent;
+    this.url = url;
+  }
+
+  @Override
+  public void buildRenderers(RadioPlayer player) {
+    cancel();
+    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, player);
+    currentAsyncBuilder.init();
+  }
+
+  @Override
+  public void cancel() {
+    if (currentAsyncBuilder != null) {
+      currentAsyncBuilder.cancel();
+      currentAsyncBuilder = null;
+    }
+  }
+
+  /**
+   * Loads the playlist and builds the renderers.
+   */
+  private static final class AsyncRendererBuilder
+      implements ManifestFetcher.ManifestCallback<HlsPlaylist> {
+
+    private final Context context;
+    private final String userAgent;
+    private final String url;
+    private final RadioPlayer player;
+    private final ManifestFetcher<HlsPlaylist> playlistFetcher;
+
+    private boolean canceled;
+
+    public AsyncRendererBuilder(Context context, String userAgent, String url,
+        RadioPlayer player) {
+      this.context = context;
+      this.userAgent = userAgent;
+      this.url = url;
+      this.player = player;
+      HlsPlaylistParser parser = new HlsPlaylistParser();
+      playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
+          parser);
+    }
+
+    public void init() {
+      playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+    }
+
+    public void cancel() {
+      canceled = true;
+    }
+
+    @Override
+    public void onSingleManifestError(IOException e) {
+      if (canceled) {
+        return;
+      }
+      player.onRenderersError(e);
+    }
+
+    @Override
+    public void onSingleManifest(HlsPlaylist playlist) {
+      if (canceled) {
+        return;
+      }
+
+      Handler eventHandler = player.getEventHandler();
+      LoadControl loadControl = new DefaultLoadControl(
+          SharedAllocator.getInstance(ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE)
+              .createAllocator());
+      final DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(eventHandler, player);
+
+      // Build the audio renderer.
+      HlsPrefetchDataSource prefetchDataSource = new HlsPrefetchDataSource(
+          new DefaultUriDataSource(context, bandwidthMeter, userAgent),
+          new HlsPrefetchDataSource.Factory() {
+            @Override
+            public UriDataSource createDataSource() {
+              return new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+            }
+          }, HlsPrefetchDataSource.DEFAULT_PREFETCH_SEGMENT_COUNT, eventHandler, player);
+      if (playlist instanceof HlsMediaPlaylist) {
+        // The chunk source starts with this playlist without loading it again.
+        prefetchDataSource.setMediaPlaylist(url, (HlsMediaPlaylist) playlist);
+      }
+      DataSource dataSource = new StartupTimingDataSource(prefetchDataSource,
+          player.getStartupTimeline());
+      // A null selection enables every variant, which for audio differ in bitrate only.
+      HlsChunkSource chunkSource = new HlsChunkSource(dataSource, url, playlist, bandwidthMeter,
+          null, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
+      HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
+          BUFFER_SEGMENT_COUNT * ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE, eventHandler,
+          player, RadioPlayer.TYPE_AUDIO);
+      MediaCodecAudioTrackRenderer audioRenderer = new TimeStretchAudioRenderer(sampleSource,
+          eventHandler, player, AudioCapabilities.getCapabilities(context));
+
+      // Invoke the callback.
+      TrackRenderer[] renderers = new TrackRenderer[RadioPlayer.RENDERER_COUNT];
+      renderers[RadioPlayer.TYPE_AUDIO] = audioRenderer;
+      player.onRenderers(renderers, bandwidthMeter);
+    }
+
+  }
+
+}
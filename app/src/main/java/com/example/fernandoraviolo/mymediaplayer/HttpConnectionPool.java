@@ -0,0 +1,310 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.util.Clock;
+import com.google.android.exoplayer.util.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A process wide pool of idle HTTP/1.1 connections, so that switching stations, reconnecting and
+ * loading ranges or segments from the same host skip DNS, TCP and TLS setup.
+ * <p>
+ * Connections are kept per scheme, host and port for {@link #DEFAULT_KEEP_ALIVE_DURATION_MS}
+ * after their last use, and checked before being handed out again since servers may close them
+ * while idle. Expired connections are dropped the next time the pool is used.
+ */
+public final class HttpConnectionPool {
+
+  public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+  public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+
+  private static HttpConnectionPool instance;
+
+  private final int maxIdleConnections;
+  private final long keepAliveDurationMs;
+  private final DnsCache dnsCache;
+  private final Clock clock;
+  // Most recently used first.
+  private final ArrayDeque<Connection> idleConnections;
+
+  private long openedCount;
+  private long reusedCount;
+  private long totalSetupTimeMs;
+
+  /**
+   * Returns the shared pool, creating it on first use.
+   */
+  public static synchronized HttpConnectionPool getInstance() {
+    if (instance == null) {
+      instance = new HttpConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS,
+          DEFAULT_KEEP_ALIVE_DURATION_MS, new DnsCache(DnsCache.DEFAULT_TTL_MS));
+    }
+    return instance;
+  }
+
+  /**
+   * @param maxIdleConnections The maximum number of idle connections kept over all hosts.
+   * @param keepAliveDurationMs How long an idle connection is kept.
+   * @param dnsCache The cache to look hosts up with.
+   */
+  public HttpConnectionPool(int maxIdleConnections, long keepAliveDurationMs, DnsCache dnsCache) {
+    this(maxIdleConnections, keepAliveDurationMs, dnsCache, new SystemClock());
+  }
+
+  /**
+   * @param maxIdleConnections The maximum number of idle connections kept over all hosts.
+   * @param keepAliveDurationMs How long an idle connection is kept.
+   * @param dnsCache The cache to look hosts up with.
+   * @param clock The clock that idle connections expire by and setup times are measured with.
+   */
+  /* package */ HttpConnectionPool(int maxIdleConnections, long keepAliveDurationMs,
+      DnsCache dnsCache, Clock clock) {
+    this.maxIdleConnections = maxIdleConnections;
+    this.keepAliveDurationMs = keepAliveDurationMs;
+    this.dnsCache = dnsCache;
+    this.clock = clock;
+    idleConnections = new ArrayDeque<>();
+  }
+
+  public DnsCache getDnsCache() {
+    return dnsCache;
+  }
+
+  /**
+   * Returns the number of connections that were opened, as opposed to reused.
+   */
+  public synchronized long getOpenedCount() {
+    return openedCount;
+  }
+
+  public synchronized long getReusedCount() {
+    return reusedCount;
+  }
+
+  /**
+   * Returns the fraction of handed out connections that were reused, or 0 if none were.
+   */
+  public synchronized float getReuseRate() {
+    long count = openedCount + reusedCount;
+    return count == 0 ? 0 : (float) reusedCount / count;
+  }
+
+  /**
+   * Returns the total time spent looking up hosts, connecting and negotiating TLS.
+   */
+  public synchronized long getTotalSetupTimeMs() {
+    return totalSetupTimeMs;
+  }
+
+  /**
+   * Closes all idle connections.
+   */
+  public void evictAll() {
+    ArrayList<Connection> evicted;
+    synchronized (this) {
+      evicted = new ArrayList<>(idleConnections);
+      idleConnections.clear();
+    }
+    for (Connection connection : evicted) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Returns an idle connection to the given host, or opens a new one.
+   *
+   * @param scheme Either http or https.
+   * @param host The host.
+   * @param port The port.
+   * @param connectTimeoutMs The timeout for connecting, if a new connection is opened.
+   * @param readTimeoutMs The timeout for reads on the returned connection.
+   */
+  /* package */ Connection get(String scheme, String host, int port, int connectTimeoutMs,
+      int readTimeoutMs) throws IOException {
+    String route = scheme + "://" + host + ":" + port;
+    Connection connection;
+    while ((connection = takeIdle(route)) != null) {
+      if (connection.isHealthy()) {
+        connection.socket.setSoTimeout(readTimeoutMs);
+        connection.reused = true;
+        connection.setupTimeMs = 0;
+        synchronized (this) {
+          reusedCount++;
+        }
+        return connection;
+      }
+      connection.close();
+    }
+    long startTimeMs = clock.elapsedRealtime();
+    connection = connect(route, scheme, host, port, connectTimeoutMs, readTimeoutMs);
+    connection.setupTimeMs = clock.elapsedRealtime() - startTimeMs;
+    synchronized (this) {
+      openedCount++;
+      totalSetupTimeMs += connection.setupTimeMs;
+    }
+    return connection;
+  }
+
+  /**
+   * Returns a connection whose last response was read completely, so that it can be reused.
+   */
+  /* package */ void recycle(Connection connection) {
+    connection.idleSinceMs = clock.elapsedRealtime();
+    Connection evicted = null;
+    synchronized (this) {
+      idleConnections.addFirst(connection);
+      if (idleConnections.size() > maxIdleConnections) {
+        evicted = idleConnections.removeLast();
+      }
+    }
+    if (evicted != null) {
+      evicted.close();
+    }
+  }
+
+  private Connection takeIdle(String route) {
+    long nowMs = clock.elapsedRealtime();
+    ArrayList<Connection> expired = null;
+    Connection match = null;
+    synchronized (this) {
+      Iterator<Connection> iterator = idleConnections.iterator();
+      while (iterator.hasNext()) {
+        Connection connection = iterator.next();
+        if (nowMs - connection.idleSinceMs > keepAliveDurationMs) {
+          iterator.remove();
+          if (expired == null) {
+            expired = new ArrayList<>();
+          }
+          expired.add(connection);
+        } else if (match == null && connection.route.equals(route)) {
+          iterator.remove();
+          match = connection;
+        }
+      }
+    }
+    if (expired != null) {
+      for (Connection connection : expired) {
+        connection.close();
+      }
+    }
+    return match;
+  }
+
+  private Connection connect(String route, String scheme, String host, int port,
+      int connectTimeoutMs, int readTimeoutMs) throws IOException {
+    InetAddress[] addresses = dnsCache.lookup(host);
+    IOException lastException = null;
+    for (InetAddress address : addresses) {
+      Socket socket = new Socket();
+      try {
+        socket.connect(new InetSocketAddress(address, port), connectTimeoutMs);
+        socket.setSoTimeout(readTimeoutMs);
+        if ("https".equals(scheme)) {
+          socket = startTls(socket, host, port);
+        }
+        return new Connection(route, socket);
+      } catch (IOException e) {
+        closeQuietly(socket);
+        lastException = e;
+      }
+    }
+    // Look the host up again next time, in case it moved.
+    dnsCache.invalidate(host);
+    throw lastException;
+  }
+
+  private static Socket startTls(Socket socket, String host, int port) throws IOException {
+    // The host name is used for SNI, while the socket is already connected to a cached address.
+    SSLSocket sslSocket = (SSLSocket) HttpsURLConnection.getDefaultSSLSocketFactory()
+        .createSocket(socket, host, port, true);
+    try {
+      sslSocket.startHandshake();
+      if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+        throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+      }
+    } catch (IOException e) {
+      closeQuietly(sslSocket);
+      throw e;
+    }
+    return sslSocket;
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * A connection to one host, which can carry one request at a time.
+   */
+  /* package */ static final class Connection {
+
+    public final String route;
+    public final Socket socket;
+    public final InputStream in;
+    public final OutputStream out;
+
+    public boolean reused;
+    public long setupTimeMs;
+    public long idleSinceMs;
+
+    public Connection(String route, Socket socket) throws IOException {
+      this.route = route;
+      this.socket = socket;
+      in = new BufferedInputStream(socket.getInputStream());
+      out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Returns whether the connection looks usable: the server didn't close it, and didn't send
+     * anything it wasn't asked for.
+     */
+    public boolean isHealthy() {
+      if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+        return false;
+      }
+      try {
+        if (in.available() > 0) {
+          return false;
+        }
+        int readTimeoutMs = socket.getSoTimeout();
+        try {
+          socket.setSoTimeout(1);
+          in.read();
+          // Either the end of the stream or an unexpected byte.
+          return false;
+        } finally {
+          socket.setSoTimeout(readTimeoutMs);
+        }
+      } catch (SocketTimeoutException e) {
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    public void close() {
+      closeQuietly(socket);
+    }
+
+  }
+
+}
@@ -0,0 +1,240 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An HTTP {@link UriDataSource} that asks Shoutcast/Icecast servers for in-band ICY metadata and
+ * strips it from the stream.
+ * <p>
+ * Audio bytes are read straight into the caller's buffer. Metadata blocks are read into a reused
+ * buffer, and the stream title is only decoded when the block differs from the previous one.
+ */
+public final class IcyDataSource implements UriDataSource {
+
+  /**
+   * Interface definition for a callback to be notified of {@link IcyDataSource} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when the stream title announced by the server changes.
+     *
+     * @param title The new title. May be empty.
+     */
+    void onStreamTitleChanged(String title);
+
+  }
+
+  private static final String ICY_METADATA_HEADER = "Icy-MetaData";
+  private static final String ICY_METAINT_HEADER = "icy-metaint";
+  private static final int METADATA_BLOCK_UNIT = 16;
+  private static final int MAX_METADATA_LENGTH = 255 * METADATA_BLOCK_UNIT;
+  private static final byte[] STREAM_TITLE_PREFIX =
+      "StreamTitle='".getBytes(Charset.forName("US-ASCII"));
+  private static final Charset METADATA_CHARSET = Charset.forName("UTF-8");
+
+  private final HttpDataSource upstream;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+  private final byte[] metadata;
+  private final byte[] lastMetadata;
+
+  private int metadataInterval;
+  private int bytesUntilMetadata;
+  private int lastMetadataLength;
+
+  /**
+   * @param userAgent The User-Agent string that should be used.
+   * @param listener An optional listener.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public IcyDataSource(String userAgent, TransferListener listener, Handler eventHandler,
+      EventListener eventListener) {
+    this(new DefaultHttpDataSource(userAgent, null, listener), eventHandler, eventListener);
+  }
+
+  /**
+   * @param upstream The HTTP source to read the stream from.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public IcyDataSource(HttpDataSource upstream, Handler eventHandler,
+      EventListener eventListener) {
+    this.upstream = upstream;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    metadata = new byte[MAX_METADATA_LENGTH];
+    lastMetadata = new byte[MAX_METADATA_LENGTH];
+    upstream.setRequestProperty(ICY_METADATA_HEADER, "1");
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    long length = upstream.open(dataSpec);
+    metadataInterval = parseMetadataInterval(upstream.getResponseHeaders());
+    bytesUntilMetadata = metadataInterval;
+    return length;
+  }
+
+  /**
+   * Returns whether the open response carries ICY metadata, which only live streams do.
+   */
+  public boolean hasMetadata() {
+    return metadataInterval != 0;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (metadataInterval == 0) {
+      return upstream.read(buffer, offset, readLength);
+    }
+    if (bytesUntilMetadata == 0) {
+      if (!readMetadata()) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      bytesUntilMetadata = metadataInterval;
+    }
+    int read = upstream.read(buffer, offset, Math.min(readLength, bytesUntilMetadata));
+    if (read > 0) {
+      bytesUntilMetadata -= read;
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    metadataInterval = 0;
+    upstream.close();
+  }
+
+  @Override
+  public String getUri() {
+    return upstream.getUri();
+  }
+
+  /**
+   * Reads a metadata block, notifying the listener if the title changed.
+   *
+   * @return False if the end of the input was reached.
+   */
+  private boolean readMetadata() throws IOException {
+    if (!readFully(metadata, 1)) {
+      return false;
+    }
+    int length = (metadata[0] & 0xFF) * METADATA_BLOCK_UNIT;
+    if (length == 0) {
+      // The server only sends metadata when it changes.
+      return true;
+    }
+    if (!readFully(metadata, length)) {
+      return false;
+    }
+    if (length == lastMetadataLength && rangeEquals(metadata, lastMetadata, length)) {
+      return true;
+    }
+    System.arraycopy(metadata, 0, lastMetadata, 0, length);
+    lastMetadataLength = length;
+    String title = parseStreamTitle(metadata, length);
+    if (title != null) {
+      notifyStreamTitleChanged(title);
+    }
+    return true;
+  }
+
+  private boolean readFully(byte[] target, int length) throws IOException {
+    int position = 0;
+    while (position < length) {
+      int read = upstream.read(target, position, length - position);
+      if (read == C.RESULT_END_OF_INPUT) {
+        if (position == 0) {
+          return false;
+        }
+        throw new EOFException();
+      }
+      position += read;
+    }
+    return true;
+  }
+
+  private void notifyStreamTitleChanged(final String title) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onStreamTitleChanged(title);
+        }
+      });
+    }
+  }
+
+  private static int parseMetadataInterval(Map<String, List<String>> headers) {
+    if (headers == null) {
+      return 0;
+    }
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (ICY_METAINT_HEADER.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+        try {
+          return Math.max(0, Integer.parseInt(header.getValue().get(0).trim()));
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Extracts the value of {@code StreamTitle='...';} from a metadata block, or returns null if the
+   * block doesn't contain one.
+   */
+  /* package */ static String parseStreamTitle(byte[] data, int length) {
+    int start = indexOf(data, length, STREAM_TITLE_PREFIX, 0);
+    if (start == -1) {
+      return null;
+    }
+    start += STREAM_TITLE_PREFIX.length;
+    // Titles may contain quotes, so the value ends at the first "';" rather than the first quote.
+    int end = start;
+    while (end < length && !(data[end] == '\'' && (end + 1 == length || data[end + 1] == ';'))) {
+      end++;
+    }
+    return new String(data, start, end - start, METADATA_CHARSET).trim();
+  }
+
+  private static int indexOf(byte[] data, int length, byte[] pattern, int from) {
+    for (int i = from; i <= length - pattern.length; i++) {
+      int j = 0;
+      while (j < pattern.length && data[i + j] == pattern[j]) {
+        j++;
+      }
+      if (j == pattern.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean rangeEquals(byte[] a, byte[] b, int length) {
+    for (int i = 0; i < length; i++) {
+      if (a[i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
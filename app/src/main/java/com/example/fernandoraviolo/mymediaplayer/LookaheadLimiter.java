@@ -0,0 +1,111 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+/**
+ * An {@link AudioProcessor} that keeps peaks below a threshold without audible clipping.
+ * <p>
+ * Audio is delayed by a short lookahead. When a peak above the threshold enters the delay line,
+ * the gain ramps down linearly so that it reaches the gain the peak needs just as the peak leaves
+ * the delay line, and holds for as long again. It then recovers exponentially, unless a later peak
+ * needs it held. Output is clamped to full scale in case rounding lets a sample through.
+ */
+public final class LookaheadLimiter implements AudioProcessor {
+
+  public static final float DEFAULT_THRESHOLD_DB = -1f;
+  public static final int DEFAULT_LOOKAHEAD_MS = 5;
+  public static final int DEFAULT_RELEASE_MS = 100;
+
+  private final float threshold;
+  private final int lookaheadMs;
+  private final int releaseMs;
+
+  private int channelCount;
+  private int lookaheadFrameCount;
+  private float releaseCoefficient;
+  private float[] delayLine;
+  private int delayIndex;
+  private float gain;
+  private float rampTargetGain;
+  private float rampStep;
+  private int holdFrameCount;
+
+  public LookaheadLimiter() {
+    this(DEFAULT_THRESHOLD_DB, DEFAULT_LOOKAHEAD_MS, DEFAULT_RELEASE_MS);
+  }
+
+  /**
+   * @param thresholdDb The level peaks are kept below, relative to full scale.
+   * @param lookaheadMs How long audio is delayed, and so how long the gain takes to ramp down.
+   * @param releaseMs The time constant of the gain's recovery.
+   */
+  public LookaheadLimiter(float thresholdDb, int lookaheadMs, int releaseMs) {
+    this.threshold = (float) Math.pow(10, thresholdDb / 20);
+    this.lookaheadMs = lookaheadMs;
+    this.releaseMs = releaseMs;
+    delayLine = new float[0];
+    gain = 1;
+    rampTargetGain = 1;
+  }
+
+  @Override
+  public void configure(int sampleRate, int channelCount) {
+    this.channelCount = channelCount;
+    lookaheadFrameCount = Math.max(1, sampleRate * lookaheadMs / 1000);
+    releaseCoefficient = (float) (1 - Math.exp(-1000d / (releaseMs * sampleRate)));
+    delayLine = new float[lookaheadFrameCount * channelCount];
+    reset();
+  }
+
+  @Override
+  public void process(float[] samples, int frameCount) {
+    int index = 0;
+    for (int frame = 0; frame < frameCount; frame++) {
+      float peak = 0;
+      for (int channel = 0; channel < channelCount; channel++) {
+        peak = Math.max(peak, Math.abs(samples[index + channel]));
+      }
+      if (peak > threshold) {
+        float requiredGain = threshold / peak;
+        if (requiredGain < rampTargetGain) {
+          rampTargetGain = requiredGain;
+          // Never ramp slower than an earlier peak still in the delay line needs.
+          rampStep = Math.min(rampStep, (requiredGain - gain) / lookaheadFrameCount);
+        }
+        holdFrameCount = lookaheadFrameCount;
+      }
+      if (rampStep != 0) {
+        gain += rampStep;
+        if (gain <= rampTargetGain) {
+          gain = rampTargetGain;
+          rampStep = 0;
+        }
+      } else if (holdFrameCount > 0) {
+        holdFrameCount--;
+      } else if (gain < 1) {
+        gain = Math.min(1, gain + (1 - gain) * releaseCoefficient);
+        rampTargetGain = gain;
+      }
+
+      int delayOffset = delayIndex * channelCount;
+      for (int channel = 0; channel < channelCount; channel++) {
+        float delayed = delayLine[delayOffset + channel];
+        delayLine[delayOffset + channel] = samples[index];
+        samples[index] = Math.max(-1, Math.min(1, delayed * gain));
+        index++;
+      }
+      delayIndex = delayIndex + 1 == lookaheadFrameCount ? 0 : delayIndex + 1;
+    }
+  }
+
+  @Override
+  public void reset() {
+    for (int i = 0; i < delayLine.length; i++) {
+      delayLine[i] = 0;
+    }
+    delayIndex = 0;
+    gain = 1;
+    rampTargetGain = 1;
+    rampStep = 0;
+    holdFrameCount = 0;
+  }
+
+}
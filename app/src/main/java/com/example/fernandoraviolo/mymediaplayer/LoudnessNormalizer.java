@@ -0,0 +1,180 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+/**
+ * An {@link AudioProcessor} that brings audio to a target loudness, measured the way EBU R 128
+ * specifies.
+ * <p>
+ * A K-weighted copy of the audio is measured in 400 ms blocks overlapping by 75%. The loudness of
+ * each block goes into a histogram of 0.1 LU bins, from which the gated integrated loudness of
+ * everything played so far is computed, with the absolute gate at -70 LUFS and the relative gate
+ * 10 LU below the ungated loudness. The gain that brings that to the target is approached
+ * smoothly, so that it never jumps audibly. Until the first block is measured the gain is 0 dB.
+ * <p>
+ * {@link #reset()} keeps the measurement, since the stream after a seek is still the same program.
+ * Peaks can exceed full scale after a boost, so this should be followed by a
+ * {@link LookaheadLimiter}.
+ */
+public final class LoudnessNormalizer implements AudioProcessor {
+
+  public static final float DEFAULT_TARGET_LUFS = -16f;
+  public static final float DEFAULT_MAX_GAIN_DB = 12f;
+
+  private static final int SUB_BLOCK_MS = 100;
+  private static final int SUB_BLOCKS_PER_BLOCK = 4;
+  private static final double ABSOLUTE_GATE_LUFS = -70;
+  private static final double RELATIVE_GATE_LU = -10;
+  private static final double HISTOGRAM_MAX_LUFS = 5;
+  private static final double HISTOGRAM_BIN_LU = 0.1;
+  private static final int HISTOGRAM_BIN_COUNT =
+      (int) ((HISTOGRAM_MAX_LUFS - ABSOLUTE_GATE_LUFS) / HISTOGRAM_BIN_LU);
+  private static final double GAIN_TIME_CONSTANT_S = 3;
+
+  private final float targetLufs;
+  private final float maxGainDb;
+  private final long[] histogram;
+  private final double[] subBlockEnergies;
+
+  private int channelCount;
+  private Biquad shelfFilter;
+  private Biquad highPassFilter;
+  private float[] weightedSamples;
+  private int subBlockFrameCount;
+  private double subBlockEnergy;
+  private int subBlockFrames;
+  private int subBlockIndex;
+  private int measuredSubBlockCount;
+  private float gain;
+  private float targetGain;
+  private float gainCoefficient;
+
+  public LoudnessNormalizer() {
+    this(DEFAULT_TARGET_LUFS, DEFAULT_MAX_GAIN_DB);
+  }
+
+  /**
+   * @param targetLufs The loudness to bring audio to.
+   * @param maxGainDb The maximum boost or cut.
+   */
+  public LoudnessNormalizer(float targetLufs, float maxGainDb) {
+    this.targetLufs = targetLufs;
+    this.maxGainDb = maxGainDb;
+    histogram = new long[HISTOGRAM_BIN_COUNT];
+    subBlockEnergies = new double[SUB_BLOCKS_PER_BLOCK];
+    weightedSamples = new float[0];
+    gain = 1;
+    targetGain = 1;
+  }
+
+  /**
+   * Returns the integrated loudness measured so far in LUFS, or {@link Float#NaN} if nothing loud
+   * enough was measured yet.
+   */
+  public synchronized float getIntegratedLoudness() {
+    return (float) computeIntegratedLoudness();
+  }
+
+  @Override
+  public synchronized void configure(int sampleRate, int channelCount) {
+    this.channelCount = channelCount;
+    shelfFilter = new Biquad(channelCount);
+    shelfFilter.setKWeightingShelf(sampleRate);
+    highPassFilter = new Biquad(channelCount);
+    highPassFilter.setKWeightingHighPass(sampleRate);
+    subBlockFrameCount = sampleRate * SUB_BLOCK_MS / 1000;
+    gainCoefficient = (float) (1 - Math.exp(-1 / (GAIN_TIME_CONSTANT_S * sampleRate)));
+    subBlockEnergy = 0;
+    subBlockFrames = 0;
+    subBlockIndex = 0;
+    measuredSubBlockCount = 0;
+  }
+
+  @Override
+  public synchronized void process(float[] samples, int frameCount) {
+    int sampleCount = frameCount * channelCount;
+    if (weightedSamples.length < sampleCount) {
+      weightedSamples = new float[sampleCount];
+    }
+    System.arraycopy(samples, 0, weightedSamples, 0, sampleCount);
+    shelfFilter.process(weightedSamples, frameCount);
+    highPassFilter.process(weightedSamples, frameCount);
+
+    int index = 0;
+    for (int frame = 0; frame < frameCount; frame++) {
+      for (int channel = 0; channel < channelCount; channel++) {
+        float weighted = weightedSamples[index];
+        subBlockEnergy += weighted * weighted;
+        samples[index] *= gain;
+        index++;
+      }
+      gain += (targetGain - gain) * gainCoefficient;
+      if (++subBlockFrames == subBlockFrameCount) {
+        onSubBlockEnd();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void reset() {
+    shelfFilter.reset();
+    highPassFilter.reset();
+    subBlockEnergy = 0;
+    subBlockFrames = 0;
+    measuredSubBlockCount = 0;
+  }
+
+  private void onSubBlockEnd() {
+    subBlockEnergies[subBlockIndex] = subBlockEnergy / subBlockFrames;
+    subBlockIndex = (subBlockIndex + 1) % SUB_BLOCKS_PER_BLOCK;
+    subBlockEnergy = 0;
+    subBlockFrames = 0;
+    if (++measuredSubBlockCount < SUB_BLOCKS_PER_BLOCK) {
+      return;
+    }
+    double blockEnergy = 0;
+    for (double energy : subBlockEnergies) {
+      blockEnergy += energy;
+    }
+    double blockLoudness = toLoudness(blockEnergy / SUB_BLOCKS_PER_BLOCK);
+    if (blockLoudness <= ABSOLUTE_GATE_LUFS) {
+      return;
+    }
+    int bin = (int) ((blockLoudness - ABSOLUTE_GATE_LUFS) / HISTOGRAM_BIN_LU);
+    histogram[Math.min(bin, HISTOGRAM_BIN_COUNT - 1)]++;
+    double integratedLoudness = computeIntegratedLoudness();
+    double gainDb = Math.max(-maxGainDb, Math.min(maxGainDb, targetLufs - integratedLoudness));
+    targetGain = (float) Math.pow(10, gainDb / 20);
+  }
+
+  private double computeIntegratedLoudness() {
+    double relativeGateLufs = toLoudness(getMeanEnergy(0)) + RELATIVE_GATE_LU;
+    int firstBin = (int) Math.max(0,
+        Math.ceil((relativeGateLufs - ABSOLUTE_GATE_LUFS) / HISTOGRAM_BIN_LU));
+    return toLoudness(getMeanEnergy(firstBin));
+  }
+
+  /**
+   * Returns the mean energy of the blocks in the histogram from {@code firstBin} on, or 0 if
+   * there are none.
+   */
+  private double getMeanEnergy(int firstBin) {
+    double energySum = 0;
+    long count = 0;
+    for (int bin = firstBin; bin < HISTOGRAM_BIN_COUNT; bin++) {
+      if (histogram[bin] != 0) {
+        double binLoudness = ABSOLUTE_GATE_LUFS + (bin + 0.5) * HISTOGRAM_BIN_LU;
+        energySum += histogram[bin] * toEnergy(binLoudness);
+        count += histogram[bin];
+      }
+    }
+    return count == 0 ? 0 : energySum / count;
+  }
+
+  private static double toLoudness(double energy) {
+    return energy == 0 ? Double.NaN : -0.691 + 10 * Math.log10(energy);
+  }
+
+  private static double toEnergy(double loudness) {
+    return Math.pow(10, (loudness + 0.691) / 10);
+  }
+
+}
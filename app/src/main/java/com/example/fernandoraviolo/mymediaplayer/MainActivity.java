@@ -5,9 +5,12 @@ import android.annotation.TargetApi;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -15,12 +18,29 @@ import android.view.View;
 import com.google.android.exoplayer.ExoPlayer;
 import com.google.android.exoplayer.util.Util;
 
-public class MainActivity extends AppCompatActivity implements RadioPlayer.Listener {
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MainActivity extends AppCompatActivity implements RadioPlayer.Listener,
+        RadioPlayer.MetadataListener, StreamRecorder.EventListener {
 
     private static final String STREAM_URL = "http://rsncast.dyn.rsn.net.au:6330/rsn";
     private static final String TAG = MainActivity.class.getSimpleName();
+    private static final String TIME_SHIFT_FILE_NAME = "timeshift";
+    private static final String TRACE_FILE_NAME = "session.trace";
+    private static final String RECORDINGS_DIRECTORY_NAME = "recordings";
+    private static final long LOG_INTERVAL_MS = 1000;
 
     private RadioPlayer player;
+    private PlayerMetrics playerMetrics;
+    private SessionTrace sessionTrace;
+    private ExecutorService loggingExecutor;
+    private BufferBudget bufferBudget;
+    private TimeShiftBuffer timeShiftBuffer;
+    private StreamRecorder streamRecorder;
     private Uri streamUri;
     private boolean playerNeedsPrepare;
     private FloatingActionButton fab;
@@ -33,6 +53,13 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
         setSupportActionBar(toolbar);
 
         streamUri = Uri.parse(STREAM_URL);
+        bufferBudget = new BufferBudget(this, ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE);
+        bufferBudget.register();
+        File musicDir = getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+        streamRecorder = new StreamRecorder(
+                new File(musicDir != null ? musicDir : getFilesDir(), RECORDINGS_DIRECTORY_NAME),
+                StreamRecorder.DEFAULT_MAX_FILE_DURATION_MS, new Handler(), this);
+        timeShiftBuffer = maybeStartTimeShiftBuffer();
 
         fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setEnabled(false);
@@ -43,7 +70,10 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
                 if (player.getPlayerControl().isPlaying()) {
                     player.getPlayerControl().pause();
                 } else {
-                    player.seekTo(0); //Advance to live edge
+                    if (timeShiftBuffer == null) {
+                        player.seekTo(0); //Advance to live edge
+                    }
+                    //Otherwise resume where we paused, the stream was recorded meanwhile
                     player.getPlayerControl().start();
                 }
             }
@@ -59,12 +89,39 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
         if (player == null) {
             player = new RadioPlayer(getRendererBuilder());
             player.addListener(this);
+            player.setMetadataListener(this);
+            //Two streams decode at once while fading between stations, weak devices cut instead
+            player.setCrossfadeDurationMs(
+                    Crossfader.isSupported(this) ? Crossfader.DEFAULT_DURATION_MS : 0);
+            //Stations are mastered at very different levels, even them out without clipping
+            player.setAudioProcessorChainFactory(new AudioProcessorChain.Factory() {
+                @Override
+                public AudioProcessorChain createAudioProcessorChain() {
+                    return new AudioProcessorChain(new LoudnessNormalizer(),
+                            new LookaheadLimiter());
+                }
+            });
             playerNeedsPrepare = true;
-            EventLogger eventLogger = new EventLogger();
-            eventLogger.startSession();
-            player.addListener(eventLogger);
-            player.setInfoListener(eventLogger);
-            player.setInternalErrorListener(eventLogger);
+            playerMetrics = new PlayerMetrics();
+            player.addListener(playerMetrics);
+            player.addInfoListener(playerMetrics, null, 0);
+            player.addInternalErrorListener(playerMetrics, null);
+            sessionTrace = new SessionTrace(new File(getFilesDir(), TRACE_FILE_NAME),
+                    SessionTrace.DEFAULT_MAX_FILE_SIZE);
+            sessionTrace.start();
+            player.addListener(sessionTrace);
+            player.addInfoListener(sessionTrace, null, 0);
+            player.addInternalErrorListener(sessionTrace, null);
+            if (BuildConfig.DEBUG) {
+                //Per event logging is too slow for release builds, metrics are enough there.
+                //Even in debug builds it is kept off the main thread, with high rate events thinned out
+                loggingExecutor = Executors.newSingleThreadExecutor();
+                EventLogger eventLogger = new EventLogger();
+                eventLogger.startSession();
+                player.addListener(eventLogger, loggingExecutor);
+                player.addInfoListener(eventLogger, loggingExecutor, LOG_INTERVAL_MS);
+                player.addInternalErrorListener(eventLogger, loggingExecutor);
+            }
         }
         if (playerNeedsPrepare) {
             player.prepare();
@@ -77,8 +134,94 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
     }
 
     private RadioPlayer.RendererBuilder getRendererBuilder() {
-        String userAgent = Util.getUserAgent(this, "ExoPlayerDemo");
-        return new ExtractorRendererBuilder(this, userAgent, streamUri);
+        final String userAgent = Util.getUserAgent(this, "ExoPlayerDemo");
+        //The station may publish a playlist of mirrors, the resolver picks the best one
+        PlaylistResolver resolver = new PlaylistResolver(this, userAgent);
+        return new PlaylistRendererBuilder(resolver, streamUri,
+                new PlaylistRendererBuilder.Factory() {
+                    @Override
+                    public RadioPlayer.RendererBuilder createRendererBuilder(Uri uri) {
+                        if (isDashUri(uri)) {
+                            return new DashRendererBuilder(MainActivity.this, userAgent,
+                                    uri.toString());
+                        }
+                        if (isHlsUri(uri)) {
+                            return new HlsRendererBuilder(MainActivity.this, userAgent,
+                                    uri.toString());
+                        }
+                        ExtractorRendererBuilder rendererBuilder =
+                                new ExtractorRendererBuilder(MainActivity.this, userAgent, uri);
+                        rendererBuilder.setBufferBudget(bufferBudget);
+                        //The buffer restarts recording whenever the stream or mirror changes
+                        if (!Util.isLocalFileUri(uri)) {
+                            rendererBuilder.setTimeShiftBuffer(timeShiftBuffer);
+                            //Every remote uri is a mirror of the station's live stream
+                            rendererBuilder.setLiveStream(true);
+                        }
+                        rendererBuilder.setStreamRecorder(streamRecorder);
+                        return rendererBuilder;
+                    }
+                });
+    }
+
+    /**
+     * Maps the buffer that streams are recorded into, so that pausing doesn't lose what airs in
+     * the meantime.
+     *
+     * @return The started buffer, or null if it couldn't be started.
+     */
+    private TimeShiftBuffer maybeStartTimeShiftBuffer() {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(new File(getCacheDir(), TIME_SHIFT_FILE_NAME),
+                TimeShiftBuffer.DEFAULT_CAPACITY);
+        try {
+            buffer.start();
+        } catch (IOException e) {
+            Log.w(TAG, "Time shift unavailable", e);
+            buffer.release();
+            return null;
+        }
+        return buffer;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (playerMetrics != null) {
+            playerMetrics.dump();
+        }
+        if (player != null) {
+            Log.i(TAG, "Main thread callbacks: " + player.getMainThreadCallbackCount() + " took "
+                    + player.getMainThreadCallbackTimeUs() + "us");
+            //Released first, so that nothing delivers events or reads from what is released below
+            player.release();
+            player = null;
+        }
+        HttpConnectionPool connectionPool = HttpConnectionPool.getInstance();
+        Log.i(TAG, "HTTP connections: " + connectionPool.getOpenedCount() + " opened in "
+                + connectionPool.getTotalSetupTimeMs() + "ms, " + connectionPool.getReusedCount()
+                + " reused");
+        if (sessionTrace != null) {
+            sessionTrace.release();
+        }
+        if (loggingExecutor != null) {
+            loggingExecutor.shutdown();
+        }
+        bufferBudget.unregister();
+        streamRecorder.release();
+        if (timeShiftBuffer != null) {
+            timeShiftBuffer.release();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= TRIM_MEMORY_MODERATE) {
+            //Segments kept for the next station are the first thing to give back
+            SharedAllocator.getInstance(ExtractorRendererBuilder.BUFFER_SEGMENT_SIZE)
+                    .trimFreeSegments();
+        }
     }
 
     /**
@@ -105,11 +248,22 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
                 != PackageManager.PERMISSION_GRANTED;
     }
 
+    private static boolean isDashUri(Uri uri) {
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".mpd");
+    }
+
+    private static boolean isHlsUri(Uri uri) {
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".m3u8");
+    }
+
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_record).setChecked(streamRecorder.isRecording());
         return true;
     }
 
@@ -124,6 +278,15 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_record) {
+            if (streamRecorder.isRecording()) {
+                streamRecorder.stop();
+            } else {
+                streamRecorder.start();
+            }
+            item.setChecked(streamRecorder.isRecording());
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -142,6 +305,10 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
                 fab.setEnabled(true);
                 break;
             case ExoPlayer.STATE_READY:
+                if (player.getTrackCount(RadioPlayer.TYPE_AUDIO) > 0) {
+                    bufferBudget.setStreamBitrate(
+                            player.getTrackFormat(RadioPlayer.TYPE_AUDIO, 0).bitrate);
+                }
                 if (playWhenReady) {
                     fab.setImageResource(android.R.drawable.ic_media_pause);
                 } else {
@@ -153,6 +320,25 @@ public class MainActivity extends AppCompatActivity implements RadioPlayer.Liste
         }
     }
 
+    @Override
+    public void onStreamTitleChanged(String title) {
+        setTitle(title.isEmpty() ? getString(R.string.app_name) : title);
+        streamRecorder.onStreamTitleChanged(title);
+    }
+
+    @Override
+    public void onRecordingFinished(File file, long droppedByteCount) {
+        if (droppedByteCount > 0) {
+            Log.w(TAG, "Recorded " + file + " with " + droppedByteCount + " bytes missing");
+        }
+    }
+
+    @Override
+    public void onRecordingError(IOException e) {
+        Log.w(TAG, "Recording failed", e);
+        invalidateOptionsMenu();
+    }
+
     @Override
     public void onError(Exception e) {
 
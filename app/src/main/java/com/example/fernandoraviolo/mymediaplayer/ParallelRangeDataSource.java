@@ -0,0 +1,407 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link UriDataSource} that downloads a resource over several HTTP connections at once, one
+ * range per connection, and hands the bytes out in order.
+ * <p>
+ * Every open starts with a single request for the first chunk at the open position. If the
+ * response has a {@code Content-Range} header, that connection keeps downloading the chunk while
+ * further connections fetch the following chunks, in order, so the bytes needed next always come
+ * first. Since the player reopens the source on every seek, the chunk at the seek position is
+ * always the first one fetched. Reading never waits for a whole chunk, only for the bytes it
+ * needs.
+ * <p>
+ * Chunks are held in allocations from the allocator the extractor buffers into, taken when a chunk
+ * is started and released once it's read, so they count against the same buffer size. At most
+ * {@link #WINDOW_CHUNK_COUNT} chunks of {@link #CHUNK_SIZE} bytes are held at once. That's no more
+ * than the smallest size a {@link BufferBudget} allows, so the window alone never keeps the
+ * extractor from loading the bytes that would let it drain.
+ * <p>
+ * Servers that don't support ranges, or don't report the total length, are read sequentially over
+ * the first connection instead.
+ */
+public final class ParallelRangeDataSource implements UriDataSource {
+
+  /**
+   * Creates the connections.
+   */
+  public interface Factory {
+
+    HttpDataSource createDataSource();
+
+  }
+
+  public static final int DEFAULT_CONNECTION_COUNT = 4;
+
+  private static final String TAG = "ParallelRangeDataSource";
+  private static final int CHUNK_SIZE = 128 * 1024;
+  private static final int WINDOW_CHUNK_COUNT = 4;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final Factory factory;
+  private final int connectionCount;
+  private final Allocator allocator;
+  private final int allocationLength;
+  private final Chunk[] window;
+
+  private DataSpec dataSpec;
+  private HttpDataSource sequentialSource;
+  private long openPosition;
+  private long endPosition;
+  private long readPosition;
+  private long readChunkIndex;
+  private long nextChunkIndex;
+  private long chunkCount;
+  // Incremented on every open, so that workers of a previous open stop touching the window.
+  private int generation;
+  private boolean opened;
+
+  /**
+   * @param factory Creates a connection for each concurrent range.
+   * @param connectionCount The maximum number of concurrent connections.
+   * @param allocator The allocator the window is held in.
+   */
+  public ParallelRangeDataSource(Factory factory, int connectionCount, Allocator allocator) {
+    this.factory = factory;
+    this.connectionCount = connectionCount;
+    this.allocator = allocator;
+    allocationLength = allocator.getIndividualAllocationLength();
+    int allocationsPerChunk = (CHUNK_SIZE + allocationLength - 1) / allocationLength;
+    window = new Chunk[WINDOW_CHUNK_COUNT];
+    for (int i = 0; i < WINDOW_CHUNK_COUNT; i++) {
+      window[i] = new Chunk(allocationsPerChunk);
+    }
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    this.dataSpec = dataSpec;
+    sequentialSource = null;
+    HttpDataSource probe = factory.createDataSource();
+    long firstChunkLength = dataSpec.length == C.LENGTH_UNBOUNDED ? CHUNK_SIZE
+        : Math.min(CHUNK_SIZE, dataSpec.length);
+    long probeLength = probe.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition,
+        dataSpec.position, firstChunkLength, dataSpec.key, dataSpec.flags));
+    long totalLength = getTotalLength(probe.getResponseHeaders());
+    if (totalLength == C.LENGTH_UNBOUNDED) {
+      probe.close();
+      sequentialSource = probe;
+      return sequentialSource.open(dataSpec);
+    }
+
+    long endPosition = dataSpec.length == C.LENGTH_UNBOUNDED ? totalLength
+        : Math.min(totalLength, dataSpec.position + dataSpec.length);
+    int generation;
+    synchronized (this) {
+      generation = ++this.generation;
+      opened = true;
+      openPosition = dataSpec.position;
+      this.endPosition = endPosition;
+      readPosition = openPosition;
+      readChunkIndex = 0;
+      chunkCount = (endPosition - openPosition + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      releaseWindow();
+      // The probe already asked for the first chunk, so it continues with that one.
+      assignChunk(0);
+      nextChunkIndex = 1;
+    }
+    BackgroundExecutor.execute(TAG, new Worker(probe, generation, 0, probeLength));
+    for (int i = 1; i < Math.min(connectionCount, chunkCount); i++) {
+      BackgroundExecutor.execute(TAG, new Worker(factory.createDataSource(), generation, -1, 0));
+    }
+    return endPosition - openPosition;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (sequentialSource != null) {
+      return sequentialSource.read(buffer, offset, readLength);
+    }
+    Chunk chunk;
+    int chunkOffset;
+    int available;
+    synchronized (this) {
+      if (readPosition == endPosition) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      chunk = window[(int) (readChunkIndex % WINDOW_CHUNK_COUNT)];
+      chunkOffset = (int) (readPosition - openPosition - readChunkIndex * CHUNK_SIZE);
+      while (chunk.index != readChunkIndex || chunk.filled <= chunkOffset) {
+        if (chunk.index == readChunkIndex && chunk.error != null) {
+          throw chunk.error;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      available = chunk.filled - chunkOffset;
+    }
+    // Bytes below filled aren't written again until the chunk is used up, so copying can happen
+    // outside the lock.
+    int read = Math.min(readLength, available);
+    copyFromChunk(chunk, chunkOffset, buffer, offset, read);
+    synchronized (this) {
+      readPosition += read;
+      if (chunkOffset + read == chunk.length) {
+        // The chunk is used up, which makes room for another one in the window.
+        releaseChunk(chunk);
+        readChunkIndex++;
+        notifyAll();
+      }
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (sequentialSource != null) {
+      HttpDataSource source = sequentialSource;
+      sequentialSource = null;
+      source.close();
+      return;
+    }
+    synchronized (this) {
+      if (opened) {
+        opened = false;
+        generation++;
+        releaseWindow();
+        notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public String getUri() {
+    return dataSpec == null ? null : dataSpec.uri.toString();
+  }
+
+  // Must be called with the lock held, as must releaseChunk, releaseWindow and copyToChunk.
+  private void assignChunk(long index) {
+    Chunk chunk = window[(int) (index % WINDOW_CHUNK_COUNT)];
+    chunk.index = index;
+    chunk.length = (int) Math.min(CHUNK_SIZE, endPosition - openPosition - index * CHUNK_SIZE);
+    chunk.filled = 0;
+    chunk.error = null;
+    for (int i = 0; i * allocationLength < chunk.length; i++) {
+      chunk.allocations[i] = allocator.allocate();
+    }
+  }
+
+  private void releaseChunk(Chunk chunk) {
+    chunk.index = -1;
+    for (int i = 0; i < chunk.allocations.length && chunk.allocations[i] != null; i++) {
+      allocator.release(chunk.allocations[i]);
+      chunk.allocations[i] = null;
+    }
+  }
+
+  private void releaseWindow() {
+    for (Chunk chunk : window) {
+      releaseChunk(chunk);
+    }
+  }
+
+  private void copyToChunk(byte[] source, Chunk chunk, int chunkOffset, int length) {
+    int sourceOffset = 0;
+    while (length > 0) {
+      Allocation allocation = chunk.allocations[chunkOffset / allocationLength];
+      int allocationOffset = chunkOffset % allocationLength;
+      int copyLength = Math.min(length, allocationLength - allocationOffset);
+      System.arraycopy(source, sourceOffset, allocation.data,
+          allocation.translateOffset(allocationOffset), copyLength);
+      sourceOffset += copyLength;
+      chunkOffset += copyLength;
+      length -= copyLength;
+    }
+  }
+
+  // Not called with the lock held, see read.
+  private void copyFromChunk(Chunk chunk, int chunkOffset, byte[] target, int targetOffset,
+      int length) {
+    while (length > 0) {
+      Allocation allocation = chunk.allocations[chunkOffset / allocationLength];
+      int allocationOffset = chunkOffset % allocationLength;
+      int copyLength = Math.min(length, allocationLength - allocationOffset);
+      System.arraycopy(allocation.data, allocation.translateOffset(allocationOffset), target,
+          targetOffset, copyLength);
+      targetOffset += copyLength;
+      chunkOffset += copyLength;
+      length -= copyLength;
+    }
+  }
+
+  /**
+   * Returns the resource length from a {@code Content-Range} header, or
+   * {@link C#LENGTH_UNBOUNDED} if there's none or it doesn't say.
+   */
+  private static long getTotalLength(Map<String, List<String>> headers) {
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (!"Content-Range".equalsIgnoreCase(header.getKey()) || header.getValue().isEmpty()) {
+        continue;
+      }
+      // Of the form "bytes 0-1023/146515", where the length can be "*".
+      String value = header.getValue().get(0);
+      int slashIndex = value.lastIndexOf('/');
+      if (slashIndex != -1) {
+        try {
+          return Long.parseLong(value.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException e) {
+          // Unknown length.
+        }
+      }
+    }
+    return C.LENGTH_UNBOUNDED;
+  }
+
+  /**
+   * A range being downloaded into or read from the window.
+   */
+  private static final class Chunk {
+
+    // Held only while the chunk is in the window, null otherwise.
+    public final Allocation[] allocations;
+
+    public long index;
+    public int length;
+    public int filled;
+    public IOException error;
+
+    public Chunk(int allocationCount) {
+      allocations = new Allocation[allocationCount];
+      index = -1;
+    }
+
+  }
+
+  /**
+   * Downloads chunks over one connection until the open they belong to ends.
+   */
+  private final class Worker implements Runnable {
+
+    private final HttpDataSource source;
+    private final int generation;
+    private final byte[] readBuffer;
+
+    private long openedChunkIndex;
+    private long openedLength;
+
+    /**
+     * @param source The connection to use.
+     * @param generation The open the worker belongs to.
+     * @param openedChunkIndex The chunk {@code source} is already open for, or -1.
+     * @param openedLength The length {@code source} was opened with.
+     */
+    public Worker(HttpDataSource source, int generation, long openedChunkIndex,
+        long openedLength) {
+      this.source = source;
+      this.generation = generation;
+      this.openedChunkIndex = openedChunkIndex;
+      this.openedLength = openedLength;
+      readBuffer = new byte[READ_BUFFER_SIZE];
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Chunk chunk;
+          long chunkIndex;
+          long chunkPosition;
+          synchronized (ParallelRangeDataSource.this) {
+            if (openedChunkIndex != -1) {
+              chunkIndex = openedChunkIndex;
+            } else {
+              while (isCurrent() && nextChunkIndex < chunkCount
+                  && nextChunkIndex >= readChunkIndex + WINDOW_CHUNK_COUNT) {
+                ParallelRangeDataSource.this.wait();
+              }
+              if (!isCurrent() || nextChunkIndex >= chunkCount) {
+                return;
+              }
+              chunkIndex = nextChunkIndex++;
+              assignChunk(chunkIndex);
+            }
+            chunk = window[(int) (chunkIndex % WINDOW_CHUNK_COUNT)];
+            chunkPosition = openPosition + chunkIndex * CHUNK_SIZE;
+          }
+          try {
+            download(chunk, chunkIndex, chunkPosition);
+          } catch (IOException e) {
+            synchronized (ParallelRangeDataSource.this) {
+              if (isCurrent() && chunk.index == chunkIndex) {
+                chunk.error = e;
+                ParallelRangeDataSource.this.notifyAll();
+              }
+            }
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          source.close();
+        } catch (IOException e) {
+          // Ignore, the connection is done with either way.
+        }
+      }
+    }
+
+    private void download(Chunk chunk, long chunkIndex, long chunkPosition) throws IOException {
+      int length;
+      synchronized (ParallelRangeDataSource.this) {
+        length = chunk.length;
+      }
+      if (openedChunkIndex == -1) {
+        openedLength = source.open(new DataSpec(dataSpec.uri,
+            dataSpec.absoluteStreamPosition + chunkPosition - dataSpec.position, chunkPosition,
+            length, dataSpec.key, dataSpec.flags));
+      }
+      openedChunkIndex = -1;
+      if (openedLength != C.LENGTH_UNBOUNDED && openedLength < length) {
+        throw new IOException("Short range response: " + openedLength + " < " + length);
+      }
+      int filled = 0;
+      while (filled < length) {
+        // Not read into the chunk directly: if the source is reopened meanwhile, the chunk may
+        // already hold bytes of the new open.
+        int read = source.read(readBuffer, 0, Math.min(readBuffer.length, length - filled));
+        if (read == C.RESULT_END_OF_INPUT) {
+          throw new IOException("Unexpected end of range at " + (chunkPosition + filled));
+        }
+        synchronized (ParallelRangeDataSource.this) {
+          if (!isCurrent() || chunk.index != chunkIndex) {
+            // The source was closed or reopened meanwhile.
+            return;
+          }
+          copyToChunk(readBuffer, chunk, filled, read);
+          filled += read;
+          chunk.filled = filled;
+          ParallelRangeDataSource.this.notifyAll();
+        }
+      }
+      source.close();
+    }
+
+    private boolean isCurrent() {
+      return generation == ParallelRangeDataSource.this.generation;
+    }
+
+  }
+
+}
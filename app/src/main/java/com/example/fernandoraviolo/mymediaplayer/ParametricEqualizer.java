@@ -0,0 +1,58 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link AudioProcessor} that boosts or cuts bands around given frequencies, with one peaking
+ * filter per band applied in series.
+ * <p>
+ * Bands must be added before the equalizer is passed to the playback thread.
+ */
+public final class ParametricEqualizer implements AudioProcessor {
+
+  private final List<float[]> bands;
+
+  private Biquad[] filters;
+
+  public ParametricEqualizer() {
+    bands = new ArrayList<>();
+    filters = new Biquad[0];
+  }
+
+  /**
+   * Adds a band.
+   *
+   * @param frequencyHz The center frequency.
+   * @param gainDb The gain at the center frequency, negative to cut.
+   * @param q The quality factor, higher for a narrower band.
+   */
+  public void addBand(float frequencyHz, float gainDb, float q) {
+    bands.add(new float[] {frequencyHz, gainDb, q});
+  }
+
+  @Override
+  public void configure(int sampleRate, int channelCount) {
+    filters = new Biquad[bands.size()];
+    for (int i = 0; i < filters.length; i++) {
+      float[] band = bands.get(i);
+      filters[i] = new Biquad(channelCount);
+      filters[i].setPeaking(sampleRate, Math.min(band[0], sampleRate * 0.45f), band[1], band[2]);
+    }
+  }
+
+  @Override
+  public void process(float[] samples, int frameCount) {
+    for (Biquad filter : filters) {
+      filter.process(samples, frameCount);
+    }
+  }
+
+  @Override
+  public void reset() {
+    for (Biquad filter : filters) {
+      filter.reset();
+    }
+  }
+
+}
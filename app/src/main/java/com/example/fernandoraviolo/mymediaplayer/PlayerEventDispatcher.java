@@ -0,0 +1,667 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.media.MediaCodec.CryptoException;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans player events out to any number of subscribers, each on an executor of its choice.
+ * <p>
+ * Events may be passed in on any thread, but each kind of event always on the same one. A
+ * subscriber with a null executor is called synchronously on the thread an event is passed in on,
+ * and coalesced events on the thread of the handler given to the constructor; otherwise the call is
+ * handed to its executor, which should run tasks one at a time to keep events in order. Only
+ * calls handed to an executor or held back for coalescing allocate; the others are made directly.
+ * <p>
+ * Info subscribers can ask for high frequency events (bandwidth samples, load starts and
+ * completions, available range changes) to be coalesced, so that they receive at most one of each
+ * per interval. Bandwidth samples are summed up, of the others only the latest is delivered.
+ * Pending coalesced events are never queued more than once, so a slow subscriber only ever sees
+ * fewer, more recent events and can't build up a backlog that delays everyone else. They are
+ * delivered early when any other event comes in for the subscriber, so that it sees all its
+ * events in the order they happened; calls to such a subscriber without an executor are therefore
+ * made one at a time.
+ */
+public final class PlayerEventDispatcher implements RadioPlayer.Listener,
+    RadioPlayer.InfoListener, RadioPlayer.InternalErrorListener {
+
+  private final Handler handler;
+  private final CopyOnWriteArrayList<Subscription<RadioPlayer.Listener>> listeners;
+  private final CopyOnWriteArrayList<InfoSubscription> infoListeners;
+  private final CopyOnWriteArrayList<Subscription<RadioPlayer.InternalErrorListener>>
+      internalErrorListeners;
+
+  /**
+   * @param handler A handler for the thread coalesced events are delivered on.
+   */
+  public PlayerEventDispatcher(Handler handler) {
+    this.handler = handler;
+    listeners = new CopyOnWriteArrayList<>();
+    infoListeners = new CopyOnWriteArrayList<>();
+    internalErrorListeners = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * @param listener The listener to add.
+   * @param executor The executor to call the listener on, or null to call it directly.
+   */
+  public void addListener(RadioPlayer.Listener listener, Executor executor) {
+    listeners.add(new Subscription<>(listener, executor));
+  }
+
+  public void removeListener(RadioPlayer.Listener listener) {
+    for (Subscription<RadioPlayer.Listener> subscription : listeners) {
+      if (subscription.listener == listener) {
+        listeners.remove(subscription);
+      }
+    }
+  }
+
+  /**
+   * @param listener The listener to add.
+   * @param executor The executor to call the listener on, or null to call it directly.
+   * @param minIntervalMs The minimum interval between two high frequency events of the same kind,
+   *     or 0 to receive every event.
+   */
+  public void addInfoListener(RadioPlayer.InfoListener listener, Executor executor,
+      long minIntervalMs) {
+    infoListeners.add(new InfoSubscription(listener, executor, minIntervalMs));
+  }
+
+  public void removeInfoListener(RadioPlayer.InfoListener listener) {
+    for (InfoSubscription subscription : infoListeners) {
+      if (subscription.listener == listener) {
+        infoListeners.remove(subscription);
+        handler.removeCallbacks(subscription.flushRunnable);
+      }
+    }
+  }
+
+  /**
+   * @param listener The listener to add.
+   * @param executor The executor to call the listener on, or null to call it directly.
+   */
+  public void addInternalErrorListener(RadioPlayer.InternalErrorListener listener,
+      Executor executor) {
+    internalErrorListeners.add(new Subscription<>(listener, executor));
+  }
+
+  public void removeInternalErrorListener(RadioPlayer.InternalErrorListener listener) {
+    for (Subscription<RadioPlayer.InternalErrorListener> subscription : internalErrorListeners) {
+      if (subscription.listener == listener) {
+        internalErrorListeners.remove(subscription);
+      }
+    }
+  }
+
+  /**
+   * Removes all subscribers and cancels pending coalesced events.
+   */
+  public void release() {
+    for (InfoSubscription subscription : infoListeners) {
+      handler.removeCallbacks(subscription.flushRunnable);
+    }
+    listeners.clear();
+    infoListeners.clear();
+    internalErrorListeners.clear();
+  }
+
+  // RadioPlayer.Listener
+
+  @Override
+  public void onStateChanged(final boolean playWhenReady, final int playbackState) {
+    for (final Subscription<RadioPlayer.Listener> subscription : listeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onStateChanged(playWhenReady, playbackState);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onStateChanged(playWhenReady, playbackState);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onError(final Exception e) {
+    for (final Subscription<RadioPlayer.Listener> subscription : listeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onError(e);
+          }
+        });
+      }
+    }
+  }
+
+  // RadioPlayer.InfoListener
+
+  @Override
+  public void onAudioFormatEnabled(final Format format, final int trigger,
+      final long mediaTimeMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onDroppedFrames(final int count, final long elapsed) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onDroppedFrames(count, elapsed);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onDroppedFrames(count, elapsed);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onBandwidthSample(final int elapsedMs, final long bytes,
+      final long bitrateEstimate) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.minIntervalMs > 0) {
+        subscription.coalesceBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+      } else if (subscription.isDirect()) {
+        subscription.listener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onLoadStarted(final int sourceId, final long length, final int type,
+      final int trigger, final Format format, final long mediaStartTimeMs,
+      final long mediaEndTimeMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onLoadStarted(sourceId, length, type, trigger, format,
+            mediaStartTimeMs, mediaEndTimeMs);
+      } else {
+        Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onLoadStarted(sourceId, length, type, trigger, format,
+                mediaStartTimeMs, mediaEndTimeMs);
+          }
+        };
+        if (subscription.minIntervalMs > 0) {
+          subscription.coalesce(InfoSubscription.LOAD_STARTED, event);
+        } else {
+          subscription.deliver(event);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onLoadCompleted(final int sourceId, final long bytesLoaded, final int type,
+      final int trigger, final Format format, final long mediaStartTimeMs,
+      final long mediaEndTimeMs, final long elapsedRealtimeMs, final long loadDurationMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
+            mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
+      } else {
+        Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
+                mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
+          }
+        };
+        if (subscription.minIntervalMs > 0) {
+          subscription.coalesce(InfoSubscription.LOAD_COMPLETED, event);
+        } else {
+          subscription.deliver(event);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onDecoderInitialized(final String decoderName, final long elapsedRealtimeMs,
+      final long initializationDurationMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onDecoderInitialized(decoderName, elapsedRealtimeMs,
+            initializationDurationMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onDecoderInitialized(decoderName, elapsedRealtimeMs,
+                initializationDurationMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onAvailableRangeChanged(final TimeRange availableRange) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onAvailableRangeChanged(availableRange);
+      } else {
+        Runnable event = new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onAvailableRangeChanged(availableRange);
+          }
+        };
+        if (subscription.minIntervalMs > 0) {
+          subscription.coalesce(InfoSubscription.AVAILABLE_RANGE_CHANGED, event);
+        } else {
+          subscription.deliver(event);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onReconnected(final int attemptCount, final long gapMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onReconnected(attemptCount, gapMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onReconnected(attemptCount, gapMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onStartupCompleted(final StartupTimeline timeline) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onStartupCompleted(timeline);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onStartupCompleted(timeline);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onSegmentFetched(final long fetchDurationMs, final long segmentDurationMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onSegmentFetched(fetchDurationMs, segmentDurationMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onSegmentFetched(fetchDurationMs, segmentDurationMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onLoadBurst(final long burstDurationMs, final long burstBytes,
+      final long idleDurationMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onLoadBurst(burstDurationMs, burstBytes, idleDurationMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onLoadBurst(burstDurationMs, burstBytes, idleDurationMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onConnectionOpened(final String host, final boolean reused,
+      final long setupTimeMs) {
+    for (final InfoSubscription subscription : infoListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onConnectionOpened(host, reused, setupTimeMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onConnectionOpened(host, reused, setupTimeMs);
+          }
+        });
+      }
+    }
+  }
+
+  // RadioPlayer.InternalErrorListener
+
+  @Override
+  public void onRendererInitializationError(final Exception e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onRendererInitializationError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onRendererInitializationError(e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onAudioTrackInitializationError(final AudioTrack.InitializationException e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onAudioTrackInitializationError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onAudioTrackInitializationError(e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onAudioTrackWriteError(final AudioTrack.WriteException e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onAudioTrackWriteError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onAudioTrackWriteError(e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onAudioTrackUnderrun(final int bufferSize, final long bufferSizeMs,
+      final long elapsedSinceLastFeedMs) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onAudioTrackUnderrun(bufferSize, bufferSizeMs,
+            elapsedSinceLastFeedMs);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onAudioTrackUnderrun(bufferSize, bufferSizeMs,
+                elapsedSinceLastFeedMs);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onDecoderInitializationError(final DecoderInitializationException e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onDecoderInitializationError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onDecoderInitializationError(e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onCryptoError(final CryptoException e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onCryptoError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onCryptoError(e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onLoadError(final int sourceId, final IOException e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onLoadError(sourceId, e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onLoadError(sourceId, e);
+          }
+        });
+      }
+    }
+  }
+
+  @Override
+  public void onDrmSessionManagerError(final Exception e) {
+    for (final Subscription<RadioPlayer.InternalErrorListener> subscription
+        : internalErrorListeners) {
+      if (subscription.isDirect()) {
+        subscription.listener.onDrmSessionManagerError(e);
+      } else {
+        subscription.deliver(new Runnable() {
+          @Override
+          public void run() {
+            subscription.listener.onDrmSessionManagerError(e);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * A subscriber and the executor to call it on.
+   */
+  private static class Subscription<T> {
+
+    public final T listener;
+    public final Executor executor;
+
+    public Subscription(T listener, Executor executor) {
+      this.listener = listener;
+      this.executor = executor;
+    }
+
+    /**
+     * Returns whether the listener can be called right away on the calling thread, in which case
+     * events are passed to it without allocating a {@link Runnable}.
+     */
+    public boolean isDirect() {
+      return executor == null;
+    }
+
+    public void deliver(Runnable event) {
+      if (executor == null) {
+        event.run();
+      } else {
+        executor.execute(event);
+      }
+    }
+
+  }
+
+  /**
+   * An info subscriber and the coalesced events waiting for it.
+   */
+  private final class InfoSubscription extends Subscription<RadioPlayer.InfoListener> {
+
+    public static final int LOAD_STARTED = 0;
+    public static final int LOAD_COMPLETED = 1;
+    public static final int AVAILABLE_RANGE_CHANGED = 2;
+
+    public final long minIntervalMs;
+    public final Runnable flushRunnable;
+
+    // Guarded by this. The latest event of each kind that replaces the ones before.
+    private final Runnable[] pendingEvents;
+
+    // Guarded by this.
+    private boolean flushScheduled;
+    private long lastFlushTimeMs;
+    private boolean bandwidthPending;
+    private int bandwidthElapsedMs;
+    private long bandwidthBytes;
+    private long bitrateEstimate;
+
+    public InfoSubscription(RadioPlayer.InfoListener listener, Executor executor,
+        long minIntervalMs) {
+      super(listener, executor);
+      this.minIntervalMs = minIntervalMs;
+      pendingEvents = new Runnable[AVAILABLE_RANGE_CHANGED + 1];
+      flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+          synchronized (InfoSubscription.this) {
+            flushScheduled = false;
+            deliverPendingEvents();
+          }
+        }
+      };
+    }
+
+    /**
+     * Returns whether the listener can be called right away, which it can't if it coalesces
+     * events, since those that are pending have to be delivered first.
+     */
+    @Override
+    public boolean isDirect() {
+      return super.isDirect() && minIntervalMs == 0;
+    }
+
+    /**
+     * Delivers the pending coalesced events and then {@code event}. Holding the lock while
+     * submitting keeps events from different threads from overtaking each other.
+     */
+    @Override
+    public synchronized void deliver(Runnable event) {
+      deliverPendingEvents();
+      super.deliver(event);
+    }
+
+    /**
+     * Holds {@code event} back until the interval has passed, replacing any pending event of the
+     * same kind.
+     */
+    public synchronized void coalesce(int kind, Runnable event) {
+      pendingEvents[kind] = event;
+      maybeScheduleFlush();
+    }
+
+    public synchronized void coalesceBandwidthSample(int elapsedMs, long bytes,
+        long bitrateEstimate) {
+      bandwidthElapsedMs += elapsedMs;
+      bandwidthBytes += bytes;
+      this.bitrateEstimate = bitrateEstimate;
+      bandwidthPending = true;
+      maybeScheduleFlush();
+    }
+
+    private void maybeScheduleFlush() {
+      if (flushScheduled) {
+        // Already on its way, it will pick up the new values.
+        return;
+      }
+      flushScheduled = true;
+      long delayMs = lastFlushTimeMs + minIntervalMs - SystemClock.elapsedRealtime();
+      handler.postDelayed(flushRunnable, Math.max(0, delayMs));
+    }
+
+    private void deliverPendingEvents() {
+      boolean delivered = false;
+      for (int i = 0; i < pendingEvents.length; i++) {
+        if (pendingEvents[i] != null) {
+          super.deliver(pendingEvents[i]);
+          pendingEvents[i] = null;
+          delivered = true;
+        }
+      }
+      if (bandwidthPending) {
+        final int elapsedMs = bandwidthElapsedMs;
+        final long bytes = bandwidthBytes;
+        final long bitrateEstimate = this.bitrateEstimate;
+        super.deliver(new Runnable() {
+          @Override
+          public void run() {
+            listener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
+          }
+        });
+        bandwidthPending = false;
+        bandwidthElapsedMs = 0;
+        bandwidthBytes = 0;
+        delivered = true;
+      }
+      if (delivered) {
+        lastFlushTimeMs = SystemClock.elapsedRealtime();
+      }
+    }
+
+  }
+
+}
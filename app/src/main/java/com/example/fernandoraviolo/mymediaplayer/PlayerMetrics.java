@@ -0,0 +1,356 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.media.MediaCodec.CryptoException;
+import android.util.Log;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+
+import java.io.IOException;
+
+/**
+ * Aggregates player events into counters and histograms, including percentiles of startup time
+ * and its phases across all prepares.
+ * <p>
+ * Events only update primitive fields, so they can be recorded on every callback without
+ * allocating. Call {@link #snapshot()} to read the metrics.
+ */
+public class PlayerMetrics implements RadioPlayer.Listener, RadioPlayer.InfoListener,
+    RadioPlayer.InternalErrorListener {
+
+  /**
+   * An immutable copy of the metrics.
+   */
+  public static final class Snapshot {
+
+    public final long stateChangeCount;
+    public final long errorCount;
+    public final long internalErrorCount;
+    public final long loadCount;
+    public final long loadErrorCount;
+    public final long bytesLoaded;
+    public final long underrunCount;
+    public final long reconnectCount;
+    /**
+     * The number of media segments that took longer to load than to play.
+     */
+    public final long lateSegmentCount;
+    public final long loadBurstCount;
+    /**
+     * The total time spent loading in bursts, during which the radio is kept awake.
+     */
+    public final long burstActiveTimeMs;
+    /**
+     * The total time loading was idle between bursts.
+     */
+    public final long burstIdleTimeMs;
+    public final long connectionCount;
+    /**
+     * The number of requests that went over a pooled connection, out of {@link #connectionCount}.
+     */
+    public final long reusedConnectionCount;
+    public final Histogram.Snapshot loadDurationMs;
+    public final Histogram.Snapshot bytesPerSecond;
+    public final Histogram.Snapshot decoderInitMs;
+    public final Histogram.Snapshot underrunBufferMs;
+    public final Histogram.Snapshot reconnectGapMs;
+    public final Histogram.Snapshot startupMs;
+    public final Histogram.Snapshot segmentFetchMs;
+    /**
+     * The time it took to load each media segment as a percentage of its duration.
+     */
+    public final Histogram.Snapshot segmentFetchPercent;
+    public final Histogram.Snapshot burstBytes;
+    public final Histogram.Snapshot burstDurationMs;
+    /**
+     * The time spent looking up hosts, connecting and negotiating TLS for new connections.
+     */
+    public final Histogram.Snapshot connectionSetupMs;
+    /**
+     * The durations of the startup phases, indexed by the {@code PHASE_*} constants of
+     * {@link StartupTimeline}.
+     */
+    public final Histogram.Snapshot[] startupPhaseMs;
+
+    private Snapshot(PlayerMetrics metrics) {
+      stateChangeCount = metrics.stateChangeCount;
+      errorCount = metrics.errorCount;
+      internalErrorCount = metrics.internalErrorCount;
+      loadCount = metrics.loadCount;
+      loadErrorCount = metrics.loadErrorCount;
+      bytesLoaded = metrics.bytesLoaded;
+      underrunCount = metrics.underrunCount;
+      reconnectCount = metrics.reconnectCount;
+      lateSegmentCount = metrics.lateSegmentCount;
+      loadBurstCount = metrics.loadBurstCount;
+      burstActiveTimeMs = metrics.burstActiveTimeMs;
+      burstIdleTimeMs = metrics.burstIdleTimeMs;
+      connectionCount = metrics.connectionCount;
+      reusedConnectionCount = metrics.reusedConnectionCount;
+      loadDurationMs = metrics.loadDurationMs.snapshot();
+      bytesPerSecond = metrics.bytesPerSecond.snapshot();
+      decoderInitMs = metrics.decoderInitMs.snapshot();
+      underrunBufferMs = metrics.underrunBufferMs.snapshot();
+      reconnectGapMs = metrics.reconnectGapMs.snapshot();
+      startupMs = metrics.startupMs.snapshot();
+      segmentFetchMs = metrics.segmentFetchMs.snapshot();
+      segmentFetchPercent = metrics.segmentFetchPercent.snapshot();
+      burstBytes = metrics.burstBytes.snapshot();
+      burstDurationMs = metrics.burstDurationMs.snapshot();
+      connectionSetupMs = metrics.connectionSetupMs.snapshot();
+      startupPhaseMs = new Histogram.Snapshot[StartupTimeline.PHASE_COUNT];
+      for (int i = 0; i < StartupTimeline.PHASE_COUNT; i++) {
+        startupPhaseMs[i] = metrics.startupPhaseMs[i].snapshot();
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder("metrics [stateChanges=" + stateChangeCount
+          + ", errors=" + errorCount + ", internalErrors=" + internalErrorCount
+          + ", loads=" + loadCount + ", loadErrors=" + loadErrorCount
+          + ", bytesLoaded=" + bytesLoaded + ", underruns=" + underrunCount
+          + ", reconnects=" + reconnectCount + ", lateSegments=" + lateSegmentCount
+          + ", loadBursts=" + loadBurstCount + ", burstActiveMs=" + burstActiveTimeMs
+          + ", burstIdleMs=" + burstIdleTimeMs + ", connections=" + connectionCount
+          + ", reusedConnections=" + reusedConnectionCount + "]\n"
+          + loadDurationMs + "\n" + bytesPerSecond + "\n" + decoderInitMs + "\n"
+          + underrunBufferMs + "\n" + reconnectGapMs + "\n" + segmentFetchMs + "\n"
+          + segmentFetchPercent + "\n" + burstBytes + "\n" + burstDurationMs + "\n"
+          + connectionSetupMs + "\n" + startupMs);
+      for (Histogram.Snapshot phaseSnapshot : startupPhaseMs) {
+        builder.append('\n').append(phaseSnapshot);
+      }
+      return builder.toString();
+    }
+
+  }
+
+  private static final String TAG = "PlayerMetrics";
+
+  private final Histogram loadDurationMs;
+  private final Histogram bytesPerSecond;
+  private final Histogram decoderInitMs;
+  private final Histogram underrunBufferMs;
+  private final Histogram reconnectGapMs;
+  private final Histogram startupMs;
+  private final Histogram segmentFetchMs;
+  private final Histogram segmentFetchPercent;
+  private final Histogram burstBytes;
+  private final Histogram burstDurationMs;
+  private final Histogram connectionSetupMs;
+  private final Histogram[] startupPhaseMs;
+
+  private long stateChangeCount;
+  private long errorCount;
+  private long internalErrorCount;
+  private long loadCount;
+  private long loadErrorCount;
+  private long bytesLoaded;
+  private long underrunCount;
+  private long reconnectCount;
+  private long lateSegmentCount;
+  private long loadBurstCount;
+  private long burstActiveTimeMs;
+  private long burstIdleTimeMs;
+  private long connectionCount;
+  private long reusedConnectionCount;
+
+  public PlayerMetrics() {
+    loadDurationMs = Histogram.exponential("loadDurationMs", 10, 2, 14);
+    bytesPerSecond = Histogram.exponential("bytesPerSecond", 1024, 2, 16);
+    decoderInitMs = Histogram.exponential("decoderInitMs", 5, 2, 10);
+    underrunBufferMs = Histogram.exponential("underrunBufferMs", 10, 2, 10);
+    reconnectGapMs = Histogram.exponential("reconnectGapMs", 100, 2, 12);
+    startupMs = Histogram.exponential("startupMs", 50, 2, 10);
+    segmentFetchMs = Histogram.exponential("segmentFetchMs", 50, 2, 10);
+    segmentFetchPercent = new Histogram("segmentFetchPercent", 10, 25, 50, 75, 100, 150, 200);
+    burstBytes = Histogram.exponential("burstBytes", 64 * 1024, 2, 10);
+    burstDurationMs = Histogram.exponential("burstDurationMs", 100, 2, 12);
+    connectionSetupMs = Histogram.exponential("connectionSetupMs", 10, 2, 10);
+    startupPhaseMs = new Histogram[StartupTimeline.PHASE_COUNT];
+    for (int i = 0; i < StartupTimeline.PHASE_COUNT; i++) {
+      startupPhaseMs[i] = Histogram.exponential(
+          "startupMs." + StartupTimeline.getPhaseName(i), 5, 2, 14);
+    }
+  }
+
+  public synchronized Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * Writes a snapshot of the metrics to the log.
+   */
+  public void dump() {
+    Log.i(TAG, snapshot().toString());
+  }
+
+  // RadioPlayer.Listener
+
+  @Override
+  public synchronized void onStateChanged(boolean playWhenReady, int playbackState) {
+    stateChangeCount++;
+  }
+
+  @Override
+  public synchronized void onError(Exception e) {
+    errorCount++;
+  }
+
+  // RadioPlayer.InfoListener
+
+  @Override
+  public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onDroppedFrames(int count, long elapsed) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+    if (elapsedMs > 0) {
+      bytesPerSecond.record(bytes * 1000 / elapsedMs);
+    }
+  }
+
+  @Override
+  public synchronized void onLoadStarted(int sourceId, long length, int type, int trigger,
+      Format format, long mediaStartTimeMs, long mediaEndTimeMs) {
+    loadCount++;
+  }
+
+  @Override
+  public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+      long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
+    synchronized (this) {
+      this.bytesLoaded += bytesLoaded;
+    }
+    this.loadDurationMs.record(loadDurationMs);
+  }
+
+  @Override
+  public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+      long initializationDurationMs) {
+    decoderInitMs.record(initializationDurationMs);
+  }
+
+  @Override
+  public void onAvailableRangeChanged(TimeRange availableRange) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onReconnected(int attemptCount, long gapMs) {
+    synchronized (this) {
+      reconnectCount++;
+    }
+    reconnectGapMs.record(gapMs);
+  }
+
+  @Override
+  public void onStartupCompleted(StartupTimeline timeline) {
+    startupMs.record(timeline.getTotalMs());
+    for (int i = 0; i < StartupTimeline.PHASE_COUNT; i++) {
+      long durationMs = timeline.getPhaseDurationMs(i);
+      if (durationMs != StartupTimeline.UNKNOWN_TIME) {
+        startupPhaseMs[i].record(durationMs);
+      }
+    }
+  }
+
+  @Override
+  public void onSegmentFetched(long fetchDurationMs, long segmentDurationMs) {
+    segmentFetchMs.record(fetchDurationMs);
+    if (segmentDurationMs > 0) {
+      segmentFetchPercent.record(fetchDurationMs * 100 / segmentDurationMs);
+    }
+    if (fetchDurationMs > segmentDurationMs) {
+      synchronized (this) {
+        lateSegmentCount++;
+      }
+    }
+  }
+
+  @Override
+  public void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs) {
+    this.burstBytes.record(burstBytes);
+    this.burstDurationMs.record(burstDurationMs);
+    synchronized (this) {
+      loadBurstCount++;
+      burstActiveTimeMs += burstDurationMs;
+      burstIdleTimeMs += idleDurationMs;
+    }
+  }
+
+  @Override
+  public void onConnectionOpened(String host, boolean reused, long setupTimeMs) {
+    if (!reused) {
+      connectionSetupMs.record(setupTimeMs);
+    }
+    synchronized (this) {
+      connectionCount++;
+      if (reused) {
+        reusedConnectionCount++;
+      }
+    }
+  }
+
+  // RadioPlayer.InternalErrorListener
+
+  @Override
+  public void onRendererInitializationError(Exception e) {
+    countInternalError();
+  }
+
+  @Override
+  public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+    countInternalError();
+  }
+
+  @Override
+  public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+    countInternalError();
+  }
+
+  @Override
+  public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+    synchronized (this) {
+      underrunCount++;
+    }
+    underrunBufferMs.record(bufferSizeMs);
+  }
+
+  @Override
+  public void onDecoderInitializationError(DecoderInitializationException e) {
+    countInternalError();
+  }
+
+  @Override
+  public void onCryptoError(CryptoException e) {
+    countInternalError();
+  }
+
+  @Override
+  public void onLoadError(int sourceId, IOException e) {
+    synchronized (this) {
+      loadErrorCount++;
+    }
+    countInternalError();
+  }
+
+  @Override
+  public void onDrmSessionManagerError(Exception e) {
+    countInternalError();
+  }
+
+  private synchronized void countInternalError() {
+    internalErrorCount++;
+  }
+
+}
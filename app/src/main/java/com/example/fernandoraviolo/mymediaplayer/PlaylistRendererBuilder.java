@@ -0,0 +1,65 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.net.Uri;
+
+import java.io.IOException;
+
+/**
+ * A {@link RadioPlayer.RendererBuilder} that first resolves a playlist uri to its best mirror with
+ * a {@link PlaylistResolver}, then builds the renderers for the mirror with the builder created by
+ * a {@link Factory}.
+ */
+public class PlaylistRendererBuilder implements RadioPlayer.RendererBuilder {
+
+  /**
+   * Creates the builder for a resolved uri.
+   */
+  public interface Factory {
+
+    RadioPlayer.RendererBuilder createRendererBuilder(Uri uri);
+
+  }
+
+  private final PlaylistResolver resolver;
+  private final Uri uri;
+  private final Factory factory;
+
+  private RadioPlayer.RendererBuilder rendererBuilder;
+
+  /**
+   * @param resolver The resolver to use.
+   * @param uri The uri of a playlist or a stream.
+   * @param factory Creates the builder for the resolved uri.
+   */
+  public PlaylistRendererBuilder(PlaylistResolver resolver, Uri uri, Factory factory) {
+    this.resolver = resolver;
+    this.uri = uri;
+    this.factory = factory;
+  }
+
+  @Override
+  public void buildRenderers(final RadioPlayer player) {
+    resolver.resolve(uri, new PlaylistResolver.Callback() {
+      @Override
+      public void onResolved(Uri uri) {
+        rendererBuilder = factory.createRendererBuilder(uri);
+        rendererBuilder.buildRenderers(player);
+      }
+
+      @Override
+      public void onResolveError(IOException e) {
+        player.onRenderersError(e);
+      }
+    });
+  }
+
+  @Override
+  public void cancel() {
+    resolver.cancel();
+    if (rendererBuilder != null) {
+      rendererBuilder.cancel();
+      rendererBuilder = null;
+    }
+  }
+
+}
@@ -0,0 +1,458 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resolves a station uri to the mirror to play.
+ * <p>
+ * Uris whose path ends in {@code .pls} or {@code .m3u} are downloaded and parsed as playlists of
+ * mirrors; any other uri is its own single mirror and is returned without touching the network.
+ * All mirrors of a playlist are probed in parallel by reading the start of each stream, and each is
+ * scored by how long it would take to receive {@link #START_BYTES}, given its time to first byte
+ * and the rate it delivered at afterwards. The best mirror wins and the other probes are
+ * disconnected. Probes still reading when time runs out, as slow streams without a connect burst
+ * are, are scored on what they received so far, so any mirror that sent bytes can win.
+ * <p>
+ * Scores are remembered across runs. The next time, the previous winner is picked as soon as its
+ * probe is about as good as it used to be, without waiting for the others, and mirrors that failed
+ * are tried last.
+ */
+public final class PlaylistResolver {
+
+  /**
+   * Receives the result of {@link #resolve(Uri, Callback)} on the main thread.
+   */
+  public interface Callback {
+
+    void onResolved(Uri uri);
+
+    void onResolveError(IOException e);
+
+  }
+
+  /**
+   * About what the player needs before it can start.
+   */
+  public static final int START_BYTES = 32 * 1024;
+
+  private static final String TAG = "PlaylistResolver";
+  private static final String PREFERENCES_NAME = "mirror_history";
+
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+  private static final int READ_TIMEOUT_MS = 5000;
+  private static final long PROBE_TIMEOUT_MS = 4000;
+  private static final int PROBE_BYTES = 64 * 1024;
+  private static final int MAX_PLAYLIST_SIZE = 64 * 1024;
+  /**
+   * How much worse than its history the previous winner may do and still be picked at once.
+   */
+  private static final float HISTORY_TOLERANCE = 1.25f;
+  /**
+   * Weight of a new score in the remembered average.
+   */
+  private static final float HISTORY_WEIGHT = 0.3f;
+
+  private final String userAgent;
+  private final Handler mainHandler;
+  private final SharedPreferences history;
+
+  private ResolveTask task;
+
+  public PlaylistResolver(Context context, String userAgent) {
+    this.userAgent = userAgent;
+    mainHandler = new Handler();
+    history = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Resolves {@code uri} in the background, canceling any resolution in progress.
+   */
+  public void resolve(Uri uri, Callback callback) {
+    cancel();
+    if (!isPlaylist(uri)) {
+      callback.onResolved(uri);
+      return;
+    }
+    task = new ResolveTask(uri, callback);
+    BackgroundExecutor.execute(TAG, task);
+  }
+
+  /**
+   * Cancels the resolution in progress, if any. Its callback won't be called.
+   */
+  public void cancel() {
+    if (task != null) {
+      task.cancel();
+      task = null;
+    }
+  }
+
+  /* package */ static boolean isPlaylist(Uri uri) {
+    String path = uri.getPath();
+    if (path == null) {
+      return false;
+    }
+    path = path.toLowerCase(Locale.US);
+    return path.endsWith(".pls") || path.endsWith(".m3u");
+  }
+
+  /**
+   * Returns the stream urls of a {@code .pls} or {@code .m3u} playlist, in order.
+   */
+  /* package */ static List<String> parsePlaylist(String playlist) {
+    List<String> urls = new ArrayList<>();
+    for (String line : playlist.split("\r?\n")) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith("[")) {
+        continue;
+      }
+      // A pls entry is of the form "File1=http://...", an m3u entry is just the url.
+      int equalsIndex = line.indexOf('=');
+      if (equalsIndex != -1 && line.regionMatches(true, 0, "File", 0, 4)) {
+        line = line.substring(equalsIndex + 1).trim();
+      }
+      String lowerCaseLine = line.toLowerCase(Locale.US);
+      if ((lowerCaseLine.startsWith("http://") || lowerCaseLine.startsWith("https://"))
+          && !urls.contains(line)) {
+        urls.add(line);
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * Returns the remembered score of a mirror, or -1 if there's none.
+   */
+  private long getHistoricScoreMs(String url) {
+    return history.getLong(url + ".score", -1);
+  }
+
+  private int getHistoricFailureCount(String url) {
+    return history.getInt(url + ".failures", 0);
+  }
+
+  private void updateHistory(List<Probe> probes) {
+    SharedPreferences.Editor editor = history.edit();
+    for (Probe probe : probes) {
+      if (probe.scoreMs == -1) {
+        if (probe.failed) {
+          editor.putInt(probe.url + ".failures", getHistoricFailureCount(probe.url) + 1);
+        }
+        continue;
+      }
+      long historicScoreMs = getHistoricScoreMs(probe.url);
+      long scoreMs = historicScoreMs == -1 ? probe.scoreMs
+          : (long) (HISTORY_WEIGHT * probe.scoreMs + (1 - HISTORY_WEIGHT) * historicScoreMs);
+      editor.putLong(probe.url + ".score", scoreMs);
+      editor.putInt(probe.url + ".failures", 0);
+    }
+    editor.apply();
+  }
+
+  private HttpURLConnection openConnection(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    connection.setReadTimeout(READ_TIMEOUT_MS);
+    connection.setRequestProperty("User-Agent", userAgent);
+    return connection;
+  }
+
+  /**
+   * Downloads and parses a playlist, probes its mirrors and reports the winner.
+   */
+  private final class ResolveTask implements Runnable {
+
+    private final Uri uri;
+    private final Callback callback;
+    private final List<Probe> probes;
+
+    private volatile boolean canceled;
+
+    public ResolveTask(Uri uri, Callback callback) {
+      this.uri = uri;
+      this.callback = callback;
+      probes = new ArrayList<>();
+    }
+
+    public void cancel() {
+      canceled = true;
+      synchronized (this) {
+        for (Probe probe : probes) {
+          probe.cancel();
+        }
+        notifyAll();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<String> urls = parsePlaylist(downloadPlaylist());
+        if (urls.isEmpty()) {
+          throw new IOException("No streams in playlist " + uri);
+        }
+        final String url = urls.size() == 1 ? urls.get(0) : probeMirrors(urls);
+        if (url == null) {
+          throw new IOException("No mirror of " + uri + " responded");
+        }
+        postResult(url, null);
+      } catch (IOException e) {
+        postResult(null, e);
+      }
+    }
+
+    private String downloadPlaylist() throws IOException {
+      HttpURLConnection connection = openConnection(uri.toString());
+      try {
+        InputStream inputStream = connection.getInputStream();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1 && !canceled) {
+          outputStream.write(buffer, 0, read);
+          if (outputStream.size() > MAX_PLAYLIST_SIZE) {
+            throw new IOException("Playlist too large: " + uri);
+          }
+        }
+        return outputStream.toString("UTF-8");
+      } finally {
+        connection.disconnect();
+      }
+    }
+
+    /**
+     * Probes all mirrors at once and returns the url of the best one, or null if none worked.
+     */
+    private String probeMirrors(List<String> urls) {
+      String favoriteUrl = null;
+      long favoriteScoreMs = Long.MAX_VALUE;
+      synchronized (this) {
+        if (canceled) {
+          return null;
+        }
+        for (String url : urls) {
+          long historicScoreMs = getHistoricScoreMs(url);
+          if (historicScoreMs != -1 && getHistoricFailureCount(url) == 0
+              && historicScoreMs < favoriteScoreMs) {
+            favoriteUrl = url;
+            favoriteScoreMs = historicScoreMs;
+          }
+        }
+        // Mirrors that failed last time start last, so they get the fewest resources.
+        List<String> orderedUrls = new ArrayList<>(urls);
+        for (String url : urls) {
+          if (getHistoricFailureCount(url) > 0) {
+            orderedUrls.remove(url);
+            orderedUrls.add(url);
+          }
+        }
+        for (String url : orderedUrls) {
+          Probe probe = new Probe(url, this);
+          probes.add(probe);
+          BackgroundExecutor.execute(TAG + ":probe", probe);
+        }
+      }
+
+      long deadlineMs = SystemClock.elapsedRealtime() + PROBE_TIMEOUT_MS;
+      Probe best = null;
+      synchronized (this) {
+        while (!canceled) {
+          best = null;
+          boolean allDone = true;
+          for (Probe probe : probes) {
+            if (!probe.done) {
+              allDone = false;
+            } else if (probe.scoreMs != -1 && (best == null || probe.scoreMs < best.scoreMs)) {
+              best = probe;
+            }
+            if (probe.url.equals(favoriteUrl) && probe.scoreMs != -1
+                && probe.scoreMs <= favoriteScoreMs * HISTORY_TOLERANCE) {
+              // Good as ever, no need to wait for the rest.
+              best = probe;
+              allDone = true;
+              break;
+            }
+          }
+          long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+          if (allDone || remainingMs <= 0) {
+            break;
+          }
+          try {
+            wait(remainingMs);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+          }
+        }
+        if (best == null) {
+          // Out of time before any probe finished. Score the ones that got bytes on their rate so
+          // far rather than failing while mirrors are answering.
+          long nowMs = SystemClock.elapsedRealtime();
+          for (Probe probe : probes) {
+            if (!probe.done && probe.bytes > 0) {
+              probe.scoreMs = probe.getPartialScoreMs(nowMs);
+              if (best == null || probe.scoreMs < best.scoreMs) {
+                best = probe;
+              }
+            }
+          }
+        }
+        for (Probe probe : probes) {
+          probe.cancel();
+        }
+      }
+      if (canceled) {
+        return null;
+      }
+      updateHistory(probes);
+      if (best != null) {
+        Log.d(TAG, "Picked " + best.url + " with score " + best.scoreMs + "ms");
+      }
+      return best == null ? null : best.url;
+    }
+
+    private void postResult(final String url, final IOException error) {
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (canceled) {
+            return;
+          }
+          task = null;
+          if (error != null) {
+            callback.onResolveError(error);
+          } else {
+            callback.onResolved(Uri.parse(url));
+          }
+        }
+      });
+    }
+
+  }
+
+  /**
+   * Returns how long a mirror would take to deliver {@link #START_BYTES}, given its time to first
+   * byte and the rate it delivered {@code bytes} at afterwards.
+   */
+  private static long getScoreMs(long startTimeMs, long firstByteTimeMs, long endTimeMs,
+      long bytes) {
+    long rateDurationMs = Math.max(1, endTimeMs - firstByteTimeMs);
+    long bytesPerSecond = Math.max(1, bytes * 1000 / rateDurationMs);
+    return (firstByteTimeMs - startTimeMs) + START_BYTES * 1000L / bytesPerSecond;
+  }
+
+  /**
+   * Reads the start of one mirror's stream and scores it.
+   */
+  private final class Probe implements Runnable {
+
+    public final String url;
+
+    private final Object lock;
+
+    // Guarded by lock.
+    public boolean done;
+    public boolean failed;
+    public long scoreMs;
+    public long bytes;
+    private long startTimeMs;
+    private long firstByteTimeMs;
+    private HttpURLConnection connection;
+    private boolean canceled;
+
+    /**
+     * @param url The mirror.
+     * @param lock The lock to notify when done.
+     */
+    public Probe(String url, Object lock) {
+      this.url = url;
+      this.lock = lock;
+      scoreMs = -1;
+    }
+
+    /**
+     * Returns the score the probe would get if it stopped reading now. Must be called holding the
+     * lock, once {@link #bytes} is positive.
+     */
+    public long getPartialScoreMs(long nowMs) {
+      return getScoreMs(startTimeMs, firstByteTimeMs, nowMs, bytes);
+    }
+
+    /**
+     * Disconnects the probe. Must be called holding the lock.
+     */
+    public void cancel() {
+      canceled = true;
+      if (connection != null) {
+        // Unblocks a read in progress on the probe thread.
+        connection.disconnect();
+      }
+    }
+
+    @Override
+    public void run() {
+      long startTimeMs = SystemClock.elapsedRealtime();
+      long scoreMs = -1;
+      try {
+        HttpURLConnection connection = openConnection(url);
+        synchronized (lock) {
+          if (canceled) {
+            connection.disconnect();
+            return;
+          }
+          this.connection = connection;
+        }
+        InputStream inputStream = connection.getInputStream();
+        byte[] buffer = new byte[4096];
+        int read = inputStream.read(buffer);
+        if (read == -1) {
+          throw new IOException("Empty stream");
+        }
+        long firstByteTimeMs = SystemClock.elapsedRealtime();
+        long bytes = read;
+        synchronized (lock) {
+          this.startTimeMs = startTimeMs;
+          this.firstByteTimeMs = firstByteTimeMs;
+          this.bytes = bytes;
+        }
+        while (bytes < PROBE_BYTES && (read = inputStream.read(buffer)) != -1) {
+          bytes += read;
+          synchronized (lock) {
+            this.bytes = bytes;
+          }
+        }
+        scoreMs = getScoreMs(startTimeMs, firstByteTimeMs, SystemClock.elapsedRealtime(), bytes);
+      } catch (IOException e) {
+        Log.d(TAG, "Probe of " + url + " failed: " + e.getMessage());
+      } finally {
+        synchronized (lock) {
+          if (connection != null) {
+            connection.disconnect();
+          }
+          if (!canceled) {
+            this.scoreMs = scoreMs;
+            failed = scoreMs == -1;
+          }
+          done = true;
+          lock.notifyAll();
+        }
+      }
+    }
+
+  }
+
+}
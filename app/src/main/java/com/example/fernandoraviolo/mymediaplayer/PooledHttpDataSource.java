@@ -0,0 +1,584 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link HttpDataSource} that sends HTTP/1.1 requests over connections from an
+ * {@link HttpConnectionPool}, and gives connections back to the pool once a response was read
+ * completely.
+ * <p>
+ * Shoutcast servers answer with an {@code ICY 200 OK} status line, which is accepted as an
+ * HTTP/1.0 response. Endless radio streams can never be read completely, so their connections
+ * aren't reused; what the pool saves there is the DNS lookup. Ranges, segments and redirects reuse
+ * connections.
+ * <p>
+ * The pool only connects directly. When the system {@link ProxySelector} picks a proxy for a url,
+ * the request goes through a {@link DefaultHttpDataSource} instead, which honors it.
+ */
+public final class PooledHttpDataSource implements HttpDataSource {
+
+  /**
+   * Interface definition for a callback to be notified of {@link PooledHttpDataSource} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when a request was answered.
+     *
+     * @param host The host the request was sent to.
+     * @param reused Whether the request went over a pooled connection.
+     * @param setupTimeMs The time spent looking up the host, connecting and negotiating TLS. Zero
+     *     if the connection was reused.
+     */
+    void onConnectionOpened(String host, boolean reused, long setupTimeMs);
+
+  }
+
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 8 * 1000;
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 8 * 1000;
+
+  private static final int MAX_REDIRECTS = 20;
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+  // Reading a short remainder is cheaper than setting up a new connection.
+  private static final int MAX_DRAIN_BYTES = 8 * 1024;
+  private static final int SKIP_BUFFER_SIZE = 4 * 1024;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final String userAgent;
+  private final HttpConnectionPool pool;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final TransferListener listener;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+  private final HashMap<String, String> requestProperties;
+  private final StringBuilder lineBuilder;
+
+  private DataSpec dataSpec;
+  private HttpConnectionPool.Connection connection;
+  private Map<String, List<String>> responseHeaders;
+  private String uri;
+  private boolean opened;
+  private byte[] skipBuffer;
+  private DefaultHttpDataSource proxiedDataSource;
+
+  private boolean keepAlive;
+  private boolean chunked;
+  private boolean chunkStarted;
+  private long chunkBytesRemaining;
+  private long bodyBytesRemaining;
+  private boolean endOfBody;
+
+  private long bytesToRead;
+  private long bytesRead;
+
+  /**
+   * Uses the shared pool and the default timeouts.
+   *
+   * @param userAgent The User-Agent string that should be used.
+   * @param listener An optional listener.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public PooledHttpDataSource(String userAgent, TransferListener listener, Handler eventHandler,
+      EventListener eventListener) {
+    this(userAgent, HttpConnectionPool.getInstance(), DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        DEFAULT_READ_TIMEOUT_MILLIS, listener, eventHandler, eventListener);
+  }
+
+  /**
+   * @param userAgent The User-Agent string that should be used.
+   * @param pool The pool to take connections from.
+   * @param connectTimeoutMillis The connection timeout, in milliseconds.
+   * @param readTimeoutMillis The read timeout, in milliseconds.
+   * @param listener An optional listener.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public PooledHttpDataSource(String userAgent, HttpConnectionPool pool, int connectTimeoutMillis,
+      int readTimeoutMillis, TransferListener listener, Handler eventHandler,
+      EventListener eventListener) {
+    this.userAgent = userAgent;
+    this.pool = pool;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.listener = listener;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    requestProperties = new HashMap<>();
+    lineBuilder = new StringBuilder();
+  }
+
+  @Override
+  public void setRequestProperty(String name, String value) {
+    synchronized (requestProperties) {
+      requestProperties.put(name, value);
+    }
+  }
+
+  @Override
+  public void clearRequestProperty(String name) {
+    synchronized (requestProperties) {
+      requestProperties.remove(name);
+    }
+  }
+
+  @Override
+  public void clearAllRequestProperties() {
+    synchronized (requestProperties) {
+      requestProperties.clear();
+    }
+  }
+
+  @Override
+  public Map<String, List<String>> getResponseHeaders() {
+    return proxiedDataSource != null ? proxiedDataSource.getResponseHeaders() : responseHeaders;
+  }
+
+  @Override
+  public String getUri() {
+    return proxiedDataSource != null ? proxiedDataSource.getUri() : uri;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws HttpDataSourceException {
+    URL url;
+    try {
+      url = new URL(dataSpec.uri.toString());
+    } catch (MalformedURLException e) {
+      throw new HttpDataSourceException(e, dataSpec);
+    }
+    return open(dataSpec, url);
+  }
+
+  /**
+   * Opens {@code url}, which stands for {@code dataSpec.uri}. Called directly by tests, which run
+   * where {@link android.net.Uri} isn't available.
+   */
+  /* package */ long open(DataSpec dataSpec, URL url) throws HttpDataSourceException {
+    this.dataSpec = dataSpec;
+    bytesRead = 0;
+    if (isProxied(url)) {
+      proxiedDataSource = new DefaultHttpDataSource(userAgent, null, listener,
+          connectTimeoutMillis, readTimeoutMillis);
+      synchronized (requestProperties) {
+        for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+          proxiedDataSource.setRequestProperty(property.getKey(), property.getValue());
+        }
+      }
+      return proxiedDataSource.open(dataSpec);
+    }
+    int responseCode;
+    try {
+      byte[] postBody = dataSpec.postBody;
+      int redirectCount = 0;
+      while (true) {
+        responseCode = execute(url, postBody);
+        String location = getHeader("Location");
+        if (!isRedirect(responseCode) || location == null) {
+          break;
+        }
+        if (++redirectCount > MAX_REDIRECTS) {
+          throw new ProtocolException("Too many redirects: " + redirectCount);
+        }
+        url = new URL(url, location);
+        String protocol = url.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol)) {
+          throw new ProtocolException("Unsupported protocol redirect: " + protocol);
+        }
+        if (responseCode != 307 && responseCode != 308) {
+          // Like HttpURLConnection, the other redirects turn a POST into a GET.
+          postBody = null;
+        }
+        releaseConnection();
+      }
+      uri = url.toString();
+    } catch (IOException e) {
+      closeConnectionQuietly();
+      throw new HttpDataSourceException("Unable to connect to " + url, e, dataSpec);
+    }
+
+    if (responseCode < 200 || responseCode > 299) {
+      Map<String, List<String>> headers = responseHeaders;
+      closeConnectionQuietly();
+      throw new InvalidResponseCodeException(responseCode, headers, dataSpec);
+    }
+
+    // Servers that ignore the range send everything from the start.
+    long bytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+    if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+      bytesToRead = dataSpec.length;
+    } else if (!chunked && bodyBytesRemaining != -1) {
+      bytesToRead = bodyBytesRemaining - bytesToSkip;
+    } else {
+      bytesToRead = C.LENGTH_UNBOUNDED;
+    }
+    try {
+      skip(bytesToSkip);
+    } catch (IOException e) {
+      closeConnectionQuietly();
+      throw new HttpDataSourceException(e, dataSpec);
+    }
+
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart();
+    }
+    return bytesToRead;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+    if (proxiedDataSource != null) {
+      return proxiedDataSource.read(buffer, offset, readLength);
+    }
+    try {
+      if (bytesToRead != C.LENGTH_UNBOUNDED) {
+        long bytesRemaining = bytesToRead - bytesRead;
+        if (bytesRemaining == 0) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        readLength = (int) Math.min(readLength, bytesRemaining);
+      }
+      int read = readBody(buffer, offset, readLength);
+      if (read == -1) {
+        if (bytesToRead != C.LENGTH_UNBOUNDED) {
+          // The server said there was more.
+          throw new EOFException();
+        }
+        return C.RESULT_END_OF_INPUT;
+      }
+      bytesRead += read;
+      if (listener != null) {
+        listener.onBytesTransferred(read);
+      }
+      return read;
+    } catch (IOException e) {
+      throw new HttpDataSourceException(e, dataSpec);
+    }
+  }
+
+  @Override
+  public void close() throws HttpDataSourceException {
+    if (proxiedDataSource != null) {
+      try {
+        proxiedDataSource.close();
+      } finally {
+        proxiedDataSource = null;
+      }
+      return;
+    }
+    try {
+      if (connection != null) {
+        releaseConnection();
+      }
+    } finally {
+      if (opened) {
+        opened = false;
+        if (listener != null) {
+          listener.onTransferEnd();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends a request and reads the response head, retrying once on a fresh connection if a pooled
+   * one turns out to have been closed by the server.
+   *
+   * @return The response code.
+   */
+  private int execute(URL url, byte[] postBody) throws IOException {
+    String scheme = url.getProtocol();
+    String host = url.getHost();
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    while (true) {
+      connection = pool.get(scheme, host, port, connectTimeoutMillis, readTimeoutMillis);
+      boolean reused = connection.reused;
+      try {
+        writeRequest(url, postBody);
+        int responseCode = readResponseHead();
+        notifyConnectionOpened(host, reused, connection.setupTimeMs);
+        return responseCode;
+      } catch (IOException e) {
+        closeConnectionQuietly();
+        // A POST may have been processed already, so it's not sent twice.
+        if (!reused || postBody != null) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private void writeRequest(URL url, byte[] postBody) throws IOException {
+    String target = url.getFile();
+    StringBuilder request = new StringBuilder(postBody != null ? "POST " : "GET ")
+        .append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+    appendHeader(request, "Host", url.getPort() == -1 ? url.getHost()
+        : url.getHost() + ":" + url.getPort());
+    appendHeader(request, "User-Agent", userAgent);
+    // Ranges refer to the stored bytes, and compressed audio doesn't gain from gzip anyway.
+    appendHeader(request, "Accept-Encoding", "identity");
+    if (dataSpec.position != 0 || dataSpec.length != C.LENGTH_UNBOUNDED) {
+      String range = "bytes=" + dataSpec.position + "-";
+      if (dataSpec.length != C.LENGTH_UNBOUNDED) {
+        range += (dataSpec.position + dataSpec.length - 1);
+      }
+      appendHeader(request, "Range", range);
+    }
+    synchronized (requestProperties) {
+      for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+        appendHeader(request, property.getKey(), property.getValue());
+      }
+    }
+    if (postBody != null) {
+      appendHeader(request, "Content-Length", Integer.toString(postBody.length));
+    }
+    request.append("\r\n");
+    connection.out.write(request.toString().getBytes(ASCII));
+    if (postBody != null) {
+      connection.out.write(postBody);
+    }
+    connection.out.flush();
+  }
+
+  private static void appendHeader(StringBuilder request, String name, String value) {
+    request.append(name).append(": ").append(value).append("\r\n");
+  }
+
+  /**
+   * Reads the status line and headers, and works out how the body is delimited.
+   *
+   * @return The response code.
+   */
+  private int readResponseHead() throws IOException {
+    String statusLine;
+    int responseCode;
+    do {
+      statusLine = readLine();
+      if (!statusLine.startsWith("HTTP/1.") && !statusLine.startsWith("ICY ")) {
+        throw new ProtocolException("Unexpected status line: " + statusLine);
+      }
+      int codeStart = statusLine.indexOf(' ') + 1;
+      try {
+        responseCode = Integer.parseInt(statusLine.substring(codeStart, codeStart + 3));
+      } catch (NumberFormatException | IndexOutOfBoundsException e) {
+        throw new ProtocolException("Unexpected status line: " + statusLine);
+      }
+      responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      String line;
+      while (!(line = readLine()).isEmpty()) {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+          continue;
+        }
+        String name = line.substring(0, colon).trim();
+        List<String> values = responseHeaders.get(name);
+        if (values == null) {
+          values = new ArrayList<>(1);
+          responseHeaders.put(name, values);
+        }
+        values.add(line.substring(colon + 1).trim());
+      }
+      // Interim responses are followed by the real one.
+    } while (responseCode == 100);
+
+    keepAlive = statusLine.startsWith("HTTP/1.1 ")
+        && !"close".equalsIgnoreCase(getHeader("Connection"));
+    chunked = "chunked".equalsIgnoreCase(getHeader("Transfer-Encoding"));
+    chunkStarted = false;
+    chunkBytesRemaining = 0;
+    bodyBytesRemaining = -1;
+    if (responseCode == 204 || responseCode == 304) {
+      bodyBytesRemaining = 0;
+    } else if (!chunked) {
+      String contentLength = getHeader("Content-Length");
+      if (contentLength != null) {
+        try {
+          bodyBytesRemaining = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+          throw new ProtocolException("Unexpected Content-Length: " + contentLength);
+        }
+      }
+    }
+    if (!chunked && bodyBytesRemaining == -1) {
+      // The body ends when the server closes the connection.
+      keepAlive = false;
+    }
+    endOfBody = !chunked && bodyBytesRemaining == 0;
+    return responseCode;
+  }
+
+  /**
+   * Reads from the response body, without reading past its end.
+   *
+   * @return The number of bytes read, or -1 at the end of the body.
+   */
+  private int readBody(byte[] buffer, int offset, int readLength) throws IOException {
+    if (endOfBody) {
+      return -1;
+    }
+    if (chunked) {
+      if (chunkBytesRemaining == 0) {
+        if (chunkStarted) {
+          // The line break after the previous chunk.
+          readLine();
+        }
+        chunkStarted = true;
+        String sizeLine = readLine();
+        int extensionStart = sizeLine.indexOf(';');
+        try {
+          chunkBytesRemaining = Long.parseLong(
+              (extensionStart == -1 ? sizeLine : sizeLine.substring(0, extensionStart)).trim(), 16);
+        } catch (NumberFormatException e) {
+          throw new ProtocolException("Unexpected chunk size: " + sizeLine);
+        }
+        if (chunkBytesRemaining == 0) {
+          // Skip the trailers.
+          while (!readLine().isEmpty()) {}
+          endOfBody = true;
+          return -1;
+        }
+      }
+      readLength = (int) Math.min(readLength, chunkBytesRemaining);
+    } else if (bodyBytesRemaining != -1) {
+      readLength = (int) Math.min(readLength, bodyBytesRemaining);
+    }
+    int read = connection.in.read(buffer, offset, readLength);
+    if (read == -1) {
+      if (chunked || bodyBytesRemaining != -1) {
+        keepAlive = false;
+        throw new EOFException("Connection closed before the end of the body");
+      }
+      endOfBody = true;
+      return -1;
+    }
+    if (chunked) {
+      chunkBytesRemaining -= read;
+    } else if (bodyBytesRemaining != -1) {
+      bodyBytesRemaining -= read;
+      endOfBody = bodyBytesRemaining == 0;
+    }
+    return read;
+  }
+
+  private void skip(long bytesToSkip) throws IOException {
+    if (bytesToSkip == 0) {
+      return;
+    }
+    if (skipBuffer == null) {
+      skipBuffer = new byte[SKIP_BUFFER_SIZE];
+    }
+    while (bytesToSkip > 0) {
+      int read = readBody(skipBuffer, 0, (int) Math.min(bytesToSkip, skipBuffer.length));
+      if (read == -1) {
+        throw new EOFException();
+      }
+      bytesToSkip -= read;
+    }
+  }
+
+  private String readLine() throws IOException {
+    lineBuilder.setLength(0);
+    int b;
+    while ((b = connection.in.read()) != '\n') {
+      if (b == -1) {
+        throw new EOFException("Connection closed");
+      }
+      if (lineBuilder.length() == MAX_LINE_LENGTH) {
+        throw new ProtocolException("Line too long");
+      }
+      lineBuilder.append((char) b);
+    }
+    int length = lineBuilder.length();
+    if (length > 0 && lineBuilder.charAt(length - 1) == '\r') {
+      lineBuilder.setLength(length - 1);
+    }
+    return lineBuilder.toString();
+  }
+
+  private String getHeader(String name) {
+    List<String> values = responseHeaders.get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  private static boolean isProxied(URL url) {
+    ProxySelector proxySelector = ProxySelector.getDefault();
+    if (proxySelector == null) {
+      return false;
+    }
+    try {
+      // Like HttpURLConnection, go with the first choice.
+      List<Proxy> proxies = proxySelector.select(url.toURI());
+      return !proxies.isEmpty() && proxies.get(0).type() != Proxy.Type.DIRECT;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static boolean isRedirect(int responseCode) {
+    return responseCode == 301 || responseCode == 302 || responseCode == 303
+        || responseCode == 307 || responseCode == 308;
+  }
+
+  /**
+   * Gives the connection back to the pool if the response was read completely, reading a short
+   * remainder first, or closes it.
+   */
+  private void releaseConnection() {
+    if (keepAlive && !endOfBody && !chunked && bodyBytesRemaining <= MAX_DRAIN_BYTES) {
+      try {
+        skip(bodyBytesRemaining);
+      } catch (IOException e) {
+        keepAlive = false;
+      }
+    }
+    if (keepAlive && endOfBody) {
+      pool.recycle(connection);
+      connection = null;
+    } else {
+      closeConnectionQuietly();
+    }
+  }
+
+  private void closeConnectionQuietly() {
+    if (connection != null) {
+      connection.close();
+      connection = null;
+    }
+  }
+
+  private void notifyConnectionOpened(final String host, final boolean reused,
+      final long setupTimeMs) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onConnectionOpened(host, reused, setupTimeMs);
+        }
+      });
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.util.Log;
+
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A {@link DataSource} whose first connection can be opened ahead of time, so that resolving the
+ * host and connecting overlap with the rest of preparation.
+ * <p>
+ * {@link #prewarm(DataSpec)} opens the upstream source on the calling thread. If the consumer's
+ * first open asks for the same uri and range, it waits for the prewarm to finish and takes over
+ * its connection. Any other open, or one after the prewarm failed, opens upstream as usual, so a
+ * failed prewarm is reported by the consumer's own attempt. {@link #release()} closes a connection
+ * nobody took over.
+ */
+public final class PrewarmingDataSource implements DataSource {
+
+  private static final String TAG = "PrewarmingDataSource";
+
+  private final DataSource upstream;
+
+  // Guarded by this.
+  private DataSpec prewarmDataSpec;
+  private boolean prewarming;
+  private boolean prewarmed;
+  private long prewarmedLength;
+  private boolean released;
+
+  /**
+   * @param upstream The source to open ahead of time.
+   */
+  public PrewarmingDataSource(DataSource upstream) {
+    this.upstream = upstream;
+  }
+
+  /**
+   * Opens the upstream source, blocking until connected. Does nothing if called before, or after
+   * {@link #release()}.
+   */
+  public void prewarm(DataSpec dataSpec) {
+    synchronized (this) {
+      if (released || prewarmDataSpec != null) {
+        return;
+      }
+      prewarmDataSpec = dataSpec;
+      prewarming = true;
+    }
+    long length = 0;
+    boolean opened = false;
+    try {
+      length = upstream.open(dataSpec);
+      opened = true;
+    } catch (IOException e) {
+      Log.w(TAG, "Prewarm failed", e);
+    }
+    synchronized (this) {
+      prewarming = false;
+      prewarmed = opened && !released;
+      prewarmedLength = length;
+      if (!prewarmed) {
+        // Under the lock, so that it can't close a connection the consumer opens meanwhile.
+        closeQuietly();
+      }
+      notifyAll();
+    }
+  }
+
+  /**
+   * Closes the prewarmed connection unless it was taken over, and stops later prewarms.
+   */
+  public synchronized void release() {
+    released = true;
+    if (prewarmed) {
+      prewarmed = false;
+      closeQuietly();
+    }
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    boolean stale = false;
+    synchronized (this) {
+      while (prewarming) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (prewarmed) {
+        prewarmed = false;
+        if (matches(dataSpec)) {
+          return prewarmedLength;
+        }
+        stale = true;
+      }
+    }
+    if (stale) {
+      closeQuietly();
+    }
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    return upstream.read(buffer, offset, readLength);
+  }
+
+  @Override
+  public void close() throws IOException {
+    upstream.close();
+  }
+
+  private boolean matches(DataSpec dataSpec) {
+    return dataSpec.uri.equals(prewarmDataSpec.uri)
+        && dataSpec.position == prewarmDataSpec.position
+        && dataSpec.length == prewarmDataSpec.length;
+  }
+
+  private void closeQuietly() {
+    try {
+      upstream.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close", e);
+    }
+  }
+
+}
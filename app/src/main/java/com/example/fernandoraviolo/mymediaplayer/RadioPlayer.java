@@ -29,6 +29,7 @@ import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.dash.DashChunkSource;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.hls.HlsSampleSource;
 import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.util.DebugTextViewHelper;
@@ -36,20 +37,24 @@ import com.google.android.exoplayer.util.PlayerControl;
 
 import android.media.MediaCodec.CryptoException;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.view.Surface;
 
 import java.io.IOException;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * A wrapper around {@link ExoPlayer} that provides a higher level interface.
  */
 public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventListener, DefaultBandwidthMeter.EventListener, MediaCodecAudioTrackRenderer.EventListener,
-        StreamingDrmSessionManager.EventListener, DashChunkSource.EventListener, DebugTextViewHelper.Provider {
+        StreamingDrmSessionManager.EventListener, DashChunkSource.EventListener, DebugTextViewHelper.Provider,
+        IcyDataSource.EventListener, ReconnectingDataSource.EventListener, HlsSampleSource.EventListener,
+        HlsPrefetchDataSource.EventListener, BurstLoadPolicy.EventListener,
+        PooledHttpDataSource.EventListener {
 
     public void stop() {
-
+        finishCrossfade();
         player.stop();
     }
 
@@ -111,6 +116,18 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                   long initializationDurationMs);
         void onAvailableRangeChanged(TimeRange availableRange);
+        void onReconnected(int attemptCount, long gapMs);
+        void onStartupCompleted(StartupTimeline timeline);
+        void onSegmentFetched(long fetchDurationMs, long segmentDurationMs);
+        void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs);
+        void onConnectionOpened(String host, boolean reused, long setupTimeMs);
+    }
+
+    /**
+     * A listener for metadata carried in the stream.
+     */
+    public interface MetadataListener {
+        void onStreamTitleChanged(String title);
     }
 
     // Constants pulled into this class for convenience.
@@ -125,15 +142,30 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     public static final int RENDERER_COUNT = 1;
     public static final int TYPE_AUDIO = 0;
 
+    /**
+     * Latency errors smaller than this are left alone, to avoid constantly changing speed.
+     */
+    private static final long LATENCY_TOLERANCE_MS = 250;
+    /**
+     * Speed change per millisecond of latency error.
+     */
+    private static final float LATENCY_CORRECTION_GAIN = 0.00005f;
+    private static final float MAX_SPEED_CORRECTION = 0.05f;
+    private static final long LATENCY_CONTROL_INTERVAL_MS = 1000;
+    private static final long CROSSFADE_CHECK_INTERVAL_MS = 100;
+
     private static final int RENDERER_BUILDING_STATE_IDLE = 1;
     private static final int RENDERER_BUILDING_STATE_BUILDING = 2;
     private static final int RENDERER_BUILDING_STATE_BUILT = 3;
 
-    private final RendererBuilder rendererBuilder;
-    private final ExoPlayer player;
-    private final PlayerControl playerControl;
-    private final Handler mainHandler;
-    private final CopyOnWriteArrayList<Listener> listeners;
+    private RendererBuilder rendererBuilder;
+    private ExoPlayer player;
+    private PlayerControl playerControl;
+    private final CallbackTimingHandler mainHandler;
+    // Null if callbacks run on the main thread.
+    private final HandlerThread eventThread;
+    private final Handler eventHandler;
+    private final PlayerEventDispatcher eventDispatcher;
 
     private int rendererBuildingState;
     private int lastReportedPlaybackState;
@@ -145,38 +177,247 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     private BandwidthMeter bandwidthMeter;
     private boolean backgrounded;
 
+    private TrackRenderer audioRenderer;
+    private final Runnable latencyControlRunnable;
+    private long targetLatencyMs;
+    private float speed;
+
+    private volatile StartupTimeline startupTimeline;
+    private boolean startupCompleted;
+
+    private long crossfadeDurationMs;
+    private final Runnable crossfadeCheckRunnable;
+    // The player of the previous stream while it fades out.
+    private ExoPlayer outgoingPlayer;
+    private TrackRenderer outgoingAudioRenderer;
+    private Crossfader crossfader;
+    private boolean crossfadeStarted;
+
+    private AudioProcessorChain.Factory audioProcessorChainFactory;
+
+    // Written on the event thread.
+    private volatile int reconnectCount;
+    private volatile long lastReconnectGapMs;
+    private volatile long totalReconnectGapMs;
+
     private InternalErrorListener internalErrorListener;
     private InfoListener infoListener;
+    private MetadataListener metadataListener;
 
     public RadioPlayer(RendererBuilder rendererBuilder) {
+        this(rendererBuilder, true);
+    }
+
+    /**
+     * Must be called on the main thread.
+     *
+     * @param rendererBuilder Builds the renderers on {@link #prepare()}.
+     * @param useEventThread Whether events of the sample sources, data sources, bandwidth meter and
+     *     renderers are handled on a dedicated thread instead of the main thread. Only
+     *     {@link Listener} and {@link MetadataListener} events are then delivered on the main
+     *     thread, while {@link InfoListener}s and {@link InternalErrorListener}s without an
+     *     executor are called on the event thread. Disabling it is only useful to measure the
+     *     difference with {@link #getMainThreadCallbackTimeUs()}.
+     */
+    public RadioPlayer(RendererBuilder rendererBuilder, boolean useEventThread) {
         this.rendererBuilder = rendererBuilder;
-        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 500, 5000);
-        player.addListener(this);
-        playerControl = new PlayerControl(player);
-        mainHandler = new Handler();
-        listeners = new CopyOnWriteArrayList<>();
+        createPlayer();
+        mainHandler = new CallbackTimingHandler(Looper.getMainLooper());
+        if (useEventThread) {
+            eventThread = new HandlerThread("RadioPlayer:Events");
+            eventThread.start();
+            eventHandler = new Handler(eventThread.getLooper());
+        } else {
+            eventThread = null;
+            eventHandler = mainHandler;
+        }
+        eventDispatcher = new PlayerEventDispatcher(eventHandler);
         lastReportedPlaybackState = STATE_IDLE;
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+        latencyControlRunnable = new Runnable() {
+            @Override
+            public void run() {
+                updateSpeedForTargetLatency();
+                mainHandler.postDelayed(this, LATENCY_CONTROL_INTERVAL_MS);
+            }
+        };
+        crossfadeCheckRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (crossfader != null && crossfader.isDone()) {
+                    finishCrossfade();
+                } else {
+                    mainHandler.postDelayed(this, CROSSFADE_CHECK_INTERVAL_MS);
+                }
+            }
+        };
+        speed = 1f;
+    }
+
+    /**
+     * Sets the {@link RendererBuilder} used by the next call to {@link #prepare()}, for example to
+     * switch to another station. Cancels any build in progress.
+     */
+    public void setRendererBuilder(RendererBuilder rendererBuilder) {
+        this.rendererBuilder.cancel();
+        this.rendererBuilder = rendererBuilder;
     }
 
     public PlayerControl getPlayerControl() {
         return playerControl;
     }
 
+    /**
+     * Enables low latency live mode, in which playback is sped up or slowed down slightly to keep the
+     * latency behind the live edge close to {@code targetLatencyMs}. Requires the audio renderer to
+     * be a {@link TimeStretchAudioRenderer}.
+     *
+     * @param targetLatencyMs The latency to aim for, or 0 to disable the mode.
+     */
+    public void setTargetLatencyMs(long targetLatencyMs) {
+        this.targetLatencyMs = targetLatencyMs;
+        mainHandler.removeCallbacks(latencyControlRunnable);
+        if (targetLatencyMs > 0) {
+            mainHandler.post(latencyControlRunnable);
+        } else {
+            setSpeed(1f);
+        }
+    }
+
+    /**
+     * Enables crossfading when {@link #prepare()} switches streams while playing. The new stream is
+     * prepared on a second player while the old one keeps playing, and once it's ready the old one
+     * fades out under it. Both streams are decoded at the same time during the fade, so it should
+     * only be enabled where {@link Crossfader#isSupported(android.content.Context)}. Streams whose
+     * audio formats differ are cut instead. Requires the audio renderers to be
+     * {@link TimeStretchAudioRenderer}s.
+     *
+     * @param crossfadeDurationMs The duration of the fade, or 0 to always cut.
+     */
+    public void setCrossfadeDurationMs(long crossfadeDurationMs) {
+        this.crossfadeDurationMs = crossfadeDurationMs;
+    }
+
+    /**
+     * Sets the factory of the {@link AudioProcessorChain} decoded audio passes through, such as
+     * equalization or loudness normalization. Each prepared stream gets a chain of its own, so
+     * that a fading out stream keeps its processing. Takes effect from the next {@link #prepare()}
+     * and requires the audio renderers to be {@link TimeStretchAudioRenderer}s.
+     *
+     * @param audioProcessorChainFactory The factory, or null to play audio unprocessed.
+     */
+    public void setAudioProcessorChainFactory(
+            AudioProcessorChain.Factory audioProcessorChainFactory) {
+        this.audioProcessorChainFactory = audioProcessorChainFactory;
+    }
+
+    /**
+     * Returns how far playback is behind the newest buffered media, in milliseconds, or
+     * {@link ExoPlayer#UNKNOWN_TIME} if unknown. For live streams this is the latency behind the
+     * live edge, not counting delays upstream of the player.
+     */
+    public long getLiveLatencyMs() {
+        long bufferedPositionMs = player.getBufferedPosition();
+        if (bufferedPositionMs == ExoPlayer.UNKNOWN_TIME) {
+            return ExoPlayer.UNKNOWN_TIME;
+        }
+        long latencyMs = bufferedPositionMs - player.getCurrentPosition();
+        if (audioRenderer instanceof TimeStretchAudioRenderer) {
+            // The reported position lags the decoded position by the time stretching drift.
+            latencyMs -= ((TimeStretchAudioRenderer) audioRenderer).getDriftUs() / 1000;
+        }
+        return Math.max(0, latencyMs);
+    }
+
+    /**
+     * Returns the current playback speed, where 1 is normal speed.
+     */
+    public float getSpeed() {
+        return speed;
+    }
+
     public void addListener(Listener listener) {
-        listeners.add(listener);
+        eventDispatcher.addListener(listener, null);
+    }
+
+    /**
+     * Adds a listener that is called on {@code executor} instead of the main thread.
+     */
+    public void addListener(Listener listener, Executor executor) {
+        eventDispatcher.addListener(listener, executor);
     }
 
     public void removeListener(Listener listener) {
-        listeners.remove(listener);
+        eventDispatcher.removeListener(listener);
     }
 
+    /**
+     * Replaces the internal error listener previously set with this method. Use
+     * {@link #addInternalErrorListener(InternalErrorListener, Executor)} for more listeners.
+     */
     public void setInternalErrorListener(InternalErrorListener listener) {
+        if (internalErrorListener != null) {
+            eventDispatcher.removeInternalErrorListener(internalErrorListener);
+        }
         internalErrorListener = listener;
+        if (listener != null) {
+            eventDispatcher.addInternalErrorListener(listener, null);
+        }
     }
 
+    /**
+     * @see PlayerEventDispatcher#addInternalErrorListener(InternalErrorListener, Executor)
+     */
+    public void addInternalErrorListener(InternalErrorListener listener, Executor executor) {
+        eventDispatcher.addInternalErrorListener(listener, executor);
+    }
+
+    public void removeInternalErrorListener(InternalErrorListener listener) {
+        eventDispatcher.removeInternalErrorListener(listener);
+    }
+
+    /**
+     * Replaces the info listener previously set with this method. Use
+     * {@link #addInfoListener(InfoListener, Executor, long)} for more listeners.
+     */
     public void setInfoListener(InfoListener listener) {
+        if (infoListener != null) {
+            eventDispatcher.removeInfoListener(infoListener);
+        }
         infoListener = listener;
+        if (listener != null) {
+            eventDispatcher.addInfoListener(listener, null, 0);
+        }
+    }
+
+    /**
+     * @see PlayerEventDispatcher#addInfoListener(InfoListener, Executor, long)
+     */
+    public void addInfoListener(InfoListener listener, Executor executor, long minIntervalMs) {
+        eventDispatcher.addInfoListener(listener, executor, minIntervalMs);
+    }
+
+    public void removeInfoListener(InfoListener listener) {
+        eventDispatcher.removeInfoListener(listener);
+    }
+
+    /**
+     * Returns the number of player callbacks that ran on the main thread, including the ones
+     * delivered to listeners.
+     */
+    public long getMainThreadCallbackCount() {
+        return mainHandler.getCallbackCount();
+    }
+
+    /**
+     * Returns the total time player callbacks took on the main thread, in microseconds.
+     */
+    public long getMainThreadCallbackTimeUs() {
+        return mainHandler.getTotalTimeUs();
+    }
+
+    public void setMetadataListener(MetadataListener listener) {
+        metadataListener = listener;
     }
 
 
@@ -213,10 +454,12 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     }
 
     public void prepare() {
-        if (rendererBuildingState == RENDERER_BUILDING_STATE_BUILT) {
+        if (rendererBuildingState == RENDERER_BUILDING_STATE_BUILT && !maybeStartCrossfade()) {
             player.stop();
         }
         rendererBuilder.cancel();
+        startupTimeline = new StartupTimeline();
+        startupCompleted = false;
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
         maybeReportPlayerState();
         rendererBuilder.buildRenderers(this);
@@ -238,7 +481,24 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         }
         // Complete preparation.
         this.bandwidthMeter = bandwidthMeter;
+        audioRenderer = renderers[TYPE_AUDIO];
+        speed = 1f;
+        startupTimeline.markPhase(StartupTimeline.PHASE_RENDERERS_BUILT);
         player.prepare(renderers);
+        if (audioProcessorChainFactory != null
+                && audioRenderer instanceof TimeStretchAudioRenderer) {
+            player.sendMessage(audioRenderer,
+                    TimeStretchAudioRenderer.MSG_SET_AUDIO_PROCESSOR_CHAIN,
+                    audioProcessorChainFactory.createAudioProcessorChain());
+        }
+        if (crossfader != null) {
+            if (audioRenderer instanceof TimeStretchAudioRenderer) {
+                player.sendMessage(audioRenderer, TimeStretchAudioRenderer.MSG_CROSSFADE_IN,
+                        crossfader);
+            } else {
+                finishCrossfade();
+            }
+        }
 
         rendererBuildingState = RENDERER_BUILDING_STATE_BUILT;
     }
@@ -249,17 +509,17 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
      * @param e Describes the error.
      */
   /* package */ void onRenderersError(Exception e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onRendererInitializationError(e);
-        }
-        for (Listener listener : listeners) {
-            listener.onError(e);
-        }
+        finishCrossfade();
+        eventDispatcher.onRendererInitializationError(e);
+        eventDispatcher.onError(e);
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         maybeReportPlayerState();
     }
 
     public void setPlayWhenReady(boolean playWhenReady) {
+        if (!playWhenReady) {
+            finishCrossfade();
+        }
         player.setPlayWhenReady(playWhenReady);
     }
 
@@ -268,10 +528,17 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     }
 
     public void release() {
+        mainHandler.removeCallbacks(latencyControlRunnable);
+        finishCrossfade();
+        eventDispatcher.release();
         rendererBuilder.cancel();
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         surface = null;
         player.release();
+        if (eventThread != null) {
+            // Events still posted by released components are dropped.
+            eventThread.quit();
+        }
     }
 
     public int getPlaybackState() {
@@ -315,6 +582,35 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         return player.getBufferedPercentage();
     }
 
+    /**
+     * Returns the number of times a dropped connection was reestablished while playing.
+     */
+    public int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * Returns how long reading stalled during the last reconnect, in milliseconds.
+     */
+    public long getLastReconnectGapMs() {
+        return lastReconnectGapMs;
+    }
+
+    /**
+     * Returns how long reading stalled during all reconnects, in milliseconds.
+     */
+    public long getTotalReconnectGapMs() {
+        return totalReconnectGapMs;
+    }
+
+    /**
+     * Returns the startup timeline of the last call to {@link #prepare()}, or null if it wasn't
+     * called yet. {@link RendererBuilder}s can mark network phases on it.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return startupTimeline;
+    }
+
     public boolean getPlayWhenReady() {
         return player.getPlayWhenReady();
     }
@@ -327,34 +623,47 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         return mainHandler;
     }
 
+    /**
+     * Returns the handler that components built for this player should deliver their events to.
+     */
+    /* package */ Handler getEventHandler() {
+        return eventHandler;
+    }
+
     @Override
     public void onPlayerStateChanged(boolean playWhenReady, int state) {
+        long startTimeNs = System.nanoTime();
+        if (crossfader != null && !crossfadeStarted && state == STATE_READY) {
+            // The new stream can play, so the old one starts fading out under it.
+            crossfadeStarted = true;
+            outgoingPlayer.sendMessage(outgoingAudioRenderer,
+                    TimeStretchAudioRenderer.MSG_CROSSFADE_OUT, crossfader);
+            mainHandler.postDelayed(crossfadeCheckRunnable, crossfadeDurationMs);
+        }
         maybeReportPlayerState();
+        // The player delivers these through its own handler.
+        mainHandler.addCallbackTime(System.nanoTime() - startTimeNs);
     }
 
     @Override
     public void onPlayerError(ExoPlaybackException exception) {
+        long startTimeNs = System.nanoTime();
+        finishCrossfade();
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
-        for (Listener listener : listeners) {
-            listener.onError(exception);
-        }
+        eventDispatcher.onError(exception);
+        mainHandler.addCallbackTime(System.nanoTime() - startTimeNs);
     }
 
     @Override
     public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-        if (infoListener != null) {
-            infoListener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
-        }
+        eventDispatcher.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
     }
 
     @Override
     public void onDownstreamFormatChanged(int sourceId, Format format, int trigger,
                                           long mediaTimeMs) {
-        if (infoListener == null) {
-            return;
-        }
         if (sourceId == TYPE_AUDIO) {
-            infoListener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+            eventDispatcher.onAudioFormatEnabled(format, trigger, mediaTimeMs);
         }
     }
 
@@ -365,68 +674,95 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
     @Override
     public void onDrmSessionManagerError(Exception e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onDrmSessionManagerError(e);
-        }
+        eventDispatcher.onDrmSessionManagerError(e);
     }
 
     @Override
     public void onDecoderInitializationError(DecoderInitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onDecoderInitializationError(e);
-        }
+        eventDispatcher.onDecoderInitializationError(e);
     }
 
     @Override
     public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackInitializationError(e);
-        }
+        eventDispatcher.onAudioTrackInitializationError(e);
     }
 
     @Override
     public void onAudioTrackWriteError(AudioTrack.WriteException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackWriteError(e);
-        }
+        eventDispatcher.onAudioTrackWriteError(e);
     }
 
     @Override
     public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
-        }
+        eventDispatcher.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
     }
 
     @Override
     public void onCryptoError(CryptoException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onCryptoError(e);
-        }
+        eventDispatcher.onCryptoError(e);
     }
 
     @Override
     public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
                                      long initializationDurationMs) {
-        if (infoListener != null) {
-            infoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
-        }
+        startupTimeline.markPhase(StartupTimeline.PHASE_DECODER_INITIALIZED);
+        eventDispatcher.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
     }
 
     @Override
     public void onLoadError(int sourceId, IOException e) {
-        if (internalErrorListener != null) {
-            internalErrorListener.onLoadError(sourceId, e);
-        }
+        eventDispatcher.onLoadError(sourceId, e);
     }
 
     @Override
     public void onAvailableRangeChanged(TimeRange availableRange) {
-        if (infoListener != null) {
-            infoListener.onAvailableRangeChanged(availableRange);
+        eventDispatcher.onAvailableRangeChanged(availableRange);
+    }
+
+    @Override
+    public void onStreamTitleChanged(final String title) {
+        if (eventThread == null) {
+            notifyStreamTitleChanged(title);
+            return;
+        }
+        // Titles are shown in the UI.
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                notifyStreamTitleChanged(title);
+            }
+        });
+    }
+
+    private void notifyStreamTitleChanged(String title) {
+        if (metadataListener != null) {
+            metadataListener.onStreamTitleChanged(title);
         }
     }
 
+    @Override
+    public void onReconnected(int attemptCount, long gapMs) {
+        reconnectCount++;
+        lastReconnectGapMs = gapMs;
+        totalReconnectGapMs += gapMs;
+        eventDispatcher.onReconnected(attemptCount, gapMs);
+    }
+
+    @Override
+    public void onSegmentFetched(long fetchDurationMs, long segmentDurationMs) {
+        eventDispatcher.onSegmentFetched(fetchDurationMs, segmentDurationMs);
+    }
+
+    @Override
+    public void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs) {
+        eventDispatcher.onLoadBurst(burstDurationMs, burstBytes, idleDurationMs);
+    }
+
+    @Override
+    public void onConnectionOpened(String host, boolean reused, long setupTimeMs) {
+        eventDispatcher.onConnectionOpened(host, reused, setupTimeMs);
+    }
+
     @Override
     public void onPlayWhenReadyCommitted() {
         // Do nothing.
@@ -435,19 +771,15 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     @Override
     public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
                               long mediaStartTimeMs, long mediaEndTimeMs) {
-        if (infoListener != null) {
-            infoListener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
-                    mediaEndTimeMs);
-        }
+        eventDispatcher.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
+                mediaEndTimeMs);
     }
 
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
                                 long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
-        if (infoListener != null) {
-            infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
-                    mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
-        }
+        eventDispatcher.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
+                mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
     }
 
     @Override
@@ -460,15 +792,100 @@ public class RadioPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
         // Do nothing.
     }
 
+    private void createPlayer() {
+        player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 500, 5000);
+        player.addListener(this);
+        playerControl = new PlayerControl(player);
+    }
+
+    /**
+     * Moves the playing stream to {@link #outgoingPlayer} and creates a new player for the next
+     * stream, if a crossfade is enabled and something is playing.
+     *
+     * @return Whether the crossfade was started.
+     */
+    private boolean maybeStartCrossfade() {
+        finishCrossfade();
+        if (crossfadeDurationMs <= 0 || !(audioRenderer instanceof TimeStretchAudioRenderer)
+                || player.getPlaybackState() != STATE_READY || !player.getPlayWhenReady()) {
+            return false;
+        }
+        outgoingPlayer = player;
+        outgoingAudioRenderer = audioRenderer;
+        outgoingPlayer.removeListener(this);
+        crossfader = new Crossfader(crossfadeDurationMs);
+        createPlayer();
+        player.setPlayWhenReady(true);
+        return true;
+    }
+
+    /**
+     * Releases the outgoing player, cutting it off if it's still fading out.
+     */
+    private void finishCrossfade() {
+        mainHandler.removeCallbacks(crossfadeCheckRunnable);
+        if (outgoingPlayer != null) {
+            outgoingPlayer.release();
+            outgoingPlayer = null;
+            outgoingAudioRenderer = null;
+        }
+        if (crossfader != null) {
+            // Unmutes the new stream if the fade didn't start.
+            crossfader.abort();
+            crossfader = null;
+        }
+        crossfadeStarted = false;
+    }
+
+    private void updateSpeedForTargetLatency() {
+        if (getPlaybackState() != STATE_READY || !player.getPlayWhenReady()) {
+            return;
+        }
+        long latencyMs = getLiveLatencyMs();
+        if (latencyMs == ExoPlayer.UNKNOWN_TIME) {
+            return;
+        }
+        long errorMs = latencyMs - targetLatencyMs;
+        float targetSpeed = 1f;
+        if (Math.abs(errorMs) > LATENCY_TOLERANCE_MS) {
+            float correction = errorMs * LATENCY_CORRECTION_GAIN;
+            targetSpeed += Math.max(-MAX_SPEED_CORRECTION,
+                    Math.min(MAX_SPEED_CORRECTION, correction));
+        }
+        setSpeed(targetSpeed);
+    }
+
+    private void setSpeed(float speed) {
+        if (this.speed == speed || !(audioRenderer instanceof TimeStretchAudioRenderer)) {
+            return;
+        }
+        this.speed = speed;
+        player.sendMessage(audioRenderer, TimeStretchAudioRenderer.MSG_SET_SPEED, speed);
+    }
+
     private void maybeReportPlayerState() {
         boolean playWhenReady = player.getPlayWhenReady();
         int playbackState = getPlaybackState();
         if (lastReportedPlayWhenReady != playWhenReady || lastReportedPlaybackState != playbackState) {
-            for (Listener listener : listeners) {
-                listener.onStateChanged(playWhenReady, playbackState);
-            }
+            eventDispatcher.onStateChanged(playWhenReady, playbackState);
             lastReportedPlayWhenReady = playWhenReady;
             lastReportedPlaybackState = playbackState;
+            maybeCompleteStartup(playWhenReady, playbackState);
+        }
+    }
+
+    private void maybeCompleteStartup(boolean playWhenReady, int playbackState) {
+        if (startupTimeline == null || startupCompleted) {
+            return;
+        }
+        if (playbackState == STATE_BUFFERING || playbackState == STATE_READY) {
+            // Leaving STATE_PREPARING means the source found the stream's format.
+            startupTimeline.markPhase(StartupTimeline.PHASE_SOURCE_PREPARED);
+        }
+        if (playbackState == STATE_READY && playWhenReady) {
+            startupTimeline.markPhase(StartupTimeline.PHASE_READY);
+            startupCompleted = true;
+            eventDispatcher.onStartupCompleted(startupTimeline);
         }
     }
 }
@@ -0,0 +1,200 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+/**
+ * A {@link DataSource} that reopens its upstream when a read fails, retrying with jittered
+ * exponential backoff. For live streams the end of the input counts as a failure too, since
+ * Shoutcast and Icecast servers may close the connection cleanly when they drop a listener.
+ * <p>
+ * A stream is only taken to be live if the caller says so or the response carries ICY metadata.
+ * An unknown length alone doesn't make it live: chunked responses and servers that omit
+ * {@code Content-Length} don't report one either, and reopening those at their end would play the
+ * file again from the start.
+ * <p>
+ * The retries happen inside {@link #read(byte[], int, int)} on the loading thread, so whatever is
+ * already buffered keeps playing in the meantime. Live streams are reopened at the live edge and
+ * the new bytes are appended to the old ones, relying on the extractor to resynchronize at the next
+ * frame header. Streams of known length are resumed where they broke off.
+ */
+public final class ReconnectingDataSource implements DataSource {
+
+  /**
+   * Interface definition for a callback to be notified of {@link ReconnectingDataSource} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when reading resumes after a dropped connection.
+     *
+     * @param attemptCount The number of connection attempts it took.
+     * @param gapMs The time between the failed read and the first successful read afterwards.
+     */
+    void onReconnected(int attemptCount, long gapMs);
+
+  }
+
+  private static final String TAG = "ReconnectingDataSource";
+
+  private static final long INITIAL_BACKOFF_MS = 250;
+  private static final long MAX_BACKOFF_MS = 8000;
+  /**
+   * How long to keep trying before the error is passed on.
+   */
+  private static final long GIVE_UP_AFTER_MS = 60000;
+
+  private final DataSource upstream;
+  private final boolean liveStream;
+  private final IcyDataSource icyDataSource;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+  private final Random random;
+
+  private DataSpec dataSpec;
+  private boolean live;
+  private long bytesRead;
+
+  /**
+   * @param upstream The source to read from.
+   * @param liveStream Whether the source is known to be a live stream.
+   * @param icyDataSource The ICY source that {@code upstream} reads through, or null. Responses
+   *     with ICY metadata are taken to be live streams.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public ReconnectingDataSource(DataSource upstream, boolean liveStream,
+      IcyDataSource icyDataSource, Handler eventHandler, EventListener eventListener) {
+    this.upstream = upstream;
+    this.liveStream = liveStream;
+    this.icyDataSource = icyDataSource;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    random = new Random();
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    // Failures to open are left to the caller, as they most likely mean a bad uri.
+    long length = upstream.open(dataSpec);
+    this.dataSpec = dataSpec;
+    live = length == C.LENGTH_UNBOUNDED && dataSpec.length == C.LENGTH_UNBOUNDED
+        && (liveStream || (icyDataSource != null && icyDataSource.hasMetadata()));
+    bytesRead = 0;
+    return length;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    try {
+      int read = upstream.read(buffer, offset, readLength);
+      if (read == C.RESULT_END_OF_INPUT && live) {
+        Log.w(TAG, "Live stream ended, reconnecting");
+        return reconnectAndRead(new EOFException("Live stream ended"), buffer, offset,
+            readLength);
+      }
+      return countBytes(read);
+    } catch (IOException e) {
+      if (e instanceof InterruptedIOException) {
+        throw e;
+      }
+      Log.w(TAG, "Read failed, reconnecting", e);
+      return reconnectAndRead(e, buffer, offset, readLength);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    dataSpec = null;
+    upstream.close();
+  }
+
+  private int reconnectAndRead(IOException error, byte[] buffer, int offset, int readLength)
+      throws IOException {
+    long errorTimeMs = SystemClock.elapsedRealtime();
+    long backoffMs = INITIAL_BACKOFF_MS;
+    int attemptCount = 0;
+    while (true) {
+      closeQuietly();
+      if (SystemClock.elapsedRealtime() - errorTimeMs >= GIVE_UP_AFTER_MS) {
+        throw error;
+      }
+      // Equal jitter: at least half the backoff, the rest random so that clients dropped by the
+      // same outage don't reconnect in lockstep.
+      sleep(backoffMs / 2 + (long) (random.nextDouble() * backoffMs / 2));
+      backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+      attemptCount++;
+      try {
+        upstream.open(getResumeDataSpec());
+        int read = upstream.read(buffer, offset, readLength);
+        if (read == C.RESULT_END_OF_INPUT && live) {
+          throw new EOFException("Live stream ended");
+        }
+        notifyReconnected(attemptCount, SystemClock.elapsedRealtime() - errorTimeMs);
+        return countBytes(read);
+      } catch (InterruptedIOException e) {
+        throw e;
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+  }
+
+  private DataSpec getResumeDataSpec() {
+    if (live) {
+      // There's nothing to resume from, the server only serves the live edge.
+      return dataSpec;
+    }
+    long length = dataSpec.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED
+        : dataSpec.length - bytesRead;
+    return new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition + bytesRead,
+        dataSpec.position + bytesRead, length, dataSpec.key, dataSpec.flags);
+  }
+
+  private int countBytes(int read) {
+    if (read > 0) {
+      bytesRead += read;
+    }
+    return read;
+  }
+
+  private void closeQuietly() {
+    try {
+      upstream.close();
+    } catch (IOException e) {
+      // Ignore, the connection is already broken.
+    }
+  }
+
+  private static void sleep(long durationMs) throws InterruptedIOException {
+    try {
+      Thread.sleep(durationMs);
+    } catch (InterruptedException e) {
+      // The loader interrupts us when the load is canceled.
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void notifyReconnected(final int attemptCount, final long gapMs) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onReconnected(attemptCount, gapMs);
+        }
+      });
+    }
+  }
+
+}
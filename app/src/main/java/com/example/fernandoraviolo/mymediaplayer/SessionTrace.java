@@ -0,0 +1,448 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.media.MediaCodec.CryptoException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records player events into a compact binary trace file, so that the timeline of a session can be
+ * inspected after the fact.
+ * <p>
+ * Callbacks write fixed size records into a lock-free ring without allocating. A background thread
+ * drains the ring once a second and appends the records to the trace file in a single write. When
+ * the file exceeds its maximum size it is moved aside to a file with a {@code .1} suffix, replacing
+ * the previous one, and a new file is started. If the ring fills up faster than it is drained,
+ * records are dropped and the number dropped is recorded instead. Use {@link #read(File)} to turn
+ * a trace back into a list of events.
+ */
+public final class SessionTrace implements RadioPlayer.Listener, RadioPlayer.InfoListener,
+    RadioPlayer.InternalErrorListener, Runnable {
+
+  public static final int TYPE_STATE = 1;
+  public static final int TYPE_ERROR = 2;
+  public static final int TYPE_LOAD_START = 3;
+  public static final int TYPE_LOAD_END = 4;
+  public static final int TYPE_BANDWIDTH = 5;
+  public static final int TYPE_UNDERRUN = 6;
+  public static final int TYPE_DECODER_INIT = 7;
+  public static final int TYPE_RECONNECT = 8;
+  public static final int TYPE_INTERNAL_ERROR = 9;
+  public static final int TYPE_DROPPED = 10;
+  public static final int TYPE_STARTUP_PHASE = 11;
+  public static final int TYPE_SEGMENT_FETCH = 12;
+  public static final int TYPE_LOAD_BURST = 13;
+  public static final int TYPE_CONNECTION = 14;
+
+  public static final int DEFAULT_MAX_FILE_SIZE = 256 * 1024;
+
+  /**
+   * A recorded event. The meaning of the arguments depends on the type.
+   */
+  public static final class Event {
+
+    public final long timeMs;
+    public final int type;
+    public final int arg0;
+    public final long arg1;
+    public final long arg2;
+
+    private Event(long timeMs, int type, int arg0, long arg1, long arg2) {
+      this.timeMs = timeMs;
+      this.type = type;
+      this.arg0 = arg0;
+      this.arg1 = arg1;
+      this.arg2 = arg2;
+    }
+
+    @Override
+    public String toString() {
+      String time = (timeMs / 1000) + "." + String.format(Locale.US, "%03d", timeMs % 1000);
+      switch (type) {
+        case TYPE_STATE:
+          return time + " state [" + (arg1 != 0) + ", " + arg0 + "]";
+        case TYPE_ERROR:
+          return time + " playerFailed";
+        case TYPE_LOAD_START:
+          return time + " loadStart [" + arg0 + ", " + arg1 + "]";
+        case TYPE_LOAD_END:
+          return time + " loadEnd [" + arg0 + ", " + arg1 + ", " + arg2 + "ms]";
+        case TYPE_BANDWIDTH:
+          return time + " bandwidth [" + arg1 + ", " + arg0 + "ms, " + arg2 + "]";
+        case TYPE_UNDERRUN:
+          return time + " audioTrackUnderrun [" + arg0 + ", " + arg1 + "ms, " + arg2 + "ms]";
+        case TYPE_DECODER_INIT:
+          return time + " decoderInitialized [" + arg1 + "ms]";
+        case TYPE_RECONNECT:
+          return time + " reconnected [" + arg0 + ", " + arg1 + "ms]";
+        case TYPE_INTERNAL_ERROR:
+          return time + " internalError [" + arg0 + "]";
+        case TYPE_DROPPED:
+          return time + " dropped [" + arg1 + "]";
+        case TYPE_STARTUP_PHASE:
+          return time + " startupPhase [" + StartupTimeline.getPhaseName(arg0) + ", " + arg1
+              + "ms]";
+        case TYPE_SEGMENT_FETCH:
+          return time + " segmentFetched [" + arg1 + "ms, " + arg2 + "ms]";
+        case TYPE_LOAD_BURST:
+          return time + " loadBurst [" + arg1 + "ms, " + arg2 + ", " + arg0 + "ms]";
+        case TYPE_CONNECTION:
+          return time + " connectionOpened [" + (arg0 != 0 ? "reused" : arg1 + "ms") + "]";
+        default:
+          return time + " unknown [" + type + "]";
+      }
+    }
+
+  }
+
+  private static final String TAG = "SessionTrace";
+
+  private static final int MAGIC = 0x54524331; // "TRC1"
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_SIZE = 32;
+  private static final int RING_SIZE = 1024;
+  private static final long FLUSH_INTERVAL_MS = 1000;
+
+  private final File file;
+  private final long maxFileSize;
+  private final long startTimeMs;
+
+  private final long[] timesMs;
+  private final int[] types;
+  private final int[] args0;
+  private final long[] args1;
+  private final long[] args2;
+  // For each slot, the sequence number after the one of the record in it once that is complete.
+  private final AtomicLongArray published;
+  private final AtomicLong writeSequence;
+  private final AtomicLong droppedCount;
+  private volatile long readSequence;
+
+  private volatile boolean released;
+
+  /**
+   * @param file The trace file. Its previous contents are overwritten.
+   * @param maxFileSize The size in bytes at which the file is rotated.
+   */
+  public SessionTrace(File file, long maxFileSize) {
+    this.file = file;
+    this.maxFileSize = maxFileSize;
+    startTimeMs = SystemClock.elapsedRealtime();
+    timesMs = new long[RING_SIZE];
+    types = new int[RING_SIZE];
+    args0 = new int[RING_SIZE];
+    args1 = new long[RING_SIZE];
+    args2 = new long[RING_SIZE];
+    published = new AtomicLongArray(RING_SIZE);
+    writeSequence = new AtomicLong();
+    droppedCount = new AtomicLong();
+  }
+
+  /**
+   * Starts flushing recorded events to the trace file.
+   */
+  public void start() {
+    BackgroundExecutor.execute(TAG, this);
+  }
+
+  /**
+   * Flushes the remaining events and stops. Events recorded afterwards are dropped.
+   */
+  public synchronized void release() {
+    released = true;
+    // Not an interrupt, which would close the file channel if it came in the middle of a write.
+    notifyAll();
+  }
+
+  /**
+   * Reads the events of a trace file, oldest first. Pass the rotated file first to get the whole
+   * session.
+   */
+  public static List<Event> read(File... files) throws IOException {
+    List<Event> events = new ArrayList<>();
+    for (File file : files) {
+      if (!file.exists()) {
+        continue;
+      }
+      FileInputStream inputStream = new FileInputStream(file);
+      try {
+        FileChannel channel = inputStream.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+        buffer.flip();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+          throw new IOException("Not a trace file: " + file);
+        }
+        buffer.position(HEADER_SIZE);
+        while (buffer.remaining() >= RECORD_SIZE) {
+          long timeMs = buffer.getLong();
+          int type = buffer.getInt();
+          int arg0 = buffer.getInt();
+          long arg1 = buffer.getLong();
+          long arg2 = buffer.getLong();
+          events.add(new Event(timeMs, type, arg0, arg1, arg2));
+        }
+      } finally {
+        inputStream.close();
+      }
+    }
+    return events;
+  }
+
+  @Override
+  public void run() {
+    ByteBuffer batch = ByteBuffer.allocateDirect(HEADER_SIZE + (RING_SIZE + 1) * RECORD_SIZE);
+    FileChannel channel = null;
+    try {
+      channel = openFile(batch);
+      boolean flushedFinalEvents = false;
+      while (!flushedFinalEvents) {
+        // Once released nothing more is recorded, so one last flush gets everything.
+        flushedFinalEvents = awaitFlush();
+        if (channel.size() >= maxFileSize) {
+          channel.close();
+          channel = rotateFile(batch);
+        }
+        drain(batch);
+        batch.flip();
+        while (batch.hasRemaining()) {
+          channel.write(batch);
+        }
+        batch.clear();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Tracing stopped", e);
+      released = true;
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close trace file", e);
+        }
+      }
+    }
+  }
+
+  // RadioPlayer.Listener
+
+  @Override
+  public void onStateChanged(boolean playWhenReady, int playbackState) {
+    record(TYPE_STATE, playbackState, playWhenReady ? 1 : 0, 0);
+  }
+
+  @Override
+  public void onError(Exception e) {
+    record(TYPE_ERROR, 0, 0, 0);
+  }
+
+  // RadioPlayer.InfoListener
+
+  @Override
+  public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onDroppedFrames(int count, long elapsed) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+    record(TYPE_BANDWIDTH, elapsedMs, bytes, bitrateEstimate);
+  }
+
+  @Override
+  public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+      long mediaStartTimeMs, long mediaEndTimeMs) {
+    record(TYPE_LOAD_START, sourceId, length, 0);
+  }
+
+  @Override
+  public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
+      long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
+    record(TYPE_LOAD_END, sourceId, bytesLoaded, loadDurationMs);
+  }
+
+  @Override
+  public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+      long initializationDurationMs) {
+    record(TYPE_DECODER_INIT, 0, initializationDurationMs, 0);
+  }
+
+  @Override
+  public void onAvailableRangeChanged(TimeRange availableRange) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onReconnected(int attemptCount, long gapMs) {
+    record(TYPE_RECONNECT, attemptCount, gapMs, 0);
+  }
+
+  @Override
+  public void onStartupCompleted(StartupTimeline timeline) {
+    for (int i = 0; i < StartupTimeline.PHASE_COUNT; i++) {
+      long phaseTimeMs = timeline.getPhaseTimeMs(i);
+      if (phaseTimeMs != StartupTimeline.UNKNOWN_TIME) {
+        record(TYPE_STARTUP_PHASE, i, phaseTimeMs, 0);
+      }
+    }
+  }
+
+  @Override
+  public void onSegmentFetched(long fetchDurationMs, long segmentDurationMs) {
+    record(TYPE_SEGMENT_FETCH, 0, fetchDurationMs, segmentDurationMs);
+  }
+
+  @Override
+  public void onLoadBurst(long burstDurationMs, long burstBytes, long idleDurationMs) {
+    record(TYPE_LOAD_BURST, (int) Math.min(Integer.MAX_VALUE, idleDurationMs), burstDurationMs,
+        burstBytes);
+  }
+
+  @Override
+  public void onConnectionOpened(String host, boolean reused, long setupTimeMs) {
+    record(TYPE_CONNECTION, reused ? 1 : 0, setupTimeMs, 0);
+  }
+
+  // RadioPlayer.InternalErrorListener
+
+  @Override
+  public void onRendererInitializationError(Exception e) {
+    record(TYPE_INTERNAL_ERROR, 0, 0, 0);
+  }
+
+  @Override
+  public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+    record(TYPE_INTERNAL_ERROR, 1, 0, 0);
+  }
+
+  @Override
+  public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+    record(TYPE_INTERNAL_ERROR, 2, 0, 0);
+  }
+
+  @Override
+  public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
+    record(TYPE_UNDERRUN, bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+  }
+
+  @Override
+  public void onDecoderInitializationError(DecoderInitializationException e) {
+    record(TYPE_INTERNAL_ERROR, 3, 0, 0);
+  }
+
+  @Override
+  public void onCryptoError(CryptoException e) {
+    record(TYPE_INTERNAL_ERROR, 4, 0, 0);
+  }
+
+  @Override
+  public void onLoadError(int sourceId, IOException e) {
+    record(TYPE_INTERNAL_ERROR, 5, sourceId, 0);
+  }
+
+  @Override
+  public void onDrmSessionManagerError(Exception e) {
+    record(TYPE_INTERNAL_ERROR, 6, 0, 0);
+  }
+
+  private void record(int type, int arg0, long arg1, long arg2) {
+    long sequence;
+    do {
+      sequence = writeSequence.get();
+      if (released || sequence - readSequence >= RING_SIZE) {
+        droppedCount.incrementAndGet();
+        return;
+      }
+    } while (!writeSequence.compareAndSet(sequence, sequence + 1));
+    int index = (int) (sequence % RING_SIZE);
+    timesMs[index] = SystemClock.elapsedRealtime() - startTimeMs;
+    types[index] = type;
+    args0[index] = arg0;
+    args1[index] = arg1;
+    args2[index] = arg2;
+    // Publishes the fields written above to the flush thread.
+    published.set(index, sequence + 1);
+  }
+
+  /**
+   * Waits until the next flush is due.
+   *
+   * @return Whether the trace was released.
+   */
+  private synchronized boolean awaitFlush() {
+    if (!released) {
+      try {
+        wait(FLUSH_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        released = true;
+      }
+    }
+    return released;
+  }
+
+  private void drain(ByteBuffer batch) {
+    long sequence = readSequence;
+    int index = (int) (sequence % RING_SIZE);
+    while (published.get(index) == sequence + 1) {
+      batch.putLong(timesMs[index]);
+      batch.putInt(types[index]);
+      batch.putInt(args0[index]);
+      batch.putLong(args1[index]);
+      batch.putLong(args2[index]);
+      sequence++;
+      index = (int) (sequence % RING_SIZE);
+    }
+    // Frees the drained slots for reuse.
+    readSequence = sequence;
+    long dropped = droppedCount.getAndSet(0);
+    if (dropped > 0) {
+      batch.putLong(SystemClock.elapsedRealtime() - startTimeMs);
+      batch.putInt(TYPE_DROPPED);
+      batch.putInt(0);
+      batch.putLong(dropped);
+      batch.putLong(0);
+    }
+  }
+
+  private FileChannel rotateFile(ByteBuffer batch) throws IOException {
+    File rotatedFile = new File(file.getPath() + ".1");
+    if ((rotatedFile.exists() && !rotatedFile.delete()) || !file.renameTo(rotatedFile)) {
+      throw new IOException("Failed to rotate " + file);
+    }
+    return openFile(batch);
+  }
+
+  /**
+   * Creates an empty trace file and queues its header into {@code batch}.
+   */
+  private FileChannel openFile(ByteBuffer batch) throws IOException {
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    batch.putInt(MAGIC);
+    batch.putInt(RECORD_SIZE);
+    // Anchors the relative record times to the wall clock.
+    batch.putLong(System.currentTimeMillis() - (SystemClock.elapsedRealtime() - startTimeMs));
+    return channel;
+  }
+
+}
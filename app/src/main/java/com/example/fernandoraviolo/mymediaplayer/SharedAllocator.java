@@ -0,0 +1,190 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.util.Assertions;
+
+import java.util.Arrays;
+
+/**
+ * A process wide pool of sample data segments that outlive the sample sources that use them, so
+ * that rebuilding renderers when switching stations reuses memory instead of allocating it again.
+ * <p>
+ * Each sample source gets its own {@link Allocator} from {@link #createAllocator()}, which counts
+ * and limits only what that source holds, so that the full buffer of a stream being faded out
+ * doesn't hold up the one fading in. Trims requested by sample sources are ignored, as they trim to
+ * nothing whenever they are disabled. Instead free segments that have not been reused for
+ * {@link #IDLE_TRIM_TIMEOUT_MS} are dropped, and all of them on {@link #trimFreeSegments()}.
+ */
+public final class SharedAllocator {
+
+  public static final long IDLE_TRIM_TIMEOUT_MS = 30000;
+
+  private static SharedAllocator instance;
+
+  private final int individualAllocationSize;
+  private final Handler handler;
+  private final Runnable trimRunnable;
+
+  private Allocation[] availableAllocations;
+  private int availableCount;
+  private int allocatedCount;
+  private int peakAllocatedCount;
+  private long lastReleaseTimeMs;
+  private boolean trimScheduled;
+
+  /**
+   * Returns the shared allocator, creating it on first use.
+   *
+   * @param individualAllocationSize The length of each allocation. Must be the same on every call.
+   */
+  public static synchronized SharedAllocator getInstance(int individualAllocationSize) {
+    if (instance == null) {
+      instance = new SharedAllocator(individualAllocationSize);
+    }
+    Assertions.checkArgument(instance.individualAllocationSize == individualAllocationSize);
+    return instance;
+  }
+
+  private SharedAllocator(int individualAllocationSize) {
+    this.individualAllocationSize = individualAllocationSize;
+    handler = new Handler(Looper.getMainLooper());
+    trimRunnable = new Runnable() {
+      @Override
+      public void run() {
+        trimIdle();
+      }
+    };
+    availableAllocations = new Allocation[16];
+  }
+
+  /**
+   * Returns an allocator for one sample source, drawing from the shared segments.
+   */
+  public Allocator createAllocator() {
+    return new SourceAllocator();
+  }
+
+  /**
+   * Drops all free segments, for example when the system is low on memory.
+   */
+  public synchronized void trimFreeSegments() {
+    Arrays.fill(availableAllocations, 0, availableCount, null);
+    availableCount = 0;
+  }
+
+  /**
+   * Returns the number of bytes allocated over all sources.
+   */
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * individualAllocationSize;
+  }
+
+  /**
+   * Returns the number of bytes held in free segments, ready to be reused.
+   */
+  public synchronized int getFreeBytes() {
+    return availableCount * individualAllocationSize;
+  }
+
+  /**
+   * Returns the largest number of bytes that were allocated at once.
+   */
+  public synchronized int getPeakBytesAllocated() {
+    return peakAllocatedCount * individualAllocationSize;
+  }
+
+  private synchronized Allocation obtain() {
+    allocatedCount++;
+    peakAllocatedCount = Math.max(peakAllocatedCount, allocatedCount);
+    if (availableCount > 0) {
+      Allocation allocation = availableAllocations[--availableCount];
+      availableAllocations[availableCount] = null;
+      return allocation;
+    }
+    return new Allocation(new byte[individualAllocationSize], 0);
+  }
+
+  private synchronized void recycle(Allocation allocation) {
+    Assertions.checkArgument(allocation.data.length == individualAllocationSize);
+    allocatedCount--;
+    if (availableCount == availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+    }
+    availableAllocations[availableCount++] = allocation;
+    lastReleaseTimeMs = SystemClock.elapsedRealtime();
+    if (!trimScheduled) {
+      trimScheduled = true;
+      handler.postDelayed(trimRunnable, IDLE_TRIM_TIMEOUT_MS);
+    }
+    // Wake up any loaders waiting for memory.
+    notifyAll();
+  }
+
+  private synchronized void trimIdle() {
+    long idleMs = SystemClock.elapsedRealtime() - lastReleaseTimeMs;
+    if (idleMs >= IDLE_TRIM_TIMEOUT_MS) {
+      trimScheduled = false;
+      trimFreeSegments();
+    } else {
+      handler.postDelayed(trimRunnable, IDLE_TRIM_TIMEOUT_MS - idleMs);
+    }
+  }
+
+  /**
+   * The allocator of one sample source.
+   */
+  private final class SourceAllocator implements Allocator {
+
+    // Guarded by SharedAllocator.this.
+    private int heldCount;
+
+    @Override
+    public Allocation allocate() {
+      synchronized (SharedAllocator.this) {
+        heldCount++;
+        return obtain();
+      }
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      synchronized (SharedAllocator.this) {
+        heldCount--;
+        recycle(allocation);
+      }
+    }
+
+    @Override
+    public void trim(int targetSize) {
+      // Do nothing. Free segments are shared, and dropped when idle or under memory pressure.
+    }
+
+    @Override
+    public void blockWhileTotalBytesAllocatedExceeds(int limit) throws InterruptedException {
+      synchronized (SharedAllocator.this) {
+        while (heldCount * individualAllocationSize > limit) {
+          SharedAllocator.this.wait();
+        }
+      }
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      synchronized (SharedAllocator.this) {
+        return heldCount * individualAllocationSize;
+      }
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return individualAllocationSize;
+    }
+
+  }
+
+}
@@ -0,0 +1,154 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.upstream.Allocation;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.util.Assertions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * An {@link Allocator} that carves allocations out of large slabs instead of allocating one array
+ * per segment.
+ * <p>
+ * A 16 MB buffer of 64 KB segments is 256 arrays to allocate and zero; with 1 MB slabs it is 16.
+ * Segments of that size already live in ART's large object space, so slabs don't change whether
+ * the memory moves, only how many allocations a buffer takes. A slab is only freed by
+ * {@link #trim(int)} once every allocation carved from it is released.
+ */
+public final class SlabAllocator implements Allocator {
+
+  public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+  private final int individualAllocationSize;
+  private final int allocationsPerSlab;
+  private final IdentityHashMap<byte[], Slab> slabs;
+
+  private Allocation[] availableAllocations;
+  private int availableCount;
+  private int allocatedCount;
+
+  /**
+   * @param individualAllocationSize The length of each allocation.
+   * @param slabSize The length of each slab. Must be a multiple of {@code individualAllocationSize}.
+   */
+  public SlabAllocator(int individualAllocationSize, int slabSize) {
+    Assertions.checkArgument(slabSize % individualAllocationSize == 0);
+    this.individualAllocationSize = individualAllocationSize;
+    allocationsPerSlab = slabSize / individualAllocationSize;
+    slabs = new IdentityHashMap<>();
+    availableAllocations = new Allocation[allocationsPerSlab];
+  }
+
+  @Override
+  public synchronized Allocation allocate() {
+    if (availableCount == 0) {
+      addSlab();
+    }
+    Allocation allocation = availableAllocations[--availableCount];
+    availableAllocations[availableCount] = null;
+    slabs.get(allocation.data).allocatedCount++;
+    allocatedCount++;
+    return allocation;
+  }
+
+  @Override
+  public synchronized void release(Allocation allocation) {
+    Slab slab = slabs.get(allocation.data);
+    Assertions.checkArgument(slab != null);
+    slab.allocatedCount--;
+    allocatedCount--;
+    if (availableCount == availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations, availableAllocations.length * 2);
+    }
+    availableAllocations[availableCount++] = allocation;
+    // Wake up any loaders waiting for memory.
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void trim(int targetSize) {
+    int targetSlabCount = (targetSize + getSlabSize() - 1) / getSlabSize();
+    int excessSlabCount = slabs.size() - targetSlabCount;
+    if (excessSlabCount <= 0) {
+      return;
+    }
+    ArrayList<byte[]> freedSlabs = new ArrayList<>();
+    Iterator<Slab> iterator = slabs.values().iterator();
+    while (iterator.hasNext() && freedSlabs.size() < excessSlabCount) {
+      Slab slab = iterator.next();
+      if (slab.allocatedCount == 0) {
+        freedSlabs.add(slab.data);
+        iterator.remove();
+      }
+    }
+    if (freedSlabs.isEmpty()) {
+      return;
+    }
+    // Compact the available allocations, dropping those that belong to freed slabs.
+    int newAvailableCount = 0;
+    for (int i = 0; i < availableCount; i++) {
+      Allocation allocation = availableAllocations[i];
+      if (slabs.containsKey(allocation.data)) {
+        availableAllocations[newAvailableCount++] = allocation;
+      }
+    }
+    Arrays.fill(availableAllocations, newAvailableCount, availableCount, null);
+    availableCount = newAvailableCount;
+  }
+
+  @Override
+  public synchronized void blockWhileTotalBytesAllocatedExceeds(int limit)
+      throws InterruptedException {
+    while (getTotalBytesAllocated() > limit) {
+      wait();
+    }
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  /**
+   * Returns the number of bytes held in slabs, whether allocated or not.
+   */
+  public synchronized int getTotalSlabBytes() {
+    return slabs.size() * getSlabSize();
+  }
+
+  private int getSlabSize() {
+    return allocationsPerSlab * individualAllocationSize;
+  }
+
+  private void addSlab() {
+    Slab slab = new Slab(new byte[getSlabSize()]);
+    slabs.put(slab.data, slab);
+    if (availableAllocations.length < allocationsPerSlab) {
+      availableAllocations = new Allocation[allocationsPerSlab];
+    }
+    for (int i = allocationsPerSlab - 1; i >= 0; i--) {
+      availableAllocations[availableCount++] =
+          new Allocation(slab.data, i * individualAllocationSize);
+    }
+  }
+
+  private static final class Slab {
+
+    public final byte[] data;
+    public int allocatedCount;
+
+    public Slab(byte[] data) {
+      this.data = data;
+    }
+
+  }
+
+}
@@ -0,0 +1,135 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+/**
+ * The times at which the phases of starting playback were reached, from
+ * {@link RadioPlayer#prepare()} to the first time the player is ready while playWhenReady is set.
+ * <p>
+ * Phases are marked from whichever thread reaches them, and only the first mark of each phase
+ * counts. Phases that don't apply, for example network phases when playing from a time shift
+ * buffer, are never marked.
+ * <p>
+ * Phases may overlap: the connection is opened while the renderers are built, so the network
+ * phases can be reached before {@link #PHASE_RENDERERS_BUILT}. Such phases are marked as started
+ * when their work begins, and their duration counts from there. Any other phase starts at the
+ * latest earlier phase that was reached.
+ */
+public final class StartupTimeline {
+
+  public static final int PHASE_RENDERERS_BUILT = 0;
+  public static final int PHASE_DNS_RESOLVED = 1;
+  /**
+   * The HTTP response headers were received, so this includes the TCP and TLS handshakes.
+   */
+  public static final int PHASE_CONNECTED = 2;
+  public static final int PHASE_FIRST_BYTE = 3;
+  /**
+   * The extractor sniffed the stream and found its format.
+   */
+  public static final int PHASE_SOURCE_PREPARED = 4;
+  public static final int PHASE_DECODER_INITIALIZED = 5;
+  /**
+   * Enough was buffered to start playing.
+   */
+  public static final int PHASE_READY = 6;
+  public static final int PHASE_COUNT = 7;
+
+  public static final long UNKNOWN_TIME = -1;
+
+  private static final String[] PHASE_NAMES = {"renderersBuilt", "dnsResolved", "connected",
+      "firstByte", "sourcePrepared", "decoderInitialized", "ready"};
+
+  private final long prepareTimeMs;
+  private final long[] phaseTimesMs;
+  private final long[] phaseStartTimesMs;
+
+  public StartupTimeline() {
+    prepareTimeMs = SystemClock.elapsedRealtime();
+    phaseTimesMs = new long[PHASE_COUNT];
+    Arrays.fill(phaseTimesMs, UNKNOWN_TIME);
+    phaseStartTimesMs = new long[PHASE_COUNT];
+    Arrays.fill(phaseStartTimesMs, UNKNOWN_TIME);
+  }
+
+  public static String getPhaseName(int phase) {
+    return PHASE_NAMES[phase];
+  }
+
+  /**
+   * Marks a phase as reached now, unless it was already marked.
+   */
+  public synchronized void markPhase(int phase) {
+    if (phaseTimesMs[phase] == UNKNOWN_TIME) {
+      phaseTimesMs[phase] = SystemClock.elapsedRealtime() - prepareTimeMs;
+    }
+  }
+
+  /**
+   * Marks the work of a phase as started now, unless it was already marked.
+   */
+  public synchronized void markPhaseStart(int phase) {
+    if (phaseStartTimesMs[phase] == UNKNOWN_TIME) {
+      phaseStartTimesMs[phase] = SystemClock.elapsedRealtime() - prepareTimeMs;
+    }
+  }
+
+  public synchronized boolean isPhaseMarked(int phase) {
+    return phaseTimesMs[phase] != UNKNOWN_TIME;
+  }
+
+  /**
+   * Returns the time from prepare to the phase in milliseconds, or {@link #UNKNOWN_TIME} if it
+   * wasn't reached.
+   */
+  public synchronized long getPhaseTimeMs(int phase) {
+    return phaseTimesMs[phase];
+  }
+
+  /**
+   * Returns the time between the start of the phase and the phase, in milliseconds. A phase that
+   * wasn't marked as started starts at the latest earlier phase that was reached, or prepare if
+   * none was. {@link #UNKNOWN_TIME} if the phase wasn't reached.
+   */
+  public synchronized long getPhaseDurationMs(int phase) {
+    if (phaseTimesMs[phase] == UNKNOWN_TIME) {
+      return UNKNOWN_TIME;
+    }
+    long startTimeMs = phaseStartTimesMs[phase];
+    if (startTimeMs == UNKNOWN_TIME) {
+      startTimeMs = 0;
+      for (int i = 0; i < phase; i++) {
+        startTimeMs = Math.max(startTimeMs, phaseTimesMs[i]);
+      }
+    }
+    return Math.max(0, phaseTimesMs[phase] - startTimeMs);
+  }
+
+  /**
+   * Returns the time from prepare to ready in milliseconds, or {@link #UNKNOWN_TIME} if playback
+   * hasn't started.
+   */
+  public long getTotalMs() {
+    return getPhaseTimeMs(PHASE_READY);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder("startup [");
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(PHASE_NAMES[i]).append('=');
+      if (phaseTimesMs[i] == UNKNOWN_TIME) {
+        builder.append('?');
+      } else {
+        builder.append(phaseTimesMs[i]);
+      }
+    }
+    return builder.append(']').toString();
+  }
+
+}
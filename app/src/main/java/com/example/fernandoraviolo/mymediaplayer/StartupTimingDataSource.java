@@ -0,0 +1,74 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+/**
+ * A {@link DataSource} that marks the network phases of a {@link StartupTimeline}: DNS
+ * resolution, connection and first byte.
+ * <p>
+ * HTTP sources don't report when DNS resolution ends, so for the first http(s) open the host is
+ * resolved here beforehand through the {@link DnsCache} of the shared {@link HttpConnectionPool}.
+ * The connection then finds the address in the cache, which leaves mostly connection time in the
+ * next phase.
+ * <p>
+ * The first open usually runs while the renderers are built, so DNS resolution and connection are
+ * marked as started when the open begins and when DNS resolution ends.
+ */
+public final class StartupTimingDataSource implements DataSource {
+
+  private final DataSource upstream;
+  private final StartupTimeline timeline;
+
+  private boolean firstByteRead;
+
+  /**
+   * @param upstream The source to read from.
+   * @param timeline The timeline to mark.
+   */
+  public StartupTimingDataSource(DataSource upstream, StartupTimeline timeline) {
+    this.upstream = upstream;
+    this.timeline = timeline;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    if (!timeline.isPhaseMarked(StartupTimeline.PHASE_DNS_RESOLVED)) {
+      String scheme = dataSpec.uri.getScheme();
+      String host = dataSpec.uri.getHost();
+      if (host != null && ("http".equals(scheme) || "https".equals(scheme))) {
+        timeline.markPhaseStart(StartupTimeline.PHASE_DNS_RESOLVED);
+        try {
+          HttpConnectionPool.getInstance().getDnsCache().lookup(host);
+          timeline.markPhase(StartupTimeline.PHASE_DNS_RESOLVED);
+        } catch (UnknownHostException e) {
+          // Leave it to the upstream to fail with a proper error.
+        }
+      }
+    }
+    timeline.markPhaseStart(StartupTimeline.PHASE_CONNECTED);
+    long length = upstream.open(dataSpec);
+    timeline.markPhase(StartupTimeline.PHASE_CONNECTED);
+    firstByteRead = timeline.isPhaseMarked(StartupTimeline.PHASE_FIRST_BYTE);
+    return length;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    int read = upstream.read(buffer, offset, readLength);
+    if (!firstByteRead && read > 0) {
+      timeline.markPhase(StartupTimeline.PHASE_FIRST_BYTE);
+      firstByteRead = true;
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    upstream.close();
+  }
+
+}
@@ -0,0 +1,361 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps connections to stations the user is likely to switch to open, each with a small
+ * pre-buffer, so that playback of those stations can start without connecting and buffering from
+ * scratch.
+ * <p>
+ * Live streams are read at their own rate and only the most recent bytes are kept, so a warm
+ * station starts close to the live edge. On-demand streams are buffered from the start and then
+ * paused. Once the pool is full, the least recently warmed station is evicted.
+ * <p>
+ * The connection is handed over through the {@link DataSource} returned by
+ * {@link #createDataSource(Uri, DataSource)}, together with its ring, which from then on buffers
+ * for the player. {@code ExtractorSampleSource} opens its source once to prepare and again from
+ * the start once enabled, so the bytes read after hand over stay in the ring until it's needed for
+ * newer ones, and a reopen at position zero reads them again. All the memory a station takes is
+ * its ring.
+ * <p>
+ * This is an API for apps that switch between stations; the app itself plays a single station
+ * and doesn't create a pool. Stations are handed over through
+ * {@link ExtractorRendererBuilder#setStationPool(StationPool)}, which only uses the pool when
+ * there's no time shift buffer, since the buffer records over a connection of its own.
+ */
+public final class StationPool {
+
+  /**
+   * Creates the connections of warm stations.
+   */
+  public interface Factory {
+
+    /**
+     * Returns a source for a standby connection. The bytes it reads reach the extractor as they
+     * are, so it should strip in-band ICY metadata, as {@link IcyDataSource} does.
+     */
+    DataSource createDataSource();
+
+  }
+
+  private static final String TAG = "StationPool";
+
+  private static final int READ_CHUNK_SIZE = 4 * 1024;
+  // How long a handed over connection is kept open after its consumer closes it.
+  private static final long LINGER_MS = 5000;
+
+  private final Factory factory;
+  private final int maxStandbyCount;
+  private final int prebufferSize;
+  private final LinkedHashMap<Uri, Standby> standbys;
+
+  /**
+   * @param factory Creates the standby connections.
+   * @param maxStandbyCount The maximum number of stations kept warm.
+   * @param maxMemoryBytes The memory shared between the pre-buffers of all warm stations.
+   */
+  public StationPool(Factory factory, int maxStandbyCount, int maxMemoryBytes) {
+    this.factory = factory;
+    this.maxStandbyCount = maxStandbyCount;
+    prebufferSize = maxMemoryBytes / maxStandbyCount;
+    standbys = new LinkedHashMap<>();
+  }
+
+  /**
+   * Opens a standby connection to {@code uri}, unless there already is one. May evict the least
+   * recently warmed station.
+   */
+  public synchronized void warm(Uri uri) {
+    Standby standby = standbys.remove(uri);
+    if (standby == null || standby.isReleased()) {
+      standby = new Standby(uri, factory.createDataSource(), prebufferSize);
+      BackgroundExecutor.execute(TAG + ":" + uri, standby);
+    }
+    // Re-inserting moves the station to the most recently used end.
+    standbys.put(uri, standby);
+    Iterator<Map.Entry<Uri, Standby>> iterator = standbys.entrySet().iterator();
+    while (standbys.size() > maxStandbyCount) {
+      iterator.next().getValue().release();
+      iterator.remove();
+    }
+  }
+
+  public synchronized void evict(Uri uri) {
+    Standby standby = standbys.remove(uri);
+    if (standby != null) {
+      standby.release();
+    }
+  }
+
+  public synchronized int getStandbyCount() {
+    return standbys.size();
+  }
+
+  /**
+   * Closes all standby connections.
+   */
+  public synchronized void release() {
+    for (Standby standby : standbys.values()) {
+      standby.release();
+    }
+    standbys.clear();
+  }
+
+  /**
+   * Returns a {@link DataSource} for {@code uri}. If the station is warm, its connection is taken
+   * out of the pool and handed over. Otherwise, or when the warm connection can't satisfy a
+   * request, {@code upstream} is used.
+   */
+  public synchronized DataSource createDataSource(Uri uri, DataSource upstream) {
+    Standby standby = standbys.remove(uri);
+    if (standby == null || standby.isReleased()) {
+      return upstream;
+    }
+    return new WarmDataSource(standby, upstream);
+  }
+
+  /**
+   * Reads a stream on a background thread into a fixed size ring. Before hand over the oldest bytes
+   * of a live stream are dropped when the ring is full; after hand over, or for on-demand streams,
+   * reading pauses instead. After hand over, bytes that were read are retained in the ring for a
+   * rewind, until they are needed to make room for newer ones.
+   */
+  private static final class Standby implements Runnable {
+
+    private final Uri uri;
+    private final DataSource upstream;
+    private final byte[] ring;
+
+    private int readPosition;
+    private int size;
+    // The bytes read since hand over, which end at readPosition, if they are still in the ring.
+    private int retainedSize;
+    private boolean retaining;
+    private long length;
+    private boolean handedOver;
+    private boolean released;
+    private boolean endOfInput;
+    private IOException error;
+    private long consumerClosedMs;
+
+    public Standby(Uri uri, DataSource upstream, int capacity) {
+      this.uri = uri;
+      this.upstream = upstream;
+      ring = new byte[capacity];
+      length = C.LENGTH_UNBOUNDED;
+      consumerClosedMs = -1;
+    }
+
+    @Override
+    public void run() {
+      try {
+        long openedLength = upstream.open(new DataSpec(uri));
+        synchronized (this) {
+          length = openedLength;
+        }
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        while (true) {
+          int read = upstream.read(chunk, 0, chunk.length);
+          if (read == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          if (!write(chunk, read)) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          error = e;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          upstream.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close standby connection", e);
+        }
+        synchronized (this) {
+          endOfInput = true;
+          notifyAll();
+        }
+      }
+    }
+
+    public synchronized boolean isReleased() {
+      return released;
+    }
+
+    public synchronized void release() {
+      released = true;
+      notifyAll();
+    }
+
+    public synchronized long getLength() {
+      return length;
+    }
+
+    public synchronized long handOver() {
+      handedOver = true;
+      retaining = true;
+      retainedSize = 0;
+      consumerClosedMs = -1;
+      return length;
+    }
+
+    /**
+     * Goes back to the first byte read since hand over.
+     *
+     * @return False if that byte is no longer in the ring.
+     */
+    public synchronized boolean rewind() {
+      if (!retaining) {
+        return false;
+      }
+      readPosition = (readPosition - retainedSize + ring.length) % ring.length;
+      size += retainedSize;
+      retainedSize = 0;
+      consumerClosedMs = -1;
+      return true;
+    }
+
+    public synchronized void onConsumerClosed() {
+      consumerClosedMs = SystemClock.elapsedRealtime();
+      notifyAll();
+    }
+
+    public synchronized int read(byte[] buffer, int offset, int readLength) throws IOException,
+        InterruptedException {
+      while (size == 0 && !endOfInput && !released) {
+        wait();
+      }
+      if (size == 0) {
+        if (error != null) {
+          throw error;
+        }
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(readLength, size);
+      int firstPart = Math.min(bytesToRead, ring.length - readPosition);
+      System.arraycopy(ring, readPosition, buffer, offset, firstPart);
+      System.arraycopy(ring, 0, buffer, offset + firstPart, bytesToRead - firstPart);
+      readPosition = (readPosition + bytesToRead) % ring.length;
+      size -= bytesToRead;
+      if (retaining) {
+        retainedSize += bytesToRead;
+      }
+      notifyAll();
+      return bytesToRead;
+    }
+
+    /**
+     * Writes {@code length} bytes into the ring. Returns false if the standby should stop reading.
+     */
+    private synchronized boolean write(byte[] chunk, int chunkLength)
+        throws InterruptedException {
+      boolean live = length == C.LENGTH_UNBOUNDED;
+      if (retaining && retainedSize + size + chunkLength > ring.length) {
+        // Newer bytes take precedence, so a later rewind falls back to a new connection.
+        retaining = false;
+        retainedSize = 0;
+      }
+      while (!released && size + chunkLength > ring.length && (handedOver || !live)) {
+        if (lingerExpired()) {
+          released = true;
+          break;
+        }
+        wait(LINGER_MS);
+      }
+      if (released || lingerExpired()) {
+        released = true;
+        return false;
+      }
+      int overflow = size + chunkLength - ring.length;
+      if (overflow > 0) {
+        // Live and not handed over yet, so drop the oldest bytes.
+        readPosition = (readPosition + overflow) % ring.length;
+        size -= overflow;
+      }
+      int writePosition = (readPosition + size) % ring.length;
+      int firstPart = Math.min(chunkLength, ring.length - writePosition);
+      System.arraycopy(chunk, 0, ring, writePosition, firstPart);
+      System.arraycopy(chunk, firstPart, ring, 0, chunkLength - firstPart);
+      size += chunkLength;
+      notifyAll();
+      return true;
+    }
+
+    private boolean lingerExpired() {
+      return consumerClosedMs != -1 && SystemClock.elapsedRealtime() - consumerClosedMs > LINGER_MS;
+    }
+
+  }
+
+  /**
+   * Reads from a handed over {@link Standby}, rewinding it when reopened from the start.
+   */
+  private static final class WarmDataSource implements DataSource {
+
+    private final Standby standby;
+    private final DataSource fallback;
+
+    private boolean handedOver;
+    private boolean usingFallback;
+
+    public WarmDataSource(Standby standby, DataSource fallback) {
+      this.standby = standby;
+      this.fallback = fallback;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      if (dataSpec.position != 0 || standby.isReleased()
+          || (handedOver && !standby.rewind())) {
+        standby.release();
+        usingFallback = true;
+        return fallback.open(dataSpec);
+      }
+      usingFallback = false;
+      if (handedOver) {
+        return standby.getLength();
+      }
+      handedOver = true;
+      return standby.handOver();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (usingFallback) {
+        return fallback.read(buffer, offset, readLength);
+      }
+      try {
+        return standby.read(buffer, offset, readLength);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (usingFallback) {
+        fallback.close();
+      } else {
+        standby.onConsumerClosed();
+      }
+    }
+
+  }
+
+}
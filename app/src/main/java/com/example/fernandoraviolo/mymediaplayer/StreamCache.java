@@ -0,0 +1,135 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded on-disk cache for on-demand media. Byte ranges fetched from upstream are written
+ * to disk as they are read, and the least recently used ranges are evicted once the cache grows
+ * past its maximum size.
+ * <p>
+ * Live streams never end, so only seekable on-demand uris should be read through this cache.
+ */
+public final class StreamCache {
+
+  public static final long DEFAULT_MAX_CACHE_SIZE = 100 * 1024 * 1024;
+
+  private static final String CACHE_DIR_NAME = "media";
+  private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+  private static StreamCache instance;
+
+  private final Cache cache;
+  private final long maxCacheSize;
+  private final AtomicLong bytesRead;
+  private final AtomicLong cachedBytesRead;
+
+  /**
+   * Returns the process wide cache, creating it on first use. A {@link SimpleCache} must be the only
+   * owner of its directory, so every caller shares the same instance.
+   *
+   * @param context A context.
+   * @param maxCacheSize The maximum size of the cache in bytes. Ignored if the cache already exists.
+   */
+  public static synchronized StreamCache getInstance(Context context, long maxCacheSize) {
+    if (instance == null) {
+      File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+      instance = new StreamCache(cacheDir, maxCacheSize);
+    }
+    return instance;
+  }
+
+  private StreamCache(File cacheDir, long maxCacheSize) {
+    this.maxCacheSize = maxCacheSize;
+    cache = new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxCacheSize));
+    bytesRead = new AtomicLong();
+    cachedBytesRead = new AtomicLong();
+  }
+
+  /**
+   * Wraps {@code upstream} so that reads are served from the cache where possible, and data read
+   * from upstream is written to the cache.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    return new CachingDataSource(upstream);
+  }
+
+  public long getMaxCacheSize() {
+    return maxCacheSize;
+  }
+
+  public long getCacheSpace() {
+    return cache.getCacheSpace();
+  }
+
+  /**
+   * Returns the number of bytes that were served from disk.
+   */
+  public long getHitBytes() {
+    return cachedBytesRead.get();
+  }
+
+  /**
+   * Returns the number of bytes that had to be fetched from upstream.
+   */
+  public long getMissBytes() {
+    return bytesRead.get() - cachedBytesRead.get();
+  }
+
+  private final class CachingDataSource implements DataSource, CacheDataSource.EventListener {
+
+    private final DataSource cacheDataSource;
+
+    public CachingDataSource(DataSource upstream) {
+      cacheDataSource = new CacheDataSource(cache, upstream, new FileDataSource(),
+          new CacheDataSink(cache, MAX_CACHE_FILE_SIZE), false, true, this);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      if (dataSpec.key == null) {
+        // Spans are indexed by key, and extractor loads don't set one.
+        Uri uri = dataSpec.uri;
+        dataSpec = new DataSpec(uri, dataSpec.absoluteStreamPosition, dataSpec.position,
+            dataSpec.length, uri.toString(), dataSpec.flags);
+      }
+      return cacheDataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int read = cacheDataSource.read(buffer, offset, readLength);
+      if (read > 0) {
+        bytesRead.addAndGet(read);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      cacheDataSource.close();
+    }
+
+    // CacheDataSource.EventListener
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytes) {
+      cachedBytesRead.addAndGet(cachedBytes);
+    }
+
+  }
+
+}
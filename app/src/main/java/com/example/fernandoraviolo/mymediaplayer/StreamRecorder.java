@@ -0,0 +1,427 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records a stream while it plays, from the same connection, into files in a directory.
+ * <p>
+ * The {@link DataSource} returned by {@link #createDataSource(DataSource)} copies every byte the
+ * extractor reads into one of a fixed number of blocks while recording. Full blocks are appended
+ * to the current file through a {@link FileChannel} by a background thread, and partially filled
+ * ones once a second. The loading thread never waits for storage: if the writer falls so far
+ * behind that no block is free, the bytes read meanwhile are left out of the recording and
+ * counted, and the decoder resynchronizes on the next frame when the file is played.
+ * <p>
+ * A new file is started whenever the stream title changes, since that's when a show or song
+ * changes, and when the current file reaches a maximum duration. Files are named after the time
+ * they were started and the title, with an extension guessed from the first bytes.
+ */
+public final class StreamRecorder implements Runnable {
+
+  /**
+   * Interface definition for a callback to be notified of {@link StreamRecorder} events.
+   */
+  public interface EventListener {
+
+    /**
+     * Invoked when a file was completely written.
+     *
+     * @param file The file.
+     * @param droppedByteCount The number of bytes left out of the file because storage couldn't
+     *     keep up.
+     */
+    void onRecordingFinished(File file, long droppedByteCount);
+
+    /**
+     * Invoked when writing failed. Recording stops.
+     *
+     * @param e The cause.
+     */
+    void onRecordingError(IOException e);
+
+  }
+
+  public static final long DEFAULT_MAX_FILE_DURATION_MS = 60 * 60 * 1000;
+
+  private static final String TAG = "StreamRecorder";
+  private static final int BLOCK_SIZE = 64 * 1024;
+  // Enough for more than a minute of a 128 kbit/s stream while storage stalls.
+  private static final int BLOCK_COUNT = 16;
+  private static final long FLUSH_INTERVAL_MS = 1000;
+  private static final int MAX_TITLE_LENGTH = 64;
+
+  private final File directory;
+  private final long maxFileDurationMs;
+  private final Handler eventHandler;
+  private final EventListener eventListener;
+  private final ArrayDeque<Block> freeBlocks;
+  private final ArrayDeque<Block> filledBlocks;
+
+  // Guarded by this.
+  private int blockCount;
+  private Block fillingBlock;
+  private boolean recording;
+  private boolean released;
+  private boolean fileStartPending;
+  private long fileStartTimeMs;
+  private String title;
+  private long droppedByteCount;
+
+  private boolean writerRunning;
+
+  /**
+   * @param directory The directory to write files into. It's created if missing.
+   * @param maxFileDurationMs The duration after which a new file is started even if the title
+   *     didn't change.
+   * @param eventHandler A handler to use when delivering events to {@code eventListener}. May be
+   *     null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public StreamRecorder(File directory, long maxFileDurationMs, Handler eventHandler,
+      EventListener eventListener) {
+    this.directory = directory;
+    this.maxFileDurationMs = maxFileDurationMs;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    freeBlocks = new ArrayDeque<>();
+    filledBlocks = new ArrayDeque<>();
+    title = "";
+  }
+
+  /**
+   * Returns a source that reads from {@code upstream}, copying what it reads into the recording.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    return new TeeDataSource(upstream);
+  }
+
+  /**
+   * Starts recording into a new file from the next byte read. Does nothing if already recording.
+   */
+  public synchronized void start() {
+    if (recording || released) {
+      return;
+    }
+    if (!writerRunning) {
+      writerRunning = true;
+      BackgroundExecutor.execute(TAG, this);
+    }
+    recording = true;
+    fileStartPending = true;
+  }
+
+  /**
+   * Stops recording. The current file is finished in the background.
+   */
+  public synchronized void stop() {
+    if (!recording) {
+      return;
+    }
+    recording = false;
+    Block lastFilledBlock = filledBlocks.peekLast();
+    if (fillingBlock == null && lastFilledBlock != null) {
+      lastFilledBlock.endsFile = true;
+      return;
+    }
+    // The writer holds at most one block, so with none queued there's one to spare.
+    Block block = fillingBlock != null ? fillingBlock : obtainBlock();
+    fillingBlock = null;
+    block.endsFile = true;
+    submit(block);
+  }
+
+  public synchronized boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Starts a new file named after the new title, if recording.
+   */
+  public synchronized void onStreamTitleChanged(String title) {
+    if (title.equals(this.title)) {
+      return;
+    }
+    this.title = title;
+    if (recording) {
+      split();
+    }
+  }
+
+  /**
+   * Stops recording, finishes the current file and ends the background writer.
+   */
+  public synchronized void release() {
+    stop();
+    released = true;
+    // Not an interrupt, which would close the file channel if it came in the middle of a write.
+    notifyAll();
+  }
+
+  @Override
+  public void run() {
+    FileChannel channel = null;
+    File file = null;
+    long fileDroppedByteCount = 0;
+    try {
+      while (true) {
+        Block block = awaitBlock();
+        if (block == null) {
+          if (isReleased()) {
+            break;
+          }
+          continue;
+        }
+        try {
+          if (block.startsFile) {
+            if (channel != null) {
+              channel.close();
+              notifyFinished(file, fileDroppedByteCount);
+            }
+            file = createFile(block.title, block.data);
+            channel = new FileOutputStream(file).getChannel();
+            fileDroppedByteCount = 0;
+          }
+          fileDroppedByteCount += block.droppedByteCount;
+          block.data.flip();
+          while (channel != null && block.data.hasRemaining()) {
+            channel.write(block.data);
+          }
+          if (block.endsFile && channel != null) {
+            channel.close();
+            channel = null;
+            notifyFinished(file, fileDroppedByteCount);
+          }
+        } finally {
+          recycle(block);
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Recording stopped", e);
+      synchronized (this) {
+        recording = false;
+        fillingBlock = null;
+        filledBlocks.clear();
+        blockCount = freeBlocks.size();
+        // A later start() runs the writer again.
+        writerRunning = false;
+      }
+      notifyError(e);
+    } finally {
+      if (channel != null) {
+        try {
+          channel.close();
+          notifyFinished(file, fileDroppedByteCount);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close " + file, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies bytes read by the player into the recording, without waiting.
+   */
+  private synchronized void onBytesRead(byte[] buffer, int offset, int length) {
+    if (!recording) {
+      return;
+    }
+    long nowMs = SystemClock.elapsedRealtime();
+    if (!fileStartPending && nowMs - fileStartTimeMs >= maxFileDurationMs) {
+      split();
+    }
+    while (length > 0) {
+      if (fillingBlock == null) {
+        fillingBlock = obtainBlock();
+        if (fillingBlock == null) {
+          droppedByteCount += length;
+          return;
+        }
+        if (fileStartPending) {
+          fileStartPending = false;
+          fileStartTimeMs = nowMs;
+          fillingBlock.startsFile = true;
+          fillingBlock.title = title;
+        }
+        fillingBlock.droppedByteCount = droppedByteCount;
+        droppedByteCount = 0;
+      }
+      int copyLength = Math.min(length, fillingBlock.data.remaining());
+      fillingBlock.data.put(buffer, offset, copyLength);
+      offset += copyLength;
+      length -= copyLength;
+      if (!fillingBlock.data.hasRemaining()) {
+        submit(fillingBlock);
+        fillingBlock = null;
+      }
+    }
+  }
+
+  private void split() {
+    if (fillingBlock != null) {
+      submit(fillingBlock);
+      fillingBlock = null;
+    }
+    fileStartPending = true;
+  }
+
+  private Block obtainBlock() {
+    if (freeBlocks.isEmpty() && blockCount < BLOCK_COUNT) {
+      blockCount++;
+      return new Block();
+    }
+    return freeBlocks.poll();
+  }
+
+  private void submit(Block block) {
+    filledBlocks.add(block);
+    notifyAll();
+  }
+
+  private synchronized void recycle(Block block) {
+    block.data.clear();
+    block.startsFile = false;
+    block.endsFile = false;
+    block.title = null;
+    block.droppedByteCount = 0;
+    freeBlocks.add(block);
+  }
+
+  private synchronized boolean isReleased() {
+    return released;
+  }
+
+  /**
+   * Waits for the next block to write, taking the partially filled one if nothing else arrives
+   * within the flush interval.
+   *
+   * @return The block, or null if there's none.
+   */
+  private synchronized Block awaitBlock() {
+    if (filledBlocks.isEmpty() && !released) {
+      try {
+        wait(FLUSH_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        released = true;
+      }
+    }
+    if (filledBlocks.isEmpty() && fillingBlock != null && fillingBlock.data.position() > 0) {
+      submit(fillingBlock);
+      fillingBlock = null;
+    }
+    return filledBlocks.poll();
+  }
+
+  private File createFile(String title, ByteBuffer firstBytes) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory);
+    }
+    String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+    String safeTitle = title == null ? "" : title.replaceAll("[^\\p{L}\\p{N} ._-]", "").trim();
+    if (!safeTitle.isEmpty()) {
+      name += " " + safeTitle.substring(0, Math.min(safeTitle.length(), MAX_TITLE_LENGTH));
+    }
+    return new File(directory, name + getExtension(firstBytes));
+  }
+
+  /**
+   * Returns the extension for the stream starting with the given bytes: AAC for ADTS headers,
+   * MP3 otherwise.
+   */
+  private static String getExtension(ByteBuffer firstBytes) {
+    if (firstBytes.position() >= 2 && (firstBytes.get(0) & 0xFF) == 0xFF
+        && (firstBytes.get(1) & 0xF6) == 0xF0) {
+      return ".aac";
+    }
+    return ".mp3";
+  }
+
+  private void notifyFinished(final File file, final long droppedByteCount) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onRecordingFinished(file, droppedByteCount);
+        }
+      });
+    }
+  }
+
+  private void notifyError(final IOException e) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onRecordingError(e);
+        }
+      });
+    }
+  }
+
+  /**
+   * A reusable batch of recorded bytes.
+   */
+  private static final class Block {
+
+    public final ByteBuffer data;
+
+    public boolean startsFile;
+    public boolean endsFile;
+    public String title;
+    public long droppedByteCount;
+
+    public Block() {
+      data = ByteBuffer.allocate(BLOCK_SIZE);
+    }
+
+  }
+
+  /**
+   * Reads from upstream, copying what it reads into the recording.
+   */
+  private final class TeeDataSource implements DataSource {
+
+    private final DataSource upstream;
+
+    public TeeDataSource(DataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int read = upstream.read(buffer, offset, readLength);
+      if (read != C.RESULT_END_OF_INPUT) {
+        onBytesRead(buffer, offset, read);
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+
+  }
+
+}
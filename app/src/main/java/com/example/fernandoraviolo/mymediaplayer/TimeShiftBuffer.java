@@ -0,0 +1,438 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Records a live stream into a fixed size ring backed by a memory-mapped file, so that playback can
+ * be paused, resumed where it was left or moved back in time without reconnecting.
+ * <p>
+ * A background thread reads the stream at its own rate and writes it sequentially into the ring,
+ * overwriting the oldest bytes once it is full. The stream is read through the upstream passed to
+ * {@link #createDataSource(Uri, DataSource, Handler, IcyDataSource.EventListener)}, so the
+ * recording connection gets the same metadata parsing, reconnection and metering as any other; the
+ * player reads the ring through the source it returns. Every open of that source starts at the
+ * current start offset, which is moved by {@link #seekBack(long, long)} and
+ * {@link #seekToLiveEdge()}; the player then has to reopen it by seeking to 0.
+ * <p>
+ * Stream titles arrive with the live edge, which can be minutes ahead of what plays. The buffer is
+ * therefore the {@link IcyDataSource.EventListener} of the recording connection: it remembers the
+ * position each title was received at, and readers announce a title once they read past it.
+ * <p>
+ * Time is mapped to bytes using the average rate the stream has been received at, which is exact
+ * for the constant bitrate streams radio stations use.
+ */
+public final class TimeShiftBuffer implements IcyDataSource.EventListener {
+
+  public static final int DEFAULT_CAPACITY = 32 * 1024 * 1024;
+
+  private static final String TAG = "TimeShiftBuffer";
+  private static final int READ_CHUNK_SIZE = 16 * 1024;
+
+  private final File file;
+  private final int capacity;
+
+  private final ArrayDeque<Title> titles;
+
+  private MappedByteBuffer ring;
+  private Recording recording;
+  private long writePosition;
+  private long startPosition;
+  private long firstWriteTimeMs;
+  private long lastWriteTimeMs;
+  private boolean released;
+
+  /**
+   * @param file The file backing the ring. Its previous contents are overwritten.
+   * @param capacity The size of the ring in bytes.
+   */
+  public TimeShiftBuffer(File file, int capacity) {
+    this.file = file;
+    this.capacity = capacity;
+    titles = new ArrayDeque<>();
+  }
+
+  /**
+   * Maps the backing file. Recording starts with the first call to
+   * {@link #createDataSource(Uri, DataSource, Handler, IcyDataSource.EventListener)}.
+   */
+  public synchronized void start() throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(capacity);
+      ring = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    } finally {
+      // The mapping stays valid after the file is closed.
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Stops recording and deletes the backing file.
+   */
+  public void release() {
+    synchronized (this) {
+      released = true;
+      if (recording != null) {
+        recording.stop();
+      }
+      notifyAll();
+    }
+    if (!file.delete()) {
+      Log.w(TAG, "Failed to delete " + file);
+    }
+  }
+
+  /**
+   * Returns a source that reads the recording of {@code uri}, starting at the current start offset.
+   * <p>
+   * If the buffer isn't recording {@code uri}, because it records another stream or the recording
+   * ended, what was recorded is dropped and recording {@code uri} starts at once from
+   * {@code upstream}, which the buffer owns from then on. Otherwise {@code upstream} isn't used.
+   * Titles of the stream should be reported to {@link #onStreamTitleChanged(String)}.
+   *
+   * @param eventHandler A handler to use when delivering titles to {@code eventListener}. May be
+   *     null if delivery of titles is not required.
+   * @param eventListener A listener of the titles of what is read. May be null if delivery of
+   *     titles is not required.
+   */
+  public synchronized DataSource createDataSource(Uri uri, DataSource upstream,
+      Handler eventHandler, IcyDataSource.EventListener eventListener) {
+    if (ring != null && !released
+        && (recording == null || recording.finished || !recording.uri.equals(uri))) {
+      if (recording != null) {
+        recording.stop();
+      }
+      writePosition = 0;
+      startPosition = 0;
+      firstWriteTimeMs = 0;
+      lastWriteTimeMs = 0;
+      titles.clear();
+      recording = new Recording(uri, upstream);
+      recording.start();
+      // Wakes readers of the previous recording, which end.
+      notifyAll();
+    }
+    return new RingDataSource(recording, eventHandler, eventListener);
+  }
+
+  /**
+   * Records that the stream title changed at the most recently received byte.
+   */
+  @Override
+  public synchronized void onStreamTitleChanged(String title) {
+    if (recording == null) {
+      return;
+    }
+    titles.add(new Title(writePosition, title));
+    // Forget titles that were followed by another before the oldest byte still recorded.
+    Title oldestTitle = titles.remove();
+    while (!titles.isEmpty() && titles.peek().position <= getOldestPosition()) {
+      oldestTitle = titles.remove();
+    }
+    titles.addFirst(oldestTitle);
+  }
+
+  /**
+   * Moves the start offset to the most recently received byte.
+   */
+  public synchronized void seekToLiveEdge() {
+    startPosition = writePosition;
+  }
+
+  /**
+   * Moves the start offset back from the position being played.
+   *
+   * @param playbackPositionMs The position of the player, relative to the last time the source
+   *     was opened.
+   * @param rewindMs How far back to move from the playback position.
+   * @return The delay behind the live edge at the new start offset, in milliseconds.
+   */
+  public synchronized long seekBack(long playbackPositionMs, long rewindMs) {
+    double bytesPerMs = getBytesPerMs();
+    long playbackOffset = startPosition + (long) (playbackPositionMs * bytesPerMs);
+    startPosition = Math.max(getOldestPosition(),
+        Math.min(writePosition, playbackOffset - (long) (rewindMs * bytesPerMs)));
+    return bytesPerMs == 0 ? 0 : (long) ((writePosition - startPosition) / bytesPerMs);
+  }
+
+  /**
+   * Returns how far back the ring reaches behind the live edge, in milliseconds.
+   */
+  public synchronized long getMaxRewindMs() {
+    double bytesPerMs = getBytesPerMs();
+    return bytesPerMs == 0 ? 0 : (long) ((writePosition - getOldestPosition()) / bytesPerMs);
+  }
+
+  /**
+   * Appends a chunk of {@code source} to the ring, unless a newer recording replaced it.
+   */
+  private synchronized void write(Recording source, ByteBuffer writeView, byte[] chunk,
+      int length) {
+    if (source != recording || released) {
+      return;
+    }
+    // Copied under the lock, so that a replaced recording can't write into the new one. Readers
+    // copy outside it and detect bytes overwritten under them by comparing positions afterwards.
+    int ringOffset = (int) (writePosition % capacity);
+    int firstPart = Math.min(length, capacity - ringOffset);
+    writeView.position(ringOffset);
+    writeView.put(chunk, 0, firstPart);
+    if (firstPart < length) {
+      writeView.position(0);
+      writeView.put(chunk, firstPart, length - firstPart);
+    }
+    long nowMs = SystemClock.elapsedRealtime();
+    if (writePosition == 0) {
+      firstWriteTimeMs = nowMs;
+    }
+    lastWriteTimeMs = nowMs;
+    writePosition += length;
+    notifyAll();
+  }
+
+  private long getOldestPosition() {
+    // Keep a chunk of slack so that a reader starting at the oldest byte isn't overtaken at once.
+    return Math.max(0, writePosition - capacity + READ_CHUNK_SIZE);
+  }
+
+  private double getBytesPerMs() {
+    long elapsedMs = lastWriteTimeMs - firstWriteTimeMs;
+    return elapsedMs <= 0 ? 0 : (double) writePosition / elapsedMs;
+  }
+
+  /**
+   * Returns the title of the byte before {@code position}, or null if none was received yet.
+   */
+  private Title getTitleBefore(long position) {
+    Title result = null;
+    for (Title title : titles) {
+      if (title.position >= position) {
+        break;
+      }
+      result = title;
+    }
+    return result;
+  }
+
+  /**
+   * A stream title, and the position from which it applies.
+   */
+  private static final class Title {
+
+    public final long position;
+    public final String text;
+
+    public Title(long position, String text) {
+      this.position = position;
+      this.text = text;
+    }
+
+  }
+
+  /**
+   * Reads one stream into the ring on a background thread.
+   */
+  private final class Recording implements Runnable {
+
+    public final Uri uri;
+
+    private final DataSource upstream;
+
+    // Guarded by TimeShiftBuffer.this.
+    public boolean stopped;
+    public boolean finished;
+    public IOException error;
+    private Thread thread;
+
+    public Recording(Uri uri, DataSource upstream) {
+      this.uri = uri;
+      this.upstream = upstream;
+    }
+
+    public void start() {
+      BackgroundExecutor.execute(TAG, this);
+    }
+
+    /**
+     * Stops the recording. Must be called holding the lock of the buffer.
+     */
+    public void stop() {
+      stopped = true;
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        ByteBuffer writeView;
+        synchronized (TimeShiftBuffer.this) {
+          if (stopped) {
+            return;
+          }
+          thread = Thread.currentThread();
+          writeView = ring.duplicate();
+        }
+        upstream.open(new DataSpec(uri));
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        while (!isStopped()) {
+          int read = upstream.read(chunk, 0, chunk.length);
+          if (read == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          write(this, writeView, chunk, read);
+        }
+      } catch (IOException e) {
+        synchronized (TimeShiftBuffer.this) {
+          error = e;
+        }
+      } finally {
+        try {
+          upstream.close();
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to close upstream", e);
+        }
+        synchronized (TimeShiftBuffer.this) {
+          thread = null;
+          finished = true;
+          TimeShiftBuffer.this.notifyAll();
+        }
+        // The thread goes back to the pool, without an interrupt from stop().
+        Thread.interrupted();
+      }
+    }
+
+    private boolean isStopped() {
+      synchronized (TimeShiftBuffer.this) {
+        return stopped;
+      }
+    }
+
+  }
+
+  private final class RingDataSource implements DataSource {
+
+    private final Recording source;
+    private final Handler eventHandler;
+    private final IcyDataSource.EventListener eventListener;
+
+    private ByteBuffer readView;
+    private long readPosition;
+    private Title title;
+
+    public RingDataSource(Recording source, Handler eventHandler,
+        IcyDataSource.EventListener eventListener) {
+      this.source = source;
+      this.eventHandler = eventHandler;
+      this.eventListener = eventListener;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      synchronized (TimeShiftBuffer.this) {
+        if (ring == null || source == null) {
+          throw new IOException("Time shift buffer not started");
+        }
+        readView = ring.duplicate();
+        readPosition = Math.max(getOldestPosition(), startPosition + dataSpec.position);
+      }
+      return C.LENGTH_UNBOUNDED;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      while (true) {
+        int bytesToRead;
+        synchronized (TimeShiftBuffer.this) {
+          while (isCurrent() && readPosition >= writePosition && !source.finished) {
+            try {
+              TimeShiftBuffer.this.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException(e);
+            }
+          }
+          if (!isCurrent()) {
+            // Replaced by the recording of another stream.
+            return C.RESULT_END_OF_INPUT;
+          }
+          if (readPosition >= writePosition) {
+            if (source.error != null) {
+              throw source.error;
+            }
+            return C.RESULT_END_OF_INPUT;
+          }
+          if (readPosition < getOldestPosition()) {
+            // Paused for longer than the ring holds, skip to the oldest byte still recorded.
+            readPosition = getOldestPosition();
+          }
+          bytesToRead = (int) Math.min(readLength, writePosition - readPosition);
+        }
+        int ringOffset = (int) (readPosition % capacity);
+        int firstPart = Math.min(bytesToRead, capacity - ringOffset);
+        readView.position(ringOffset);
+        readView.get(buffer, offset, firstPart);
+        if (firstPart < bytesToRead) {
+          readView.position(0);
+          readView.get(buffer, offset + firstPart, bytesToRead - firstPart);
+        }
+        Title newTitle;
+        synchronized (TimeShiftBuffer.this) {
+          if (!isCurrent()) {
+            return C.RESULT_END_OF_INPUT;
+          }
+          if (readPosition < getOldestPosition()) {
+            // The writer caught up with us during the copy, so the bytes may be torn. Read again
+            // from the oldest byte.
+            continue;
+          }
+          readPosition += bytesToRead;
+          newTitle = getTitleBefore(readPosition);
+        }
+        if (newTitle != null && newTitle != title) {
+          title = newTitle;
+          notifyStreamTitleChanged(newTitle.text);
+        }
+        return bytesToRead;
+      }
+    }
+
+    @Override
+    public void close() {
+      readView = null;
+    }
+
+    private boolean isCurrent() {
+      return source == recording && !released;
+    }
+
+    private void notifyStreamTitleChanged(final String title) {
+      if (eventHandler != null && eventListener != null) {
+        eventHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            eventListener.onStreamTitleChanged(title);
+          }
+        });
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,255 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+
+import com.google.android.exoplayer.ExoPlaybackException;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.util.MimeTypes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link MediaCodecAudioTrackRenderer} that can play decoded audio slightly faster or slower
+ * without changing its pitch, so that a live stream can drift back to a target latency.
+ * <p>
+ * At normal speed decoded buffers go straight to the audio track. Otherwise they pass through a
+ * {@link TimeStretcher} into a reused output buffer, and presentation timestamps are shifted by the
+ * accumulated difference between decoded and played duration to keep the audio track in sync.
+ * <p>
+ * The renderer can also take part in a {@link Crossfader} crossfade, either handing its decoded
+ * audio to the crossfader instead of the audio track, or mixing the crossfader's audio into the
+ * reused output buffer.
+ * <p>
+ * An {@link AudioProcessorChain} set on the renderer processes all decoded audio, after any
+ * stretching and mixing, in the same reused output buffer.
+ */
+public class TimeStretchAudioRenderer extends MediaCodecAudioTrackRenderer {
+
+  /**
+   * The type of a message that can be passed to an instance of this class via
+   * {@link com.google.android.exoplayer.ExoPlayer#sendMessage} or
+   * {@link com.google.android.exoplayer.ExoPlayer#blockingSendMessage}. The message object should be
+   * a {@link Float} with the playback speed, where 1 is normal speed.
+   */
+  public static final int MSG_SET_SPEED = 10001;
+  /**
+   * The type of a message that makes the renderer fade in over another stream. The message object
+   * should be the {@link Crossfader} the other stream's renderer was sent with
+   * {@link #MSG_CROSSFADE_OUT}.
+   */
+  public static final int MSG_CROSSFADE_IN = 10002;
+  /**
+   * The type of a message that makes the renderer fade out under another stream. From then on its
+   * decoded audio goes to the {@link Crossfader} in the message object instead of the audio track.
+   */
+  public static final int MSG_CROSSFADE_OUT = 10003;
+  /**
+   * The type of a message that sets the {@link AudioProcessorChain} decoded audio passes through,
+   * or removes it if the message object is null.
+   */
+  public static final int MSG_SET_AUDIO_PROCESSOR_CHAIN = 10004;
+
+  private final MediaCodec.BufferInfo processedBufferInfo;
+
+  private TimeStretcher timeStretcher;
+  private boolean timeStretchUnsupported;
+  private int sampleRate;
+  private ByteBuffer processedBuffer;
+  private int processedBufferIndex;
+  private float speed;
+  private long driftFrameCount;
+  private volatile long driftUs;
+  private Crossfader crossfader;
+  private boolean crossfadeOut;
+  private int crossfadeOutBufferIndex;
+  private int crossfadeOutOffset;
+  private AudioProcessorChain audioProcessorChain;
+
+  public TimeStretchAudioRenderer(SampleSource source, Handler eventHandler,
+      EventListener eventListener, AudioCapabilities audioCapabilities) {
+    super(source, null, true, eventHandler, eventListener, audioCapabilities);
+    processedBufferInfo = new MediaCodec.BufferInfo();
+    processedBufferIndex = -1;
+    crossfadeOutBufferIndex = -1;
+    speed = 1f;
+  }
+
+  /**
+   * Returns how far the played audio lags behind the decoded audio because of speed changes, in
+   * microseconds. Negative if playback was slowed down more than sped up.
+   */
+  public long getDriftUs() {
+    return driftUs;
+  }
+
+  @Override
+  public void handleMessage(int messageType, Object message) throws ExoPlaybackException {
+    if (messageType == MSG_SET_SPEED) {
+      speed = (Float) message;
+      if (timeStretcher != null) {
+        timeStretcher.setSpeed(speed);
+      }
+    } else if (messageType == MSG_CROSSFADE_IN || messageType == MSG_CROSSFADE_OUT) {
+      crossfader = (Crossfader) message;
+      crossfadeOut = messageType == MSG_CROSSFADE_OUT;
+      if (timeStretcher != null) {
+        crossfader.setFormat(sampleRate, timeStretcher.getChannelCount());
+      } else if (timeStretchUnsupported) {
+        crossfader.abort();
+      }
+    } else if (messageType == MSG_SET_AUDIO_PROCESSOR_CHAIN) {
+      audioProcessorChain = (AudioProcessorChain) message;
+      if (audioProcessorChain != null && timeStretcher != null) {
+        audioProcessorChain.configure(sampleRate, timeStretcher.getChannelCount());
+      }
+    } else {
+      super.handleMessage(messageType, message);
+    }
+  }
+
+  @Override
+  protected void onDiscontinuity(long positionUs) throws ExoPlaybackException {
+    super.onDiscontinuity(positionUs);
+    // The codec was flushed, so the stretcher must be too. The output format is read again in
+    // case it changed.
+    timeStretcher = null;
+    timeStretchUnsupported = false;
+    processedBufferIndex = -1;
+    crossfadeOutBufferIndex = -1;
+    driftFrameCount = 0;
+    driftUs = 0;
+  }
+
+  @Override
+  protected boolean processOutputBuffer(long positionUs, long elapsedRealtimeUs, MediaCodec codec,
+      ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo, int bufferIndex, boolean shouldSkip)
+      throws ExoPlaybackException {
+    if (crossfader != null && crossfadeOut) {
+      return crossfadeOut(codec, buffer, bufferInfo, bufferIndex, shouldSkip);
+    }
+    if (crossfader != null && crossfader.isDone() && processedBufferIndex != bufferIndex) {
+      crossfader = null;
+    }
+    boolean mixing = crossfader != null;
+    boolean processing = mixing || audioProcessorChain != null;
+    if (shouldSkip || (speed == 1f && (timeStretcher == null || timeStretcher.isEmpty())
+        && !processing && processedBufferIndex != bufferIndex)) {
+      if (driftUs == 0) {
+        return super.processOutputBuffer(positionUs, elapsedRealtimeUs, codec, buffer, bufferInfo,
+            bufferIndex, shouldSkip);
+      }
+      processedBufferInfo.set(bufferInfo.offset, bufferInfo.size,
+          bufferInfo.presentationTimeUs - driftUs, bufferInfo.flags);
+      return super.processOutputBuffer(positionUs, elapsedRealtimeUs, codec, buffer,
+          processedBufferInfo, bufferIndex, shouldSkip);
+    }
+    if (processedBufferIndex != bufferIndex) {
+      // A new buffer, the previous one was consumed.
+      if (timeStretcher == null
+          && (timeStretchUnsupported || !maybeCreateTimeStretcher(codec))) {
+        return super.processOutputBuffer(positionUs, elapsedRealtimeUs, codec, buffer, bufferInfo,
+            bufferIndex, false);
+      }
+      if (speed == 1f && timeStretcher.isEmpty()) {
+        copy(buffer, bufferInfo);
+      } else {
+        stretch(buffer, bufferInfo);
+      }
+      if (mixing) {
+        crossfader.mix(processedBuffer, 0, processedBufferInfo.size);
+      }
+      if (audioProcessorChain != null) {
+        audioProcessorChain.process(processedBuffer, 0, processedBufferInfo.size);
+      }
+      processedBufferIndex = bufferIndex;
+    }
+    boolean consumed = super.processOutputBuffer(positionUs, elapsedRealtimeUs, codec,
+        processedBuffer, processedBufferInfo, bufferIndex, false);
+    if (consumed) {
+      processedBufferIndex = -1;
+    }
+    return consumed;
+  }
+
+  /**
+   * Hands a decoded buffer to the crossfader, releasing it once all of it was taken.
+   */
+  private boolean crossfadeOut(MediaCodec codec, ByteBuffer buffer,
+      MediaCodec.BufferInfo bufferInfo, int bufferIndex, boolean shouldSkip) {
+    if (crossfadeOutBufferIndex != bufferIndex) {
+      crossfadeOutBufferIndex = bufferIndex;
+      crossfadeOutOffset = 0;
+    }
+    if (!shouldSkip && timeStretcher == null && !timeStretchUnsupported) {
+      maybeCreateTimeStretcher(codec);
+    }
+    if (!shouldSkip && !timeStretchUnsupported) {
+      crossfadeOutOffset += crossfader.write(buffer, bufferInfo.offset + crossfadeOutOffset,
+          bufferInfo.size - crossfadeOutOffset);
+      if (crossfadeOutOffset < bufferInfo.size) {
+        return false;
+      }
+    }
+    codec.releaseOutputBuffer(bufferIndex, false);
+    crossfadeOutBufferIndex = -1;
+    return true;
+  }
+
+  private void copy(ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo) {
+    ensureProcessedBufferCapacity(bufferInfo.size);
+    processedBuffer.clear();
+    ByteBuffer source = buffer.duplicate();
+    source.limit(bufferInfo.offset + bufferInfo.size);
+    source.position(bufferInfo.offset);
+    processedBuffer.put(source);
+    processedBufferInfo.set(0, bufferInfo.size, bufferInfo.presentationTimeUs - driftUs,
+        bufferInfo.flags);
+  }
+
+  private void stretch(ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo) {
+    ensureProcessedBufferCapacity(timeStretcher.getMaxOutputSize(bufferInfo.size));
+    processedBuffer.clear();
+    int inputFrameCount = timeStretcher.queueInput(buffer, bufferInfo.offset, bufferInfo.size);
+    int outputFrameCount = timeStretcher.readOutput(processedBuffer);
+    driftFrameCount += inputFrameCount - outputFrameCount;
+    driftUs = driftFrameCount * 1000000L / sampleRate;
+    processedBufferInfo.set(0, outputFrameCount * timeStretcher.getChannelCount() * 2,
+        bufferInfo.presentationTimeUs - driftUs, bufferInfo.flags);
+  }
+
+  private void ensureProcessedBufferCapacity(int size) {
+    if (processedBuffer == null || processedBuffer.capacity() < size) {
+      processedBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+  }
+
+  private boolean maybeCreateTimeStretcher(MediaCodec codec) {
+    MediaFormat outputFormat = codec.getOutputFormat();
+    String mimeType = outputFormat.getString(MediaFormat.KEY_MIME);
+    if (mimeType != null && !MimeTypes.AUDIO_RAW.equals(mimeType)) {
+      // Passthrough of encoded audio, which can't be stretched.
+      timeStretchUnsupported = true;
+      if (crossfader != null) {
+        crossfader.abort();
+      }
+      return false;
+    }
+    sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    int channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    timeStretcher = new TimeStretcher(sampleRate, channelCount);
+    timeStretcher.setSpeed(speed);
+    if (crossfader != null) {
+      crossfader.setFormat(sampleRate, channelCount);
+    }
+    if (audioProcessorChain != null) {
+      audioProcessorChain.configure(sampleRate, channelCount);
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,246 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Changes the speed of 16-bit PCM audio without changing its pitch.
+ * <p>
+ * Speeding up removes one pitch period of audio at a time, and slowing down repeats one, blending
+ * the edges so the splice is inaudible. Pitch periods are found with the average magnitude
+ * difference function. This is the approach of the Sonic library, reduced to what small speed
+ * corrections need.
+ * <p>
+ * Buffers grow to fit the largest input seen and are reused, so steady state processing doesn't
+ * allocate.
+ */
+/* package */ final class TimeStretcher {
+
+  private static final int MIN_PITCH_HZ = 65;
+  private static final int MAX_PITCH_HZ = 400;
+  // Pitch is detected at roughly this rate, which is plenty for voice and music.
+  private static final int PITCH_DETECTION_RATE_HZ = 4000;
+
+  private final int channelCount;
+  private final int minPeriod;
+  private final int maxPeriod;
+  private final int maxRequired;
+  private final int detectionStep;
+
+  private float speed;
+  private short[] input;
+  private int inputFrameCount;
+  private short[] output;
+  private int outputFrameCount;
+  private int remainingInputToCopy;
+
+  public TimeStretcher(int sampleRate, int channelCount) {
+    this.channelCount = channelCount;
+    minPeriod = sampleRate / MAX_PITCH_HZ;
+    maxPeriod = sampleRate / MIN_PITCH_HZ;
+    maxRequired = 2 * maxPeriod;
+    detectionStep = Math.max(1, sampleRate / PITCH_DETECTION_RATE_HZ);
+    speed = 1f;
+    input = new short[maxRequired * channelCount];
+    output = new short[maxRequired * channelCount];
+  }
+
+  public void setSpeed(float speed) {
+    this.speed = speed;
+  }
+
+  public float getSpeed() {
+    return speed;
+  }
+
+  /**
+   * Returns whether there is no input waiting to be processed.
+   */
+  public boolean isEmpty() {
+    return inputFrameCount == 0;
+  }
+
+  public int getChannelCount() {
+    return channelCount;
+  }
+
+  /**
+   * Discards all input and output.
+   */
+  public void flush() {
+    inputFrameCount = 0;
+    outputFrameCount = 0;
+    remainingInputToCopy = 0;
+  }
+
+  /**
+   * Queues little endian 16-bit PCM from {@code buffer} and processes as much of it as possible.
+   *
+   * @return The number of frames queued.
+   */
+  public int queueInput(ByteBuffer buffer, int offset, int size) {
+    int frameCount = size / (2 * channelCount);
+    input = ensureCapacity(input, inputFrameCount + frameCount);
+    int sampleCount = frameCount * channelCount;
+    int inputIndex = inputFrameCount * channelCount;
+    for (int i = 0; i < sampleCount; i++) {
+      int byteIndex = offset + 2 * i;
+      input[inputIndex + i] =
+          (short) ((buffer.get(byteIndex) & 0xFF) | (buffer.get(byteIndex + 1) << 8));
+    }
+    inputFrameCount += frameCount;
+    processInput();
+    return frameCount;
+  }
+
+  /**
+   * Writes all processed frames into {@code target} as little endian 16-bit PCM, starting at its
+   * position, which is advanced.
+   *
+   * @return The number of frames written.
+   */
+  public int readOutput(ByteBuffer target) {
+    int sampleCount = outputFrameCount * channelCount;
+    for (int i = 0; i < sampleCount; i++) {
+      short sample = output[i];
+      target.put((byte) sample);
+      target.put((byte) (sample >> 8));
+    }
+    int frameCount = outputFrameCount;
+    outputFrameCount = 0;
+    return frameCount;
+  }
+
+  /**
+   * Returns the number of bytes {@link #readOutput(ByteBuffer)} may write after queuing
+   * {@code inputSize} more bytes.
+   */
+  public int getMaxOutputSize(int inputSize) {
+    int inputFrames = inputFrameCount + inputSize / (2 * channelCount);
+    // Slowing down by half at most doubles the audio.
+    return (outputFrameCount + 2 * inputFrames + maxRequired) * channelCount * 2;
+  }
+
+  private void processInput() {
+    int position = 0;
+    while (inputFrameCount - position >= maxRequired || isUnitSpeed()) {
+      if (remainingInputToCopy == 0 && isUnitSpeed()) {
+        // Nothing to stretch, pass the rest straight through.
+        copyToOutput(position, inputFrameCount - position);
+        position = inputFrameCount;
+        break;
+      } else if (remainingInputToCopy > 0) {
+        int frameCount = Math.min(inputFrameCount - position,
+            Math.min(maxRequired, remainingInputToCopy));
+        if (frameCount == 0) {
+          // At unit speed the loop doesn't wait for input, so the rest is copied next call.
+          break;
+        }
+        copyToOutput(position, frameCount);
+        position += frameCount;
+        remainingInputToCopy -= frameCount;
+      } else {
+        int period = findPitchPeriod(position);
+        if (speed > 1f) {
+          position += period + skipPitchPeriod(position, period);
+        } else {
+          position += insertPitchPeriod(position, period);
+        }
+      }
+    }
+    // Keep what is left for the next call.
+    System.arraycopy(input, position * channelCount, input, 0,
+        (inputFrameCount - position) * channelCount);
+    inputFrameCount -= position;
+  }
+
+  private boolean isUnitSpeed() {
+    return speed > 0.99999f && speed < 1.00001f;
+  }
+
+  private int skipPitchPeriod(int position, int period) {
+    int newFrameCount;
+    if (speed >= 2f) {
+      newFrameCount = (int) (period / (speed - 1f));
+    } else {
+      newFrameCount = period;
+      remainingInputToCopy = (int) (period * (2f - speed) / (speed - 1f));
+    }
+    output = ensureCapacity(output, outputFrameCount + newFrameCount);
+    overlapAdd(newFrameCount, position, position + period);
+    outputFrameCount += newFrameCount;
+    return newFrameCount;
+  }
+
+  private int insertPitchPeriod(int position, int period) {
+    int newFrameCount;
+    if (speed < 0.5f) {
+      newFrameCount = (int) (period * speed / (1f - speed));
+    } else {
+      newFrameCount = period;
+      remainingInputToCopy = (int) (period * (2f * speed - 1f) / (1f - speed));
+    }
+    copyToOutput(position, period);
+    output = ensureCapacity(output, outputFrameCount + newFrameCount);
+    overlapAdd(newFrameCount, position + period, position);
+    outputFrameCount += newFrameCount;
+    return newFrameCount;
+  }
+
+  /**
+   * Writes {@code frameCount} frames to the output, fading out the input at
+   * {@code fadeOutPosition} while fading in the input at {@code fadeInPosition}.
+   */
+  private void overlapAdd(int frameCount, int fadeOutPosition, int fadeInPosition) {
+    for (int channel = 0; channel < channelCount; channel++) {
+      int outputIndex = outputFrameCount * channelCount + channel;
+      int fadeOutIndex = fadeOutPosition * channelCount + channel;
+      int fadeInIndex = fadeInPosition * channelCount + channel;
+      for (int i = 0; i < frameCount; i++) {
+        output[outputIndex] = (short) ((input[fadeOutIndex] * (frameCount - i)
+            + input[fadeInIndex] * i) / frameCount);
+        outputIndex += channelCount;
+        fadeOutIndex += channelCount;
+        fadeInIndex += channelCount;
+      }
+    }
+  }
+
+  private int findPitchPeriod(int position) {
+    int bestPeriod = maxPeriod;
+    long bestDiff = -1;
+    int start = position * channelCount;
+    for (int period = minPeriod; period <= maxPeriod; period += detectionStep) {
+      long diff = 0;
+      int periodOffset = period * channelCount;
+      for (int i = 0; i < period; i += detectionStep) {
+        // The first channel is representative enough to find the period.
+        int index = start + i * channelCount;
+        diff += Math.abs(input[index] - input[index + periodOffset]);
+      }
+      // Compare average differences, so that longer periods aren't penalized.
+      if (bestDiff == -1 || diff * bestPeriod < bestDiff * period) {
+        bestDiff = diff;
+        bestPeriod = period;
+      }
+    }
+    return bestPeriod;
+  }
+
+  private void copyToOutput(int position, int frameCount) {
+    output = ensureCapacity(output, outputFrameCount + frameCount);
+    System.arraycopy(input, position * channelCount, output, outputFrameCount * channelCount,
+        frameCount * channelCount);
+    outputFrameCount += frameCount;
+  }
+
+  private short[] ensureCapacity(short[] buffer, int frameCount) {
+    int requiredLength = frameCount * channelCount;
+    if (buffer.length >= requiredLength) {
+      return buffer;
+    }
+    short[] newBuffer = new short[Math.max(requiredLength, buffer.length * 2)];
+    System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
+    return newBuffer;
+  }
+
+}
@@ -0,0 +1,138 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link AudioProcessor}s on ten seconds of stereo audio at 44.1 kHz, in buffers of 1024
+ * frames, the way {@link TimeStretchAudioRenderer} runs them.
+ */
+public class AudioProcessingTest {
+
+  private static final int SAMPLE_RATE = 44100;
+  private static final int CHANNEL_COUNT = 2;
+  private static final int FRAMES_PER_BUFFER = 1024;
+  private static final int BUFFER_COUNT = 10 * SAMPLE_RATE / FRAMES_PER_BUFFER;
+
+  @Test
+  public void limiterKeepsPeaksBelowThreshold() {
+    short[] signal = createSignal();
+    ByteBuffer buffer = createBuffer();
+    AudioProcessorChain chain = new AudioProcessorChain(new LookaheadLimiter());
+    chain.configure(SAMPLE_RATE, CHANNEL_COUNT);
+    float threshold = (float) Math.pow(10, LookaheadLimiter.DEFAULT_THRESHOLD_DB / 20) * 32768;
+    int peak = 0;
+    for (int i = 0; i < BUFFER_COUNT; i++) {
+      fill(buffer, signal, i);
+      chain.process(buffer, 0, buffer.capacity());
+      for (int j = 0; j < buffer.capacity(); j += 2) {
+        peak = Math.max(peak, Math.abs(buffer.getShort(j)));
+      }
+    }
+    assertTrue("Peak " + peak, peak <= threshold + 1);
+  }
+
+  @Test
+  public void chainDoesNotAllocatePerBuffer() {
+    short[] signal = createSignal();
+    ByteBuffer buffer = createBuffer();
+    ParametricEqualizer equalizer = new ParametricEqualizer();
+    equalizer.addBand(60, 4, 0.7f);
+    equalizer.addBand(8000, 3, 0.7f);
+    AudioProcessorChain chain = new AudioProcessorChain(equalizer, new LoudnessNormalizer(),
+        new LookaheadLimiter());
+    chain.configure(SAMPLE_RATE, CHANNEL_COUNT);
+    // The first buffer sizes the reused arrays.
+    fill(buffer, signal, 0);
+    chain.process(buffer, 0, buffer.capacity());
+
+    long startAllocatedBytes = getAllocatedBytes();
+    for (int i = 1; i < BUFFER_COUNT; i++) {
+      fill(buffer, signal, i);
+      chain.process(buffer, 0, buffer.capacity());
+    }
+    long allocatedBytesPerBuffer = (getAllocatedBytes() - startAllocatedBytes) / BUFFER_COUNT;
+    // Any per buffer allocation would be at least an object header.
+    assertTrue("Allocated bytes/buffer: " + allocatedBytesPerBuffer, allocatedBytesPerBuffer < 8);
+  }
+
+  @Test
+  public void normalizerBringsToneToTargetLoudness() {
+    float targetLufs = -16;
+    LoudnessNormalizer normalizer = new LoudnessNormalizer(targetLufs, 12);
+    normalizer.configure(SAMPLE_RATE, CHANNEL_COUNT);
+    // A 1 kHz tone at -20 dBFS in both channels measures -20 LUFS.
+    float[] samples = new float[FRAMES_PER_BUFFER * CHANNEL_COUNT];
+    double phaseStep = 2 * Math.PI * 1000 / SAMPLE_RATE;
+    int frame = 0;
+    LoudnessNormalizer meter = null;
+    float[] meterSamples = new float[samples.length];
+    for (int i = 0; i < 4 * BUFFER_COUNT; i++) {
+      for (int j = 0; j < FRAMES_PER_BUFFER; j++) {
+        float sample = (float) (0.1 * Math.sin(phaseStep * frame++));
+        samples[2 * j] = sample;
+        samples[2 * j + 1] = sample;
+      }
+      normalizer.process(samples, FRAMES_PER_BUFFER);
+      if (i == 2 * BUFFER_COUNT) {
+        // By now the gain has settled, so the output is measured from here on.
+        meter = new LoudnessNormalizer();
+        meter.configure(SAMPLE_RATE, CHANNEL_COUNT);
+      }
+      if (meter != null) {
+        System.arraycopy(samples, 0, meterSamples, 0, samples.length);
+        meter.process(meterSamples, FRAMES_PER_BUFFER);
+      }
+    }
+    assertEquals(-20, normalizer.getIntegratedLoudness(), 0.2);
+    assertEquals(targetLufs, meter.getIntegratedLoudness(), 0.2);
+  }
+
+  private static void fill(ByteBuffer buffer, short[] signal, int bufferIndex) {
+    int offset = bufferIndex * FRAMES_PER_BUFFER * CHANNEL_COUNT;
+    for (int i = 0; i < FRAMES_PER_BUFFER * CHANNEL_COUNT; i++) {
+      buffer.putShort(i * 2, signal[offset + i]);
+    }
+  }
+
+  private static ByteBuffer createBuffer() {
+    return ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * CHANNEL_COUNT * 2)
+        .order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Returns interleaved stereo with a swept tone and noise, with a full scale burst in the fifth
+   * and tenth second for the limiter to catch.
+   */
+  private static short[] createSignal() {
+    Random random = new Random(0);
+    int frameCount = BUFFER_COUNT * FRAMES_PER_BUFFER;
+    short[] signal = new short[frameCount * CHANNEL_COUNT];
+    double phase = 0;
+    for (int frame = 0; frame < frameCount; frame++) {
+      double frequency = 50 * Math.pow(300, (double) frame / frameCount);
+      phase += 2 * Math.PI * frequency / SAMPLE_RATE;
+      boolean burst = (frame / SAMPLE_RATE) % 5 == 4 && frame % SAMPLE_RATE < SAMPLE_RATE / 4;
+      double amplitude = burst ? 1 : 0.4;
+      for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+        double sample = amplitude * (0.8 * Math.sin(phase + channel) + 0.2 * random.nextGaussian());
+        signal[frame * CHANNEL_COUNT + channel] =
+            (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample * 32767));
+      }
+    }
+    return signal;
+  }
+
+  private static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator.Evaluation;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link BufferAwareFormatEvaluator} against a bandwidth estimate set by the test.
+ */
+public class BufferAwareFormatEvaluatorTest {
+
+  private static final long CHUNK_DURATION_US = 4000000;
+
+  private static final Format LOW = createFormat("low", 48000);
+  private static final Format MEDIUM = createFormat("medium", 128000);
+  private static final Format HIGH = createFormat("high", 256000);
+  private static final Format[] FORMATS = {HIGH, LOW, MEDIUM};
+
+  private FakeBandwidthMeter bandwidthMeter;
+  private BufferAwareFormatEvaluator evaluator;
+  private Evaluation evaluation;
+
+  @Before
+  public void setUp() {
+    bandwidthMeter = new FakeBandwidthMeter();
+    evaluator = new BufferAwareFormatEvaluator(bandwidthMeter);
+    evaluation = new Evaluation();
+  }
+
+  @Test
+  public void startsAtMaxInitialBitrateWithoutEstimate() {
+    evaluate(0);
+    assertSame(MEDIUM, evaluation.format);
+  }
+
+  @Test
+  public void stepsUpOneFormatOnceBuffered() {
+    evaluation.format = LOW;
+    bandwidthMeter.bitrateEstimate = 1000000;
+    evaluate(5000000);
+    assertSame(LOW, evaluation.format);
+    evaluate(12000000);
+    assertSame(MEDIUM, evaluation.format);
+    assertEquals(Chunk.TRIGGER_ADAPTIVE, evaluation.trigger);
+    evaluate(12000000);
+    assertSame(HIGH, evaluation.format);
+  }
+
+  @Test
+  public void stepsDownWhenEstimateDrops() {
+    evaluation.format = HIGH;
+    bandwidthMeter.bitrateEstimate = 100000;
+    evaluate(30000000);
+    // Enough buffered to wait the drop out.
+    assertSame(HIGH, evaluation.format);
+    evaluate(15000000);
+    assertSame(LOW, evaluation.format);
+  }
+
+  @Test
+  public void stepsDownBeforeBufferDrains() {
+    evaluation.format = MEDIUM;
+    // Covers the format with the headroom, but a 4s chunk takes about 2.8s to load.
+    bandwidthMeter.bitrateEstimate = 180000;
+    evaluate(8000000);
+    assertSame(MEDIUM, evaluation.format);
+    evaluate(2500000);
+    assertSame(LOW, evaluation.format);
+  }
+
+  private void evaluate(long bufferedDurationUs) {
+    evaluator.evaluate(bufferedDurationUs, CHUNK_DURATION_US, FORMATS, evaluation);
+  }
+
+  private static Format createFormat(String id, int bitrate) {
+    return new Format(id, "audio/mp4", -1, -1, -1, 2, 44100, bitrate);
+  }
+
+  private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+    public long bitrateEstimate = NO_ESTIMATE;
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    public void onTransferStart() {
+      // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onTransferEnd() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,277 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource.HttpDataSourceException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ParallelRangeDataSource} against connections to a fake server whose ranges can be
+ * held back or made to fail.
+ */
+public class ParallelRangeDataSourceTest {
+
+  // The chunk and window sizes of ParallelRangeDataSource.
+  private static final int CHUNK_SIZE = 128 * 1024;
+  private static final int WINDOW_CHUNK_COUNT = 4;
+  private static final int ALLOCATION_LENGTH = 64 * 1024;
+  // Reads cross chunk and allocation boundaries in the middle of a buffer.
+  private static final int READ_LENGTH = 10000;
+
+  private byte[] resource;
+  private FakeServer server;
+  private DefaultAllocator allocator;
+  private ParallelRangeDataSource dataSource;
+
+  @Before
+  public void setUp() {
+    // Eight chunks, the last one short.
+    resource = new byte[8 * CHUNK_SIZE - 1000];
+    new Random(0).nextBytes(resource);
+    server = new FakeServer(resource);
+    allocator = new DefaultAllocator(ALLOCATION_LENGTH);
+    dataSource = new ParallelRangeDataSource(server, 4, allocator);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.releaseAll();
+    dataSource.close();
+  }
+
+  @Test(timeout = 5000)
+  public void readsChunksThatCompleteOutOfOrder() throws IOException, InterruptedException {
+    server.hold(0);
+    assertEquals(resource.length, dataSource.open(createDataSpec(0)));
+    // The other connections finish their chunks while the first one is held back.
+    for (int i = 1; i < 4; i++) {
+      server.awaitServed(i * CHUNK_SIZE);
+    }
+    int allocatedBytes = allocator.getTotalBytesAllocated();
+    assertTrue("Allocated " + allocatedBytes, allocatedBytes <= WINDOW_CHUNK_COUNT * CHUNK_SIZE);
+    server.release(0);
+
+    assertArrayEquals(resource, readToEnd());
+    dataSource.close();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  @Test(timeout = 5000)
+  public void reopensWhileChunksAreDownloading() throws IOException {
+    server.hold(2 * CHUNK_SIZE);
+    dataSource.open(createDataSpec(0));
+    assertArrayEquals(Arrays.copyOf(resource, CHUNK_SIZE + 100), read(CHUNK_SIZE + 100));
+    dataSource.close();
+
+    int position = 5 * CHUNK_SIZE / 2;
+    assertEquals(resource.length - position, dataSource.open(createDataSpec(position)));
+    // The chunk of the previous open goes on downloading, into a window that has been reused.
+    server.release(2 * CHUNK_SIZE);
+    assertArrayEquals(Arrays.copyOfRange(resource, position, resource.length), readToEnd());
+    dataSource.close();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  @Test(timeout = 5000)
+  public void failedChunkFailsReadAtItsPosition() throws IOException {
+    server.fail(2 * CHUNK_SIZE);
+    dataSource.open(createDataSpec(0));
+    assertArrayEquals(Arrays.copyOf(resource, 2 * CHUNK_SIZE), read(2 * CHUNK_SIZE));
+    try {
+      dataSource.read(new byte[READ_LENGTH], 0, READ_LENGTH);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    dataSource.close();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  private static DataSpec createDataSpec(long position) {
+    return new DataSpec(null, position, C.LENGTH_UNBOUNDED, null);
+  }
+
+  private byte[] read(int length) throws IOException {
+    byte[] data = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int read = dataSource.read(data, offset, Math.min(READ_LENGTH, length - offset));
+      assertTrue(read != C.RESULT_END_OF_INPUT);
+      offset += read;
+    }
+    return data;
+  }
+
+  private byte[] readToEnd() throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_LENGTH];
+    int read;
+    while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+      data.write(buffer, 0, read);
+    }
+    return data.toByteArray();
+  }
+
+  /**
+   * Serves ranges of a resource, with a {@code Content-Range} header. Ranges are identified by
+   * their start position.
+   */
+  private static final class FakeServer implements ParallelRangeDataSource.Factory {
+
+    private final byte[] resource;
+    private final Set<Long> heldPositions;
+    private final Set<Long> failingPositions;
+    private final Set<Long> servedPositions;
+
+    public FakeServer(byte[] resource) {
+      this.resource = resource;
+      heldPositions = new HashSet<>();
+      failingPositions = new HashSet<>();
+      servedPositions = new HashSet<>();
+    }
+
+    /**
+     * Makes reads of the range at {@code position} block until it's released.
+     */
+    public synchronized void hold(long position) {
+      heldPositions.add(position);
+    }
+
+    public synchronized void release(long position) {
+      heldPositions.remove(position);
+      notifyAll();
+    }
+
+    public synchronized void releaseAll() {
+      heldPositions.clear();
+      notifyAll();
+    }
+
+    /**
+     * Makes reads of the range at {@code position} fail.
+     */
+    public synchronized void fail(long position) {
+      failingPositions.add(position);
+    }
+
+    /**
+     * Blocks until the whole range at {@code position} was read.
+     */
+    public synchronized void awaitServed(long position) throws InterruptedException {
+      while (!servedPositions.contains(position)) {
+        wait();
+      }
+    }
+
+    @Override
+    public HttpDataSource createDataSource() {
+      return new FakeHttpDataSource();
+    }
+
+    private synchronized void beforeRead(DataSpec dataSpec) throws HttpDataSourceException {
+      while (heldPositions.contains(dataSpec.position)) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new HttpDataSourceException("Interrupted", dataSpec);
+        }
+      }
+      if (failingPositions.contains(dataSpec.position)) {
+        throw new HttpDataSourceException("Connection reset", dataSpec);
+      }
+    }
+
+    private synchronized void onServed(DataSpec dataSpec) {
+      servedPositions.add(dataSpec.position);
+      notifyAll();
+    }
+
+    private final class FakeHttpDataSource implements HttpDataSource {
+
+      private DataSpec dataSpec;
+      private long position;
+      private long endPosition;
+      private Map<String, List<String>> responseHeaders;
+
+      @Override
+      public long open(DataSpec dataSpec) {
+        this.dataSpec = dataSpec;
+        position = dataSpec.position;
+        endPosition = dataSpec.length == C.LENGTH_UNBOUNDED ? resource.length
+            : Math.min(resource.length, position + dataSpec.length);
+        responseHeaders = Collections.singletonMap("Content-Range", Collections.singletonList(
+            "bytes " + position + "-" + (endPosition - 1) + "/" + resource.length));
+        return endPosition - position;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        beforeRead(dataSpec);
+        if (position == endPosition) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        int read = (int) Math.min(readLength, endPosition - position);
+        System.arraycopy(resource, (int) position, buffer, offset, read);
+        position += read;
+        if (position == endPosition) {
+          onServed(dataSpec);
+        }
+        return read;
+      }
+
+      @Override
+      public void close() {
+        // Do nothing.
+      }
+
+      @Override
+      public String getUri() {
+        return null;
+      }
+
+      @Override
+      public void setRequestProperty(String name, String value) {
+        // Do nothing.
+      }
+
+      @Override
+      public void clearRequestProperty(String name) {
+        // Do nothing.
+      }
+
+      @Override
+      public void clearAllRequestProperties() {
+        // Do nothing.
+      }
+
+      @Override
+      public Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,304 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.util.Clock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PooledHttpDataSource}, {@link HttpConnectionPool} and its {@link DnsCache} against a
+ * server on the loopback interface, with a clock that only moves when told to.
+ */
+public class PooledHttpDataSourceTest {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final String HELLO = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello";
+
+  private LoopbackServer server;
+  private FakeClock clock;
+  private HttpConnectionPool pool;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new LoopbackServer();
+    clock = new FakeClock();
+    pool = new HttpConnectionPool(HttpConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS,
+        HttpConnectionPool.DEFAULT_KEEP_ALIVE_DURATION_MS,
+        new DnsCache(DnsCache.DEFAULT_TTL_MS, clock), clock);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    pool.evictAll();
+    server.close();
+  }
+
+  @Test(timeout = 5000)
+  public void reusesConnectionAfterContentLengthBody() throws IOException {
+    server.respond(HELLO, false);
+    server.respond(HELLO, false);
+
+    assertEquals("hello", fetch("/a"));
+    assertEquals("hello", fetch("/a"));
+    assertEquals(1, server.getConnectionCount());
+    assertEquals(1, pool.getOpenedCount());
+    assertEquals(1, pool.getReusedCount());
+  }
+
+  @Test(timeout = 5000)
+  public void readsChunkedBodyAndReusesConnection() throws IOException {
+    server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+        + "5\r\nhello\r\n6;name=value\r\n world\r\n0\r\n\r\n", false);
+    server.respond(HELLO, false);
+
+    assertEquals("hello world", fetch("/a"));
+    assertEquals("hello", fetch("/a"));
+    assertEquals(1, server.getConnectionCount());
+  }
+
+  @Test(timeout = 5000)
+  public void followsRedirectOverSameConnection() throws IOException {
+    server.respond("HTTP/1.1 302 Found\r\nLocation: /b\r\nContent-Length: 0\r\n\r\n", false);
+    server.respond(HELLO, false);
+
+    PooledHttpDataSource dataSource = createDataSource();
+    dataSource.open(new DataSpec(null), server.getUrl("/a"));
+    assertEquals("hello", readToEnd(dataSource));
+    assertTrue(dataSource.getUri().endsWith("/b"));
+    dataSource.close();
+    assertTrue(server.getRequest(1).startsWith("GET /b HTTP/1.1\r\n"));
+    assertEquals(1, server.getConnectionCount());
+  }
+
+  @Test(timeout = 5000)
+  public void readsIcyResponseUntilServerCloses() throws IOException {
+    server.respond("ICY 200 OK\r\nicy-metaint: 16000\r\n\r\nstream", true);
+
+    PooledHttpDataSource dataSource = createDataSource();
+    assertEquals(C.LENGTH_UNBOUNDED, dataSource.open(new DataSpec(null), server.getUrl("/")));
+    assertEquals("16000", dataSource.getResponseHeaders().get("icy-metaint").get(0));
+    assertEquals("stream", readToEnd(dataSource));
+    dataSource.close();
+  }
+
+  @Test(timeout = 5000)
+  public void retriesOnNewConnectionWhenPooledOneWasClosed() throws IOException {
+    server.respond(HELLO, false);
+    // Closes the connection after reading the second request, as a server whose keep-alive
+    // timeout just expired does.
+    server.respond(null, true);
+    server.respond(HELLO, false);
+
+    assertEquals("hello", fetch("/a"));
+    assertEquals("hello", fetch("/a"));
+    assertEquals(2, server.getConnectionCount());
+    assertEquals(2, pool.getOpenedCount());
+    assertEquals(1, pool.getReusedCount());
+  }
+
+  @Test(timeout = 5000)
+  public void reusesConnectionUntilKeepAliveExpires() throws IOException {
+    server.respond(HELLO, false);
+    server.respond(HELLO, false);
+    server.respond(HELLO, false);
+
+    assertEquals("hello", fetch("/a"));
+    clock.advance(HttpConnectionPool.DEFAULT_KEEP_ALIVE_DURATION_MS);
+    assertEquals("hello", fetch("/a"));
+    clock.advance(HttpConnectionPool.DEFAULT_KEEP_ALIVE_DURATION_MS + 1);
+    assertEquals("hello", fetch("/a"));
+    assertEquals(2, server.getConnectionCount());
+    assertEquals(2, pool.getOpenedCount());
+    assertEquals(1, pool.getReusedCount());
+  }
+
+  @Test(timeout = 5000)
+  public void looksHostUpAgainOnceTtlExpires() throws IOException {
+    server.respond(HELLO, false);
+    server.respond(HELLO, false);
+    server.respond(HELLO, false);
+    DnsCache dnsCache = pool.getDnsCache();
+
+    assertEquals("hello", fetch("/a"));
+    // New connections, so that the host is looked up each time.
+    pool.evictAll();
+    clock.advance(DnsCache.DEFAULT_TTL_MS - 1);
+    assertEquals("hello", fetch("/a"));
+    assertEquals(1, dnsCache.getMissCount());
+    assertEquals(1, dnsCache.getHitCount());
+    pool.evictAll();
+    clock.advance(1);
+    assertEquals("hello", fetch("/a"));
+    assertEquals(2, dnsCache.getMissCount());
+    assertEquals(1, dnsCache.getHitCount());
+  }
+
+  private PooledHttpDataSource createDataSource() {
+    return new PooledHttpDataSource("test", pool, 1000, 1000, null, null, null);
+  }
+
+  private String fetch(String path) throws IOException {
+    PooledHttpDataSource dataSource = createDataSource();
+    try {
+      dataSource.open(new DataSpec(null), server.getUrl(path));
+      return readToEnd(dataSource);
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private static String readToEnd(PooledHttpDataSource dataSource) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[3];
+    int read;
+    while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+      body.write(buffer, 0, read);
+    }
+    return new String(body.toByteArray(), ASCII);
+  }
+
+  private static final class FakeClock implements Clock {
+
+    private long timeMs;
+
+    public synchronized void advance(long durationMs) {
+      timeMs += durationMs;
+    }
+
+    @Override
+    public synchronized long elapsedRealtime() {
+      return timeMs;
+    }
+
+  }
+
+  /**
+   * Answers requests with scripted responses, one connection at a time.
+   */
+  private static final class LoopbackServer implements Runnable {
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    private final LinkedList<String> responses;
+    private final LinkedList<Boolean> closeAfterResponses;
+    private final List<String> requests;
+
+    private Socket socket;
+    private int connectionCount;
+
+    public LoopbackServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      responses = new LinkedList<>();
+      closeAfterResponses = new LinkedList<>();
+      requests = new ArrayList<>();
+      thread = new Thread(this, "LoopbackServer");
+      thread.start();
+    }
+
+    /**
+     * @param response The raw response to the next request, or null to send nothing.
+     * @param closeAfter Whether to close the connection afterwards.
+     */
+    public synchronized void respond(String response, boolean closeAfter) {
+      responses.add(response);
+      closeAfterResponses.add(closeAfter);
+    }
+
+    public URL getUrl(String path) throws IOException {
+      return new URL("http", "127.0.0.1", serverSocket.getLocalPort(), path);
+    }
+
+    public synchronized int getConnectionCount() {
+      return connectionCount;
+    }
+
+    public synchronized String getRequest(int index) {
+      return requests.get(index);
+    }
+
+    public void close() throws IOException {
+      serverSocket.close();
+      synchronized (this) {
+        if (socket != null) {
+          socket.close();
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Socket socket = serverSocket.accept();
+          synchronized (this) {
+            this.socket = socket;
+            connectionCount++;
+          }
+          try {
+            serve(socket.getInputStream(), socket.getOutputStream());
+          } finally {
+            socket.close();
+          }
+        }
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+
+    private void serve(InputStream in, OutputStream out) throws IOException {
+      String request;
+      while ((request = readRequestHead(in)) != null) {
+        String response;
+        boolean closeAfter;
+        synchronized (this) {
+          requests.add(request);
+          if (responses.isEmpty()) {
+            return;
+          }
+          response = responses.remove();
+          closeAfter = closeAfterResponses.remove();
+        }
+        if (response != null) {
+          out.write(response.getBytes(ASCII));
+          out.flush();
+        }
+        if (closeAfter) {
+          return;
+        }
+      }
+    }
+
+    private static String readRequestHead(InputStream in) throws IOException {
+      StringBuilder head = new StringBuilder();
+      int b;
+      while ((b = in.read()) != -1) {
+        head.append((char) b);
+        if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+          return head.toString();
+        }
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import com.google.android.exoplayer.upstream.Allocation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests {@link SlabAllocator}.
+ */
+public class SlabAllocatorTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+  private static final int SLAB_SIZE = 1024 * 1024;
+  private static final int SEGMENTS_PER_SLAB = SLAB_SIZE / SEGMENT_SIZE;
+
+  @Test
+  public void carvesSegmentsOutOfSlabs() {
+    SlabAllocator allocator = new SlabAllocator(SEGMENT_SIZE, SLAB_SIZE);
+    ArrayList<Allocation> allocations = allocate(allocator, 256);
+
+    assertEquals(16 * SLAB_SIZE, allocator.getTotalSlabBytes());
+    assertEquals(256 * SEGMENT_SIZE, allocator.getTotalBytesAllocated());
+    assertSame(allocations.get(0).data, allocations.get(SEGMENTS_PER_SLAB - 1).data);
+    assertNotSame(allocations.get(0).data, allocations.get(SEGMENTS_PER_SLAB).data);
+  }
+
+  @Test
+  public void trimOnlyFreesSlabsWithoutAllocations() {
+    SlabAllocator allocator = new SlabAllocator(SEGMENT_SIZE, SLAB_SIZE);
+    ArrayList<Allocation> allocations = allocate(allocator, 2 * SEGMENTS_PER_SLAB);
+    // Empties the first slab, and leaves one allocation in the second.
+    for (int i = 0; i < 2 * SEGMENTS_PER_SLAB - 1; i++) {
+      allocator.release(allocations.get(i));
+    }
+
+    allocator.trim(0);
+    assertEquals(SLAB_SIZE, allocator.getTotalSlabBytes());
+
+    allocator.release(allocations.get(2 * SEGMENTS_PER_SLAB - 1));
+    allocator.trim(0);
+    assertEquals(0, allocator.getTotalSlabBytes());
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  @Test
+  public void reusesReleasedSegments() {
+    SlabAllocator allocator = new SlabAllocator(SEGMENT_SIZE, SLAB_SIZE);
+    Allocation allocation = allocator.allocate();
+    allocator.release(allocation);
+
+    assertSame(allocation, allocator.allocate());
+    assertEquals(SLAB_SIZE, allocator.getTotalSlabBytes());
+  }
+
+  private static ArrayList<Allocation> allocate(SlabAllocator allocator, int count) {
+    ArrayList<Allocation> allocations = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      allocations.add(allocator.allocate());
+    }
+    return allocations;
+  }
+
+}
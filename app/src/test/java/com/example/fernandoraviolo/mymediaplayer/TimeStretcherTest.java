@@ -0,0 +1,71 @@
+package com.example.fernandoraviolo.mymediaplayer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link TimeStretcher} on a synthetic tone.
+ */
+public class TimeStretcherTest {
+
+  private static final int SAMPLE_RATE = 44100;
+  private static final int CHANNEL_COUNT = 2;
+  private static final int BUFFER_FRAME_COUNT = 4096;
+
+  @Test(timeout = 5000)
+  public void passesInputThroughAfterReturningToUnitSpeed() {
+    TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, CHANNEL_COUNT);
+    ByteBuffer input = createTone(BUFFER_FRAME_COUNT);
+    ByteBuffer output = ByteBuffer.allocate(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Leaves a pitch period's worth of input to copy when the buffer runs out.
+    stretcher.setSpeed(1.0126f);
+    stretcher.queueInput(input, 0, input.limit());
+    stretcher.readOutput(output);
+
+    stretcher.setSpeed(1f);
+    int outputFrameCount = 0;
+    for (int i = 0; i < 4; i++) {
+      stretcher.queueInput(input, 0, input.limit());
+      outputFrameCount += stretcher.readOutput(output);
+    }
+    // Everything queued at unit speed comes out, apart from what the first call held back.
+    assertTrue(outputFrameCount >= 3 * BUFFER_FRAME_COUNT);
+    assertTrue(stretcher.isEmpty());
+  }
+
+  @Test
+  public void speedsUpByAboutTheRequestedFactor() {
+    TimeStretcher stretcher = new TimeStretcher(SAMPLE_RATE, CHANNEL_COUNT);
+    ByteBuffer input = createTone(BUFFER_FRAME_COUNT);
+    ByteBuffer output = ByteBuffer.allocate(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+    stretcher.setSpeed(1.25f);
+    int inputFrameCount = 0;
+    int outputFrameCount = 0;
+    for (int i = 0; i < 50; i++) {
+      inputFrameCount += stretcher.queueInput(input, 0, input.limit());
+      outputFrameCount += stretcher.readOutput(output);
+      output.clear();
+    }
+    assertEquals(1.25, (double) inputFrameCount / outputFrameCount, 0.05);
+  }
+
+  private static ByteBuffer createTone(int frameCount) {
+    ByteBuffer buffer = ByteBuffer.allocate(frameCount * CHANNEL_COUNT * 2)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < frameCount; i++) {
+      short sample = (short) (8000 * Math.sin(2 * Math.PI * 220 * i / SAMPLE_RATE));
+      for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+        buffer.putShort(sample);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+}